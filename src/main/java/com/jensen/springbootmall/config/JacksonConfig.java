@@ -0,0 +1,16 @@
+package com.jensen.springbootmall.config;
+
+import com.jensen.springbootmall.util.ProductFields;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class JacksonConfig {
+
+    // Product 標註了 @JsonFilter，沒有指定 fields 的序列化（例如單純回傳 Product 或匯出）預設輸出全部欄位
+    @Bean
+    public Jackson2ObjectMapperBuilderCustomizer productFilterCustomizer() {
+        return builder -> builder.filters(ProductFields.filterProvider(null));
+    }
+}
@@ -0,0 +1,10 @@
+package com.jensen.springbootmall.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+// 啟用 @Scheduled，用於熱門商品庫存定期寫回資料庫
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -0,0 +1,23 @@
+package com.jensen.springbootmall.constant;
+
+// 庫存異動的原因；absolute 為 true 的異動記錄的是異動後的庫存，其餘記錄的是增減數量
+public enum InventoryMovementReason {
+    // 下單扣庫存
+    ORDER(false),
+    // 熱門商品模式寫回扣除的數量
+    HOT_INVENTORY_FLUSH(false),
+    // 新增商品時的庫存
+    PRODUCT_CREATED(true),
+    // 後台修改商品時設定的庫存
+    PRODUCT_UPDATED(true);
+
+    private final boolean absolute;
+
+    InventoryMovementReason(boolean absolute) {
+        this.absolute = absolute;
+    }
+
+    public boolean isAbsolute() {
+        return absolute;
+    }
+}
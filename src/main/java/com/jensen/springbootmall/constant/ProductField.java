@@ -0,0 +1,50 @@
+package com.jensen.springbootmall.constant;
+
+// 商品可供前端挑選的欄位（fields 參數）：JSON 屬性名稱與對應的資料表欄位
+public enum ProductField {
+    PRODUCT_ID("productId", "product_id"),
+    PRODUCT_NAME("productName", "product_name"),
+    CATEGORY("category", "category"),
+    IMAGE_URL("imageUrl", "image_url"),
+    PRICE("price", "price"),
+    STOCK("stock", "stock"),
+    DESCRIPTION("description", "description"),
+    CREATED_DATE("createdDate", "created_date"),
+    LAST_MODIFIED_DATE("lastModifiedDate", "last_modified_date");
+
+    private final String property;
+    private final String column;
+
+    ProductField(String property, String column) {
+        this.property = property;
+        this.column = column;
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    // 依 JSON 屬性名稱取得欄位，不存在時回傳 null
+    public static ProductField ofProperty(String property) {
+        for (ProductField field : values()) {
+            if (field.property.equals(property)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    // 依資料表欄位名稱取得欄位，不存在時回傳 null
+    public static ProductField ofColumn(String column) {
+        for (ProductField field : values()) {
+            if (field.column.equals(column)) {
+                return field;
+            }
+        }
+        return null;
+    }
+}
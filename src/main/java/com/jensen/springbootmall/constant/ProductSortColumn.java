@@ -0,0 +1,29 @@
+package com.jensen.springbootmall.constant;
+
+// 商品列表允許的排序欄位：只開放有索引支撐的欄位（主鍵、price、created_date），
+// 避免依未建索引的欄位排序造成全表掃描加排序
+public enum ProductSortColumn {
+    PRODUCT_ID("product_id"),
+    PRICE("price"),
+    CREATED_DATE("created_date");
+
+    private final String column;
+
+    ProductSortColumn(String column) {
+        this.column = column;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    // 依欄位名稱取得排序欄位，不在白名單中時回傳 null
+    public static ProductSortColumn of(String column) {
+        for (ProductSortColumn sortColumn : values()) {
+            if (sortColumn.column.equals(column)) {
+                return sortColumn;
+            }
+        }
+        return null;
+    }
+}
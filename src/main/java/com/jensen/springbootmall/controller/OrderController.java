@@ -2,8 +2,10 @@ package com.jensen.springbootmall.controller;
 
 import com.jensen.springbootmall.dto.CreateOrderRequest;
 import com.jensen.springbootmall.dto.OrderQueryParams;
+import com.jensen.springbootmall.dto.OrderRequestStatus;
+import com.jensen.springbootmall.event.ResourceVersions;
 import com.jensen.springbootmall.model.Order;
-import com.jensen.springbootmall.model.Product;
+import com.jensen.springbootmall.queue.OrderQueue;
 import com.jensen.springbootmall.service.OrderService;
 import com.jensen.springbootmall.util.Page;
 import jakarta.validation.Valid;
@@ -14,16 +16,30 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.UriComponentsBuilder;
 
-import java.util.List;
+import java.net.URI;
 
 @RestController
 public class OrderController {
 
+    // Idempotency-Key 的最大長度，與資料表欄位長度一致
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+
     // 注入 OrderService，負責處理訂單邏輯
     @Autowired
     private OrderService orderService;
 
+    // 注入非同步下單佇列
+    @Autowired
+    private OrderQueue orderQueue;
+
+    // 注入版本號元件，用來產生訂單列表的 ETag
+    @Autowired
+    private ResourceVersions resourceVersions;
+
     // 查詢訂單列表的 API，根據用戶ID查詢該用戶的訂單
     @Validated
     @GetMapping("/users/{userId}/orders")
@@ -31,44 +47,91 @@ public class OrderController {
             // 查詢條件：分頁參數 limit 和 offset
             @RequestParam(defaultValue = "10") @Max(1000) @Min(0) Integer limit,  // 限制每頁返回的訂單數量，最大1000
             @RequestParam(defaultValue = "0") @Min(0) Integer offSet,  // 分頁偏移量（從第幾條數據開始）
-            @PathVariable Integer userId  // 路徑變數，表示查詢的用戶ID
+            @PathVariable Integer userId,  // 路徑變數，表示查詢的用戶ID
+            @RequestParam(required = false) String expand,  // expand=items 時一併返回每筆訂單的訂單項目
+            WebRequest webRequest  // 用於比對 If-None-Match / If-Modified-Since
     ) {
 
+        // 目前只支援展開訂單項目
+        if (expand != null && !expand.equals("items")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "expand 只支援 items");
+        }
+
+        // 該用戶的訂單沒有異動時直接回 304，不必查詢資料庫
+        if (webRequest.checkNotModified(resourceVersions.orderListETag(userId),
+                resourceVersions.orderListLastModified(userId))) {
+            return null;
+        }
+
         // 設置查詢條件（封裝到 OrderQueryParams）
         OrderQueryParams orderQueryParams = new OrderQueryParams();
         orderQueryParams.setUserId(userId);  // 設置用戶ID
         orderQueryParams.setLimit(limit);  // 設置分頁的每頁數量
         orderQueryParams.setOffSet(offSet);  // 設置分頁的偏移量
+        orderQueryParams.setExpandItems(expand != null);  // 預設只返回訂單本身與訂單項目數量
 
-        // 根據查詢條件取得該用戶的所有訂單列表
-        List<Order> orderList = orderService.getOrders(orderQueryParams);
-
-        // 取得訂單總數，用於計算總頁數
-        Integer count = orderService.countOrder(orderQueryParams);
-
-        // 封裝分頁資訊
-        Page<Order> orderPage = new Page<>();
-        orderPage.setLimit(limit);  // 設置每頁顯示的數量
-        orderPage.setOffset(offSet);  // 設置當前頁的偏移量
-        orderPage.setResults(orderList);  // 設置查詢到的訂單數據
-        orderPage.setTotal(count);  // 設置訂單總數，方便前端計算總頁數
+        // 同時查詢訂單列表與訂單總數，並封裝成分頁結果
+        Page<Order> orderPage = orderService.getOrderPage(orderQueryParams);
 
         // 返回包含分頁結果的 ResponseEntity
         return ResponseEntity.status(HttpStatus.OK).body(orderPage);
     }
 
+    // 查詢單一訂單詳情的 API，包含訂單項目
+    @GetMapping("/users/{userId}/orders/{orderId}")
+    public ResponseEntity<Order> getOrder(
+            @PathVariable Integer userId,  // 路徑變數，表示訂單所屬的用戶ID
+            @PathVariable Integer orderId  // 路徑變數，表示查詢的訂單ID
+    ) {
+        Order order = orderService.getOrderById(orderId);
+
+        // 查無訂單，或訂單不屬於該用戶時返回 404
+        if (order == null || !order.getUserId().equals(userId)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        return ResponseEntity.status(HttpStatus.OK).body(order);
+    }
+
+    // 查詢非同步下單請求的處理狀態
+    @GetMapping("/users/{userId}/orders/requests/{requestId}")
+    public ResponseEntity<OrderRequestStatus> getOrderRequestStatus(
+            @PathVariable Integer userId,  // 路徑變數，表示下單的用戶ID
+            @PathVariable String requestId  // 路徑變數，表示下單請求的ID
+    ) {
+        OrderRequestStatus status = orderQueue.getStatus(requestId);
+
+        // 查無請求（或狀態已被淘汰），或請求不屬於該用戶時返回 404
+        if (status == null || !userId.equals(status.getUserId())) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        return ResponseEntity.status(HttpStatus.OK).body(status);
+    }
+
     // 創建訂單的 API，根據用戶ID創建新的訂單
     @PostMapping("/users/{userId}/orders")
-    public ResponseEntity<Order> createOrder(
+    public ResponseEntity<?> createOrder(
             @PathVariable Integer userId,  // 從路徑中取得用戶ID
+            @RequestParam(defaultValue = "false") boolean async,  // true 時排入下單佇列，立即返回 202 與狀態查詢網址
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,  // 重送時帶相同的 key 不會重複建立訂單
             @RequestBody @Valid CreateOrderRequest createOrderRequest  // 請求體中包含訂單創建信息，並且進行校驗
     ) {
 
-        // 根據用戶ID及訂單創建請求創建訂單，並返回新訂單的ID
-        Integer orderId = orderService.createOrder(userId, createOrderRequest);
+        if (idempotencyKey != null && (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Idempotency-Key 長度必須介於 1 到 " + MAX_IDEMPOTENCY_KEY_LENGTH + " 之間");
+        }
 
-        // 根據訂單ID查詢新創建的訂單詳細資料
-        Order order = orderService.getOrderById(orderId);
+        // 非同步下單：驗證後排入佇列，由工作執行緒以同一個 Idempotency-Key 建立訂單（佇列已滿時返回 429）
+        if (async) {
+            OrderRequestStatus status = orderQueue.submit(userId, createOrderRequest, idempotencyKey);
+            URI statusUri = UriComponentsBuilder.fromPath("/users/{userId}/orders/requests/{requestId}")
+                    .buildAndExpand(userId, status.getRequestId())
+                    .toUri();
+            return ResponseEntity.status(HttpStatus.ACCEPTED).location(statusUri).body(status);
+        }
+
+        // 根據用戶ID及訂單創建請求創建訂單，直接返回新訂單的詳細資料（相同 Idempotency-Key 重送時返回先前的訂單）
+        Order order = orderService.createOrder(userId, createOrderRequest, idempotencyKey);
 
         // 返回創建成功的訂單資料，HTTP狀態為 201 CREATED
         return ResponseEntity.status(HttpStatus.CREATED).body(order);
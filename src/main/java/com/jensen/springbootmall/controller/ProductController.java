@@ -1,72 +1,230 @@
 package com.jensen.springbootmall.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jensen.springbootmall.constant.ProductCategory;
+import com.jensen.springbootmall.constant.ProductField;
+import com.jensen.springbootmall.constant.ProductSortColumn;
+import com.jensen.springbootmall.dto.HotProductStatus;
+import com.jensen.springbootmall.dto.ProductBatchResult;
+import com.jensen.springbootmall.dto.ProductFacetResult;
 import com.jensen.springbootmall.dto.ProductQueryParams;
 import com.jensen.springbootmall.dto.ProductRequest;
+import com.jensen.springbootmall.dto.StockShardStatus;
+import com.jensen.springbootmall.event.ResourceVersions;
+import com.jensen.springbootmall.inventory.HotInventory;
+import com.jensen.springbootmall.inventory.StockShards;
 import com.jensen.springbootmall.model.Product;
 import com.jensen.springbootmall.service.ProductService;
+import com.jensen.springbootmall.util.CsvWriter;
 import com.jensen.springbootmall.util.Page;
+import com.jensen.springbootmall.util.ProductCursor;
+import com.jensen.springbootmall.util.ProductFields;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.lang.module.ModuleDescriptor;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
 import java.util.List;
+import java.util.Set;
+import java.util.Objects;
 
 @Validated
 @RestController
 public class ProductController {
 
+    // 一次查詢多個商品時，最多可帶入的 productId 數量
+    private static final int MAX_BATCH_IDS = 1000;
+
     @Autowired
     private ProductService productService;
 
+    // 商品目錄版本號，用來產生商品列表的 ETag
+    @Autowired
+    private ResourceVersions resourceVersions;
+
+    @Autowired
+    private HotInventory hotInventory;
+
+    @Autowired
+    private StockShards stockShards;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @GetMapping("/products")
-    public ResponseEntity<Page<Product>> getProducts(
+    public ResponseEntity<MappingJacksonValue> getProducts(
             // 查詢條件 Filtering
             @RequestParam(required = false) ProductCategory category,
             @RequestParam(required = false) String search,
+            // 價格範圍（含上下限）與是否只查有庫存的商品
+            @Min (0) @RequestParam(required = false) Integer minPrice,
+            @Min (0) @RequestParam(required = false) Integer maxPrice,
+            @RequestParam(required = false) Boolean inStock,
             // 排序 Sorting
-            @RequestParam (defaultValue = "created_date") String orderBy,
+            // 未指定時，有搜尋關鍵字依相關度（relevance）排序，否則依建立時間排序
+            @RequestParam(required = false) String orderBy,
             @RequestParam (defaultValue = "desc") String sort,
             // 分頁 Pagination
             @Max (1000) @Min (0) @RequestParam (defaultValue = "5") Integer limit,
-            @Min (0) @RequestParam (defaultValue = "0") Integer offset
+            @Min (0) @RequestParam (defaultValue = "0") Integer offset,
+            // 游標分頁 Keyset pagination（帶入上一頁回傳的 nextCursor）
+            @RequestParam(required = false) String cursor,
+            // 是否計算總數；無限捲動的前端可傳 false 省略 COUNT 查詢，改看 hasMore
+            @RequestParam(defaultValue = "true") boolean includeTotal,
+            // 只回傳指定欄位（例如 fields=productName,imageUrl,price），不指定時回傳全部欄位
+            @RequestParam(required = false) String fields,
+            WebRequest webRequest
     ) {
         ProductQueryParams productQueryParams = new ProductQueryParams();
         productQueryParams.setCategory(category);
         productQueryParams.setSearch(search);
+        setPriceFilters(productQueryParams, minPrice, maxPrice, inStock);
+        productQueryParams.setFields(parseFields(fields));
+
+        // 游標中已記錄排序方式，以游標為準
+        if (cursor != null) {
+            ProductCursor productCursor;
+            try {
+                productCursor = ProductCursor.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+            }
+            productQueryParams.setCursor(productCursor);
+            orderBy = productCursor.getOrderBy();
+            sort = productCursor.getSort();
+        }
+        if (orderBy == null) {
+            orderBy = search != null ? "relevance" : "created_date";
+        }
+        sort = sort.toLowerCase();
+
+        // 只允許有索引支撐的排序欄位（或依搜尋相關度排序）
+        if (!"relevance".equals(orderBy) && ProductSortColumn.of(orderBy) == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "不支援的排序欄位：" + orderBy);
+        }
+        if (!"asc".equals(sort) && !"desc".equals(sort)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "sort 只支援 asc 或 desc");
+        }
 
         productQueryParams.setOrderBy(orderBy);
         productQueryParams.setSort(sort);
 
         productQueryParams.setLimit(limit);
         productQueryParams.setOffset(offset);
-// 取得 product list
-        List<Product> productList = productService.getProducts(productQueryParams);
-// 取得 product 總數
-       Integer total= productService.countProduct(productQueryParams);
-// 分頁
-        Page<Product> page = new Page<>();
 
-        page.setLimit(limit);
-        page.setOffset(offset);
-        page.setTotal(total);
-        page.setResults(productList);
+        // 參數都合法且商品目錄沒有異動時直接回 304，不必查詢資料庫也不必序列化
+        // （版本號在查詢前取得；查詢期間若有異動，下一次請求的 ETag 不符會重新取得）
+        if (webRequest.checkNotModified(resourceVersions.catalogETag(), resourceVersions.catalogLastModified())) {
+            return null;
+        }
+
+// 取得 product list、總數與分頁資訊
+        Page<Product> page = productService.getProductPage(productQueryParams, includeTotal);
 
-        return ResponseEntity.status(HttpStatus.OK).body(page);
+        return ResponseEntity.status(HttpStatus.OK).body(withFields(page, productQueryParams.getFields()));
+    }
+
+    // 商品篩選面板的統計（各分類、各價格區間的商品數），可用 search 縮小範圍
+    @GetMapping("/products/facets")
+    public ResponseEntity<ProductFacetResult> getProductFacets(@RequestParam(required = false) String search) {
+        ProductFacetResult productFacetResult = productService.getProductFacets(search);
+        return ResponseEntity.status(HttpStatus.OK).body(productFacetResult);
+    }
+
+    // 匯出符合篩選條件的所有商品（format 為 ndjson 或 csv），依 product_id 排序
+    // 從資料庫逐筆讀取並立即寫出，不計算總數、不分頁，記憶體用量與商品總數無關
+    @GetMapping("/products/export")
+    public ResponseEntity<StreamingResponseBody> exportProducts(
+            @RequestParam(required = false) ProductCategory category,
+            @RequestParam(required = false) String search,
+            @Min (0) @RequestParam(required = false) Integer minPrice,
+            @Min (0) @RequestParam(required = false) Integer maxPrice,
+            @RequestParam(required = false) Boolean inStock,
+            @RequestParam(defaultValue = "ndjson") String format
+    ) {
+        ProductQueryParams productQueryParams = new ProductQueryParams();
+        productQueryParams.setCategory(category);
+        productQueryParams.setSearch(search);
+        setPriceFilters(productQueryParams, minPrice, maxPrice, inStock);
+
+        StreamingResponseBody body;
+        MediaType mediaType;
+        switch (format.toLowerCase()) {
+            case "ndjson" -> {
+                mediaType = MediaType.APPLICATION_NDJSON;
+                body = outputStream -> exportTo(productQueryParams, product -> {
+                    outputStream.write(objectMapper.writeValueAsBytes(product));
+                    outputStream.write('\n');
+                });
+            }
+            case "csv" -> {
+                mediaType = new MediaType("text", "csv", StandardCharsets.UTF_8);
+                body = outputStream -> {
+                    CsvWriter csvWriter = new CsvWriter(new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)));
+                    // 日期格式與 JSON 回應相同（spring.jackson.date-format / time-zone）
+                    DateFormat dateFormat = (DateFormat) objectMapper.getDateFormat().clone();
+                    csvWriter.writeRow("product_id", "product_name", "category", "image_url", "price", "stock",
+                            "description", "created_date", "last_modified_date");
+                    exportTo(productQueryParams, product -> csvWriter.writeRow(
+                            product.getProductId(), product.getProductName(), product.getCategory(),
+                            product.getImageUrl(), product.getPrice(), product.getStock(), product.getDescription(),
+                            dateFormat.format(product.getCreatedDate()), dateFormat.format(product.getLastModifiedDate())));
+                    csvWriter.flush();
+                };
+            }
+            default -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "format 只支援 ndjson 或 csv");
+        }
+
+        return ResponseEntity.status(HttpStatus.OK)
+                .contentType(mediaType)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename("products." + format.toLowerCase()).build().toString())
+                .body(body);
+    }
+
+    // 一次查詢多個商品（GET /products?ids=1,2,3），取代前端逐筆呼叫 GET /products/{productId}
+    @GetMapping(value = "/products", params = "ids")
+    public ResponseEntity<ProductBatchResult> getProductsByIds(@RequestParam List<Integer> ids) {
+        if (ids.isEmpty() || ids.size() > MAX_BATCH_IDS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "ids 數量必須介於 1 到 " + MAX_BATCH_IDS + " 之間");
+        }
+        ProductBatchResult productBatchResult = productService.getProductsByIds(ids);
+        return ResponseEntity.status(HttpStatus.OK).body(productBatchResult);
     }
 
     @GetMapping("/products/{productId}")
-    public ResponseEntity<Product> getByProductId(@PathVariable Integer productId) {
+    public ResponseEntity<MappingJacksonValue> getByProductId(@PathVariable Integer productId,
+                                                              @RequestParam(required = false) String fields,
+                                                              WebRequest webRequest) {
+        Set<ProductField> fieldSet = parseFields(fields);
 
         Product product = productService.getProductById(productId);
         if (product != null) {
-            return ResponseEntity.status(HttpStatus.OK).body(product);
+            // 商品沒有異動時回 304，不必序列化商品內容
+            if (webRequest.checkNotModified(productETag(product), product.getLastModifiedDate().getTime())) {
+                return null;
+            }
+            // 商品詳情由快取提供完整資料，只過濾輸出的欄位
+            return ResponseEntity.status(HttpStatus.OK).body(withFields(product, fieldSet));
         } else {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
         }
@@ -74,24 +232,41 @@ public class ProductController {
 
     @PostMapping("/products")
     public ResponseEntity<Product> createProduct(@RequestBody @Valid ProductRequest productRequest) {
-        Integer productId = productService.createProduct(productRequest);
-        Product product = productService.getProductById(productId);
+        Product product = productService.createProduct(productRequest);
         return ResponseEntity.status(HttpStatus.CREATED).body(product);
     }
 
+    // 批次匯入商品：請求為 NDJSON（每行一筆）或 JSON 陣列，回應為 NDJSON（每行一筆的處理結果）
+    // 請求與回應都以串流處理，記憶體用量只與每批筆數有關，與匯入總筆數無關
+    @PostMapping(value = "/products:bulk",
+            consumes = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<StreamingResponseBody> importProducts(HttpServletRequest request) {
+        StreamingResponseBody body = outputStream -> {
+            try {
+                productService.importProducts(request.getInputStream(), result -> {
+                    try {
+                        outputStream.write(objectMapper.writeValueAsBytes(result));
+                        outputStream.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+        return ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
     @PutMapping("/products/{productId}")
     public ResponseEntity<Product> updateProduct(@PathVariable Integer productId, @RequestBody @Valid ProductRequest productRequest) {
 
-        Product product = productService.getProductById(productId);
+        // 修改商品，回傳修改後的商品
+        Product updatedProduct = productService.updateProduct(productId, productRequest);
         // 檢查商品是否存在
-        if (product == null) {
+        if (updatedProduct == null) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
         }
-        // 修改商品
-        productService.updateProduct(productId, productRequest);
-        // 查詢修改後的商品
-
-        Product updatedProduct = productService.getProductById(productId);
         // 回傳 200 OK
         return ResponseEntity.status(HttpStatus.OK).body(updatedProduct);
     }
@@ -102,4 +277,93 @@ public class ProductController {
         return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
     }
 
+    // 熱門商品模式（限時搶購）：開啟後下單改由記憶體計數器扣除庫存，定期批次寫回資料庫
+    @GetMapping("/products/{productId}/hot")
+    public ResponseEntity<HotProductStatus> getHotStatus(@PathVariable Integer productId) {
+        return ResponseEntity.status(HttpStatus.OK).body(hotInventory.getStatus(productId));
+    }
+
+    @PutMapping("/products/{productId}/hot")
+    public ResponseEntity<HotProductStatus> enableHot(@PathVariable Integer productId) {
+        return ResponseEntity.status(HttpStatus.OK).body(hotInventory.enable(productId));
+    }
+
+    // 關閉熱門商品模式：寫回剩餘的扣除數量，返回與資料庫庫存對帳的結果
+    @DeleteMapping("/products/{productId}/hot")
+    public ResponseEntity<HotProductStatus> disableHot(@PathVariable Integer productId) {
+        return ResponseEntity.status(HttpStatus.OK).body(hotInventory.disable(productId));
+    }
+
+    // 庫存分片：把商品的庫存拆到多個資料列，同一商品的訂單分散鎖定不同的分片
+    @GetMapping("/products/{productId}/stock-shards")
+    public ResponseEntity<StockShardStatus> getStockShards(@PathVariable Integer productId) {
+        return ResponseEntity.status(HttpStatus.OK).body(stockShards.getStatus(productId));
+    }
+
+    @PutMapping("/products/{productId}/stock-shards")
+    public ResponseEntity<StockShardStatus> enableStockShards(@PathVariable Integer productId,
+                                                              @RequestParam Integer shards) {
+        return ResponseEntity.status(HttpStatus.OK).body(stockShards.enable(productId, shards));
+    }
+
+    // 關閉庫存分片：把各分片的庫存合併回商品
+    @DeleteMapping("/products/{productId}/stock-shards")
+    public ResponseEntity<StockShardStatus> disableStockShards(@PathVariable Integer productId) {
+        return ResponseEntity.status(HttpStatus.OK).body(stockShards.disable(productId));
+    }
+
+    // 商品的強 ETag：最後修改時間之外再加上欄位雜湊，
+    // 避免資料庫時間只精確到秒時，同一秒內的兩次修改產生相同的 ETag
+    private String productETag(Product product) {
+        int hash = Objects.hash(product.getProductName(), product.getCategory(), product.getImageUrl(),
+                product.getPrice(), product.getStock(), product.getDescription());
+        return "\"" + product.getProductId() + "-" + product.getLastModifiedDate().getTime()
+                + "-" + Integer.toHexString(hash) + "\"";
+    }
+
+    private Set<ProductField> parseFields(String fields) {
+        if (fields == null) {
+            return null;
+        }
+        try {
+            return ProductFields.parse(fields);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    // 依 fields 參數過濾 Product 輸出的 JSON 欄位
+    private MappingJacksonValue withFields(Object body, Set<ProductField> fieldSet) {
+        MappingJacksonValue mappingJacksonValue = new MappingJacksonValue(body);
+        mappingJacksonValue.setFilters(ProductFields.filterProvider(fieldSet));
+        return mappingJacksonValue;
+    }
+
+    private void setPriceFilters(ProductQueryParams productQueryParams, Integer minPrice, Integer maxPrice, Boolean inStock) {
+        if (minPrice != null && maxPrice != null && minPrice > maxPrice) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "minPrice 不可大於 maxPrice");
+        }
+        productQueryParams.setMinPrice(minPrice);
+        productQueryParams.setMaxPrice(maxPrice);
+        productQueryParams.setInStock(inStock);
+    }
+
+    // 寫出每一筆商品；寫出時的 IOException（例如前端中斷連線）會中止匯出並關閉資料庫游標
+    private void exportTo(ProductQueryParams productQueryParams, ProductWriter productWriter) throws IOException {
+        try {
+            productService.exportProducts(productQueryParams, product -> {
+                try {
+                    productWriter.write(product);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private interface ProductWriter {
+        void write(Product product) throws IOException;
+    }
 }
@@ -9,14 +9,14 @@ import java.util.List;
 // CartDao: 提供購物車相關的資料庫操作方法（DAO：Data Access Object）
 public interface CartDao {
 
-    // 根據用戶 ID 和商品 ID 查詢購物車項目（確認是否已存在相同商品）
+    // 根據用戶 ID 和商品 ID 查詢購物車項目（含商品資料）
     CartItem getCartItemByUserIdAndProductId(Integer userId, Integer productId);
 
-    // 新增一筆購物車項目，並返回資料庫中自動生成的主鍵 ID
-    Integer createCartItem(Integer userId, CreateCartItemRequest createCartItemRequest);
+    // 新增一筆購物車項目；同一用戶已有相同商品時累加數量。返回寫入後的項目（含商品資料）
+    CartItem upsertCartItem(Integer userId, CreateCartItemRequest createCartItemRequest);
 
-    // 更新指定購物車項目的購買數量
-    void updateCartItemQuantity(Integer cartItemId, Integer newQuantity);
+    // 更新購物車項目的購買數量，並同步修改傳入項目的數量與最後修改時間後返回
+    CartItem updateCartItemQuantity(CartItem cartItem, Integer newQuantity);
 
     // 根據購物車項目 ID 查詢一筆項目（通常用於後續更新或刪除操作）
     CartItem getCartItemById(Integer cartItemId);
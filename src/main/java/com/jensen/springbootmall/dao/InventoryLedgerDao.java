@@ -0,0 +1,32 @@
+package com.jensen.springbootmall.dao;
+
+import com.jensen.springbootmall.model.InventoryMovement;
+import com.jensen.springbootmall.model.InventorySnapshot;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+public interface InventoryLedgerDao {
+
+    // 以一次批次 INSERT 寫入多筆庫存異動
+    void createMovements(List<InventoryMovement> movementList);
+
+    // 依 movement_id 順序取出 cutoff 之前建立的異動，最多 limit 筆
+    List<InventoryMovement> getMovementsBefore(Date cutoff, int limit);
+
+    // 刪除已併入快照的異動：movement_id 不大於 maxMovementId 且在 cutoff 之前建立
+    void deleteMovements(Integer maxMovementId, Date cutoff);
+
+    // key 為 productId，沒有快照的商品不會出現在結果中
+    Map<Integer, InventorySnapshot> getSnapshots(List<Integer> productIdList);
+
+    // 以一次批次寫入更新快照，不存在的快照會新增
+    void saveSnapshots(List<InventorySnapshot> snapshotList);
+
+    // 對帳：商品目前的總庫存減去（快照 + 尚未壓縮的增減數量），0 表示帳實相符
+    // 只包含有快照、且沒有尚未壓縮的 absolute 異動的商品；在同一個語句中讀取，不受同時寫入的影響
+    Map<Integer, Integer> getStockDifferences(List<Integer> productIdList);
+
+    void deleteByProductId(Integer productId);
+}
@@ -2,20 +2,30 @@ package com.jensen.springbootmall.dao;
 
 import com.jensen.springbootmall.dto.OrderQueryParams;
 import com.jensen.springbootmall.model.Order;
+import com.jensen.springbootmall.model.OrderIdempotencyKey;
 import com.jensen.springbootmall.model.OrderItem;
 
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 public interface OrderDao {
 
-    // 創建訂單，返回訂單ID
+    // 創建訂單，返回以生成的訂單ID與寫入的資料組成的訂單（不含訂單項目）
     // 接收用戶ID和訂單總金額，並創建訂單
-    Integer createOrder(Integer userId, Integer totalAmount);
+    Order createOrder(Integer userId, Integer totalAmount);
 
     // 創建訂單項目（訂單中的商品）
-    // 接收訂單ID以及該訂單的商品列表，將商品項目插入資料庫
+    // 接收訂單ID以及該訂單的商品列表，將商品項目插入資料庫，並回填每個訂單項目的訂單ID與訂單項目ID
     void createOrderItems(Integer orderId, List<OrderItem> orderItemList);
 
+    // 批量創建訂單（群組提交），返回的訂單ID與傳入順序相同，並回填每筆訂單的訂單ID與建立時間
+    // 使用每筆訂單的用戶ID和訂單總金額
+    List<Integer> createOrders(List<Order> orderList);
+
+    // 批量創建多筆訂單的訂單項目（群組提交），每個訂單項目需已設置訂單ID，並回填訂單項目ID
+    void createOrderItems(List<OrderItem> orderItemList);
+
     // 根據訂單ID查詢單一訂單的詳細資料
     // 這個方法會返回指定訂單ID的詳細訂單資料
     Order getOrderById(Integer orderId);
@@ -24,6 +34,25 @@ public interface OrderDao {
     // 返回指定訂單的所有商品項目
     List<OrderItem> getOrderItemByOrderId(Integer orderId);
 
+    // 一次查詢多筆訂單的所有訂單項目（商品）
+    // 返回以訂單ID分組的訂單項目，沒有訂單項目的訂單不會出現在結果中
+    Map<Integer, List<OrderItem>> getOrderItemsByOrderIds(List<Integer> orderIdList);
+
+    // 返回指定訂單ID中實際存在（已提交）的訂單ID
+    List<Integer> getExistingOrderIds(List<Integer> orderIdList);
+
+    // 根據用戶ID與 Idempotency-Key 查詢先前的創建訂單請求，查無資料時返回 null
+    OrderIdempotencyKey getIdempotencyKey(Integer userId, String idempotencyKey);
+
+    // 記錄 Idempotency-Key（此時尚未建立訂單）；同一用戶的 key 已存在時拋出 DuplicateKeyException
+    void createIdempotencyKey(Integer userId, String idempotencyKey, String requestHash);
+
+    // 訂單建立後，記錄 Idempotency-Key 對應的訂單ID
+    void updateIdempotencyKeyOrderId(Integer userId, String idempotencyKey, Integer orderId);
+
+    // 刪除建立時間早於 cutoff 的 Idempotency-Key，返回刪除的筆數
+    int deleteIdempotencyKeysBefore(Date cutoff);
+
     // 計算符合查詢條件的訂單數量
     // 根據給定的查詢參數（如用戶ID、分頁參數）來查詢符合條件的訂單總數
     Integer countOrder(OrderQueryParams orderQueryParams);
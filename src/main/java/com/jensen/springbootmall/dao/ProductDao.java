@@ -6,16 +6,51 @@ import com.jensen.springbootmall.dto.ProductRequest;
 import com.jensen.springbootmall.model.Product;
 
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public interface ProductDao {
     List<Product> getProducts(ProductQueryParams productQueryParams);
+    // 逐筆讀取符合篩選條件的所有商品（不分頁、不整批載入記憶體）
+    void streamProducts(ProductQueryParams productQueryParams, Consumer<Product> consumer);
     Product getProductById(Integer productId);
+    // 一次查詢多個商品，回傳的順序不固定，查無資料的 productId 不會出現在結果中
+    List<Product> getProductsByIds(List<Integer> productIdList);
 
     Product getProductByIdForUpdate(Integer productId);
+    // 以 product_id 由小到大的順序一次鎖定多個商品（SELECT ... FOR UPDATE），回傳依 productId 排序
+    List<Product> getProductsByIdsForUpdate(List<Integer> productIdList);
 
-    Integer createProduct(ProductRequest productRequest);
-    void updateProduct(Integer productId,ProductRequest productRequest);
+    // 新增商品，回傳以產生的主鍵與寫入的資料組成的商品
+    Product createProduct(ProductRequest productRequest);
+    // 批次新增商品，回傳的 productId 與傳入順序相同
+    List<Integer> createProducts(List<ProductRequest> productRequestList);
+    // 修改商品，回傳修改後的商品（不含 createdDate）；商品不存在時回傳 null
+    Product updateProduct(Integer productId,ProductRequest productRequest);
     void deleteProductById(Integer productId);
     Integer countProduct(ProductQueryParams productQueryParams);
+    // 設定 product.stock；商品拆分庫存後 product.stock 為尚未分配到分片的庫存，總庫存為兩者相加
     void updateStock(Integer productId,Integer stock);
+    // 以一次批次 UPDATE 扣多個商品的庫存（key 為 productId，value 為扣除數量），回傳每個商品是否扣除成功
+    // 呼叫端須已鎖定商品資料列並檢查過庫存：部分驅動程式設定（例如 MySQL 的 rewriteBatchedStatements）下
+    // 批次更新只回報 SUCCESS_NO_INFO，無法得知條件式 UPDATE 是否成立，此時視為成功
+    Map<Integer, Boolean> decreaseStocks(Map<Integer, Integer> quantityByProductId);
+    // 逐筆以條件式 UPDATE 扣多個商品的庫存，依實際更新筆數回傳每個商品是否扣除成功；供未鎖定商品資料列的呼叫端使用
+    Map<Integer, Boolean> decreaseStocksRowByRow(Map<Integer, Integer> quantityByProductId);
+
+    // 庫存分片：key 為 productId，value 為各分片的庫存（shard -> stock）；沒有拆分庫存的商品不會出現在結果中
+    Map<Integer, Map<Integer, Integer>> getStockShards(List<Integer> productIdList);
+    // 所有拆分庫存的商品ID
+    List<Integer> getStockShardedProductIds();
+    // 鎖定商品資料列並返回尚未分配到分片的庫存（product.stock），商品不存在時回傳 null
+    Integer getUnallocatedStockForUpdate(Integer productId);
+    // 依 shard 由小到大鎖定商品的所有庫存分片（SELECT ... FOR UPDATE）
+    Map<Integer, Integer> getStockShardsForUpdate(Integer productId);
+    // 以單一條件式 UPDATE 扣除一個分片的庫存（分片庫存足夠才扣），回傳是否扣除成功
+    boolean decreaseShardStock(Integer productId, Integer shard, Integer quantity);
+    // 以一次批次寫入設定各分片的庫存，不存在的分片會新增
+    void updateStockShards(Integer productId, Map<Integer, Integer> stockByShard);
+    // 把商品所有分片的庫存設為 0（保留分片資料列）
+    void resetStockShards(Integer productId);
+    void deleteStockShards(Integer productId);
 }
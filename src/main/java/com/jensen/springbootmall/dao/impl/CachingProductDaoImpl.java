@@ -0,0 +1,258 @@
+package com.jensen.springbootmall.dao.impl;
+
+import com.jensen.springbootmall.dao.ProductDao;
+import com.jensen.springbootmall.dto.ProductQueryParams;
+import com.jensen.springbootmall.dto.ProductRequest;
+import com.jensen.springbootmall.event.ProductChangedEvent;
+import com.jensen.springbootmall.event.ProductChangedEvent.ChangeType;
+import com.jensen.springbootmall.model.Product;
+import com.jensen.springbootmall.util.LocalCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// 包在 ProductDaoImpl 外層的快取，讓 getProductById 與 countProduct 不必每次都查資料庫
+// 標記 @Primary，其他地方注入 ProductDao 時會拿到這個有快取的版本
+// 所有商品寫入都經過這裡，因此也在此發出 ProductChangedEvent 通知其他記憶體資料更新
+@Primary
+@Component
+public class CachingProductDaoImpl implements ProductDao {
+
+    private static final String IN_STOCK_KEY_PREFIX = "inStock|";
+
+    private final ProductDao productDao;
+
+    private final LocalCache<Integer, Product> productCache;
+
+    // 以篩選條件為 key 的商品總數快取
+    private final LocalCache<String, Integer> countCache;
+
+    private final ApplicationEventPublisher applicationEventPublisher;
+
+    @Autowired
+    public CachingProductDaoImpl(
+            @Qualifier("productDaoImpl") ProductDao productDao,
+            ApplicationEventPublisher applicationEventPublisher,
+            @Value("${mall.product-cache.max-size:10000}") int maxSize,
+            @Value("${mall.product-cache.ttl-seconds:300}") long ttlSeconds,
+            @Value("${mall.product-cache.negative-ttl-seconds:30}") long negativeTtlSeconds,
+            @Value("${mall.product-count-cache.max-size:1000}") int countMaxSize,
+            @Value("${mall.product-count-cache.ttl-seconds:60}") long countTtlSeconds
+    ) {
+        this.productDao = productDao;
+        this.applicationEventPublisher = applicationEventPublisher;
+        this.productCache = new LocalCache<>(maxSize, ttlSeconds * 1000, negativeTtlSeconds * 1000);
+        this.countCache = new LocalCache<>(countMaxSize, countTtlSeconds * 1000, 0);
+    }
+
+    @Override
+    public Product getProductById(Integer productId) {
+        return productCache.get(productId, productDao::getProductById);
+    }
+
+    // 快取中沒有的商品整批用一次 IN 查詢載入，查無資料的 productId 同樣會被快取為「查無資料」
+    @Override
+    public List<Product> getProductsByIds(List<Integer> productIdList) {
+        Map<Integer, Product> productMap = productCache.getAll(productIdList, missingIdList -> {
+            Map<Integer, Product> loaded = new HashMap<>();
+            for (Product product : productDao.getProductsByIds(missingIdList)) {
+                loaded.put(product.getProductId(), product);
+            }
+            return loaded;
+        });
+
+        List<Product> productList = new ArrayList<>(productMap.size());
+        for (Product product : productMap.values()) {
+            if (product != null) {
+                productList.add(product);
+            }
+        }
+        return productList;
+    }
+
+    // 下單時需要鎖定資料列，一律直接查資料庫
+    @Override
+    public Product getProductByIdForUpdate(Integer productId) {
+        return productDao.getProductByIdForUpdate(productId);
+    }
+
+    @Override
+    public List<Product> getProductsByIdsForUpdate(List<Integer> productIdList) {
+        return productDao.getProductsByIdsForUpdate(productIdList);
+    }
+
+    @Override
+    public List<Product> getProducts(ProductQueryParams productQueryParams) {
+        return productDao.getProducts(productQueryParams);
+    }
+
+    @Override
+    public void streamProducts(ProductQueryParams productQueryParams, Consumer<Product> consumer) {
+        productDao.streamProducts(productQueryParams, consumer);
+    }
+
+    @Override
+    public Integer countProduct(ProductQueryParams productQueryParams) {
+        // 有庫存篩選的 key 以 IN_STOCK_KEY_PREFIX 開頭，庫存變動時只需失效這些 key
+        String key = (Boolean.TRUE.equals(productQueryParams.getInStock()) ? IN_STOCK_KEY_PREFIX : "")
+                + productQueryParams.getCategory() + "|" + productQueryParams.getSearch()
+                + "|" + productQueryParams.getMinPrice() + "|" + productQueryParams.getMaxPrice();
+        return countCache.get(key, k -> productDao.countProduct(productQueryParams));
+    }
+
+    @Override
+    public Product createProduct(ProductRequest productRequest) {
+        Product product = productDao.createProduct(productRequest);
+        // 新商品可能先前被快取為「查無資料」
+        evict(product.getProductId(), ChangeType.CREATED);
+        return product;
+    }
+
+    @Override
+    public List<Integer> createProducts(List<ProductRequest> productRequestList) {
+        List<Integer> productIdList = productDao.createProducts(productRequestList);
+        evict(productIdList, ChangeType.CREATED);
+        return productIdList;
+    }
+
+    @Override
+    public Product updateProduct(Integer productId, ProductRequest productRequest) {
+        Product product = productDao.updateProduct(productId, productRequest);
+        evict(productId, ChangeType.UPDATED);
+        return product;
+    }
+
+    @Override
+    public void deleteProductById(Integer productId) {
+        productDao.deleteProductById(productId);
+        evict(productId, ChangeType.DELETED);
+    }
+
+    @Override
+    public void updateStock(Integer productId, Integer stock) {
+        productDao.updateStock(productId, stock);
+        evict(productId, ChangeType.STOCK_CHANGED);
+    }
+
+    @Override
+    public Map<Integer, Boolean> decreaseStocks(Map<Integer, Integer> quantityByProductId) {
+        Map<Integer, Boolean> result = productDao.decreaseStocks(quantityByProductId);
+        evict(new ArrayList<>(quantityByProductId.keySet()), ChangeType.STOCK_CHANGED);
+        return result;
+    }
+
+    @Override
+    public Map<Integer, Boolean> decreaseStocksRowByRow(Map<Integer, Integer> quantityByProductId) {
+        Map<Integer, Boolean> result = productDao.decreaseStocksRowByRow(quantityByProductId);
+        evict(new ArrayList<>(quantityByProductId.keySet()), ChangeType.STOCK_CHANGED);
+        return result;
+    }
+
+    @Override
+    public Map<Integer, Map<Integer, Integer>> getStockShards(List<Integer> productIdList) {
+        return productDao.getStockShards(productIdList);
+    }
+
+    @Override
+    public List<Integer> getStockShardedProductIds() {
+        return productDao.getStockShardedProductIds();
+    }
+
+    @Override
+    public Integer getUnallocatedStockForUpdate(Integer productId) {
+        return productDao.getUnallocatedStockForUpdate(productId);
+    }
+
+    @Override
+    public Map<Integer, Integer> getStockShardsForUpdate(Integer productId) {
+        return productDao.getStockShardsForUpdate(productId);
+    }
+
+    @Override
+    public boolean decreaseShardStock(Integer productId, Integer shard, Integer quantity) {
+        boolean decreased = productDao.decreaseShardStock(productId, shard, quantity);
+        if (decreased) {
+            evict(productId, ChangeType.STOCK_CHANGED);
+        }
+        return decreased;
+    }
+
+    @Override
+    public void updateStockShards(Integer productId, Map<Integer, Integer> stockByShard) {
+        productDao.updateStockShards(productId, stockByShard);
+        evict(productId, ChangeType.STOCK_CHANGED);
+    }
+
+    @Override
+    public void resetStockShards(Integer productId) {
+        productDao.resetStockShards(productId);
+        evict(productId, ChangeType.STOCK_CHANGED);
+    }
+
+    @Override
+    public void deleteStockShards(Integer productId) {
+        productDao.deleteStockShards(productId);
+        evict(productId, ChangeType.STOCK_CHANGED);
+    }
+
+    public long getHitCount() {
+        return productCache.getHitCount();
+    }
+
+    public long getMissCount() {
+        return productCache.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return productCache.getEvictionCount();
+    }
+
+    public long getCountHitCount() {
+        return countCache.getHitCount();
+    }
+
+    // 寫入後立即失效；若在交易中，交易結束（commit 或 rollback）後再失效一次，
+    // 避免交易期間被其他請求讀回並快取的舊資料或未提交資料留在快取中
+    private void evict(Integer productId, ChangeType changeType) {
+        evict(List.of(productId), changeType);
+    }
+
+    private void evict(List<Integer> productIdList, ChangeType changeType) {
+        // 只有庫存變動時，只有「有庫存」篩選下的商品總數會改變
+        boolean countChanged = changeType != ChangeType.STOCK_CHANGED;
+
+        productIdList.forEach(productCache::invalidate);
+        invalidateCounts(countChanged);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    productIdList.forEach(productCache::invalidate);
+                    invalidateCounts(countChanged);
+                }
+            });
+        }
+
+        applicationEventPublisher.publishEvent(new ProductChangedEvent(productIdList, changeType));
+    }
+
+    private void invalidateCounts(boolean countChanged) {
+        if (countChanged) {
+            countCache.invalidateAll();
+        } else {
+            countCache.invalidateIf(key -> key.startsWith(IN_STOCK_KEY_PREFIX));
+        }
+    }
+}
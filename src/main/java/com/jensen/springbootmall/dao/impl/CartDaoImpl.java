@@ -6,12 +6,15 @@ import com.jensen.springbootmall.dao.rowmapper.CartItemRowMapper;
 import com.jensen.springbootmall.dto.CreateCartItemRequest;
 import com.jensen.springbootmall.model.CartItem;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
-import org.springframework.jdbc.support.GeneratedKeyHolder;
-import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
 import org.springframework.stereotype.Component;
 
+import javax.sql.DataSource;
+import java.sql.DatabaseMetaData;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -23,6 +26,15 @@ public class CartDaoImpl implements CartDao {
     @Autowired
     private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
 
+    // 資料庫是否支援 MERGE ... USING 與 SELECT ... FROM FINAL TABLE（H2）；否則視為 MySQL
+    private boolean supportsMerge;
+
+    @Autowired
+    public void setDatabaseProduct(DataSource dataSource) throws MetaDataAccessException {
+        String databaseProductName = JdbcUtils.extractDatabaseMetaData(dataSource, DatabaseMetaData::getDatabaseProductName);
+        this.supportsMerge = "H2".equals(databaseProductName);
+    }
+
     // 查詢指定用戶的所有購物車項目
     @Override
     public List<CartItem> getCartItemsByUserId(Integer userId) {
@@ -91,40 +103,63 @@ public class CartDaoImpl implements CartDao {
         return cartItems.isEmpty() ? null : cartItems.get(0);
     }
 
-    // 新增購物車項目，並回傳主鍵 ID
+    // 新增購物車項目，已有相同商品時累加數量，並回傳寫入後的項目（含商品資料）
+    // 以 (user_id, product_id) 唯一索引判斷是否已存在，同時加入同一商品也不會產生重複的資料列
     @Override
-    public Integer createCartItem(Integer userId, CreateCartItemRequest request) {
-        String sql = "INSERT INTO cart_item (user_id, product_id, quantity, created_date, last_modified_date) " +
-                "VALUES (:userId, :productId, :quantity, :createdDate, :lastModifiedDate)";
-
+    public CartItem upsertCartItem(Integer userId, CreateCartItemRequest request) {
         MapSqlParameterSource paramSource = new MapSqlParameterSource();
         paramSource.addValue("userId", userId);
         paramSource.addValue("productId", request.getProductId());
         paramSource.addValue("quantity", request.getQuantity());
-
-        Date now = new Date();
-        paramSource.addValue("createdDate", now);
-        paramSource.addValue("lastModifiedDate", now);
-
-        KeyHolder keyHolder = new GeneratedKeyHolder();
-        namedParameterJdbcTemplate.update(sql, paramSource, keyHolder);
-
-        return keyHolder.getKey().intValue();
+        paramSource.addValue("now", new Date());
+
+        // H2：以 MERGE 寫入，並從 FINAL TABLE 在同一個語句中取回寫入後的資料列
+        if (supportsMerge) {
+            String sql = "SELECT ci.cart_item_id, ci.user_id, ci.product_id, ci.quantity, " +
+                    "ci.created_date, ci.last_modified_date, p.product_name, p.image_url, p.price " +
+                    "FROM FINAL TABLE (" +
+                    "MERGE INTO cart_item t USING (SELECT CAST(:userId AS INT) AS user_id, " +
+                    "CAST(:productId AS INT) AS product_id, CAST(:quantity AS INT) AS quantity, " +
+                    "CAST(:now AS TIMESTAMP) AS now) s " +
+                    "ON t.user_id = s.user_id AND t.product_id = s.product_id " +
+                    "WHEN MATCHED THEN UPDATE SET quantity = t.quantity + s.quantity, last_modified_date = s.now " +
+                    "WHEN NOT MATCHED THEN INSERT (user_id, product_id, quantity, created_date, last_modified_date) " +
+                    "VALUES (s.user_id, s.product_id, s.quantity, s.now, s.now)" +
+                    ") ci JOIN product p ON ci.product_id = p.product_id";
+            try {
+                return namedParameterJdbcTemplate.queryForObject(sql, paramSource, new CartItemRowMapper());
+            } catch (DuplicateKeyException e) {
+                // 同時加入同一商品時兩邊可能都走到 INSERT，失敗的一方重試時會改為累加數量
+                return namedParameterJdbcTemplate.queryForObject(sql, paramSource, new CartItemRowMapper());
+            }
+        }
+
+        // MySQL：INSERT ... ON DUPLICATE KEY UPDATE 原子地新增或累加，再讀取（已被這個交易鎖住的）資料列
+        String sql = "INSERT INTO cart_item (user_id, product_id, quantity, created_date, last_modified_date) " +
+                "VALUES (:userId, :productId, :quantity, :now, :now) " +
+                "ON DUPLICATE KEY UPDATE quantity = quantity + :quantity, last_modified_date = :now";
+        namedParameterJdbcTemplate.update(sql, paramSource);
+        return getCartItemByUserIdAndProductId(userId, request.getProductId());
     }
 
     // 更新購物車商品數量
     @Override
-    public void updateCartItemQuantity(Integer cartItemId, Integer newQuantity) {
+    public CartItem updateCartItemQuantity(CartItem cartItem, Integer newQuantity) {
         String sql = "UPDATE cart_item " +
                 "SET quantity = :quantity, last_modified_date = :lastModifiedDate " +
                 "WHERE cart_item_id = :cartItemId";
 
         Map<String, Object> map = new HashMap<>();
+        Date now = new Date();
         map.put("quantity", newQuantity);
-        map.put("lastModifiedDate", new Date());
-        map.put("cartItemId", cartItemId);
+        map.put("lastModifiedDate", now);
+        map.put("cartItemId", cartItem.getCartItemId());
 
         namedParameterJdbcTemplate.update(sql, map);
+
+        cartItem.setQuantity(newQuantity);
+        cartItem.setLastModifiedDate(now);
+        return cartItem;
     }
 
     // 根據 ID 查詢購物車項目（包含關聯的商品資料）
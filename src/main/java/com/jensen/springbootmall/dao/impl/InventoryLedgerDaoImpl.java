@@ -0,0 +1,159 @@
+package com.jensen.springbootmall.dao.impl;
+
+import com.jensen.springbootmall.constant.InventoryMovementReason;
+import com.jensen.springbootmall.dao.InventoryLedgerDao;
+import com.jensen.springbootmall.dao.rowmapper.InventoryMovementRowMapper;
+import com.jensen.springbootmall.dao.rowmapper.InventorySnapshotRowMapper;
+import com.jensen.springbootmall.model.InventoryMovement;
+import com.jensen.springbootmall.model.InventorySnapshot;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Component
+public class InventoryLedgerDaoImpl implements InventoryLedgerDao {
+
+    // 每次 IN (...) 查詢最多帶入的 productId 數量
+    private static final int IN_CHUNK_SIZE = 500;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    private ProductQuerySqlRegistry productQuerySqlRegistry;
+
+    @Override
+    public void createMovements(List<InventoryMovement> movementList) {
+        String sql = "INSERT INTO inventory_movement (product_id, quantity, reason, order_id, created_date) " +
+                "VALUES (:productId, :quantity, :reason, :orderId, :createdDate)";
+
+        Date now = new Date();
+        SqlParameterSource[] parameterSources = new SqlParameterSource[movementList.size()];
+        for (int i = 0; i < movementList.size(); i++) {
+            InventoryMovement inventoryMovement = movementList.get(i);
+            MapSqlParameterSource parameterSource = new MapSqlParameterSource();
+            parameterSource.addValue("productId", inventoryMovement.getProductId());
+            parameterSource.addValue("quantity", inventoryMovement.getQuantity());
+            parameterSource.addValue("reason", inventoryMovement.getReason().name());
+            parameterSource.addValue("orderId", inventoryMovement.getOrderId());
+            parameterSource.addValue("createdDate", now);
+            parameterSources[i] = parameterSource;
+        }
+
+        namedParameterJdbcTemplate.batchUpdate(sql, parameterSources);
+    }
+
+    @Override
+    public List<InventoryMovement> getMovementsBefore(Date cutoff, int limit) {
+        String sql = "select movement_id, product_id, quantity, reason, order_id, created_date " +
+                "from inventory_movement where created_date < :cutoff order by movement_id limit :limit";
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("cutoff", cutoff);
+        map.put("limit", limit);
+        return namedParameterJdbcTemplate.query(sql, map, new InventoryMovementRowMapper());
+    }
+
+    @Override
+    public void deleteMovements(Integer maxMovementId, Date cutoff) {
+        String sql = "delete from inventory_movement where movement_id <= :maxMovementId and created_date < :cutoff";
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("maxMovementId", maxMovementId);
+        map.put("cutoff", cutoff);
+        namedParameterJdbcTemplate.update(sql, map);
+    }
+
+    @Override
+    public Map<Integer, InventorySnapshot> getSnapshots(List<Integer> productIdList) {
+        String sql = "select product_id, stock, last_movement_id, last_modified_date " +
+                "from inventory_snapshot where product_id in (:productIds)";
+
+        Map<Integer, InventorySnapshot> snapshotMap = new HashMap<>();
+        for (int from = 0; from < productIdList.size(); from += IN_CHUNK_SIZE) {
+            List<Integer> chunk = productIdList.subList(from, Math.min(from + IN_CHUNK_SIZE, productIdList.size()));
+            Map<String, Object> map = new HashMap<>();
+            map.put("productIds", chunk);
+            for (InventorySnapshot inventorySnapshot : namedParameterJdbcTemplate.query(sql, map, new InventorySnapshotRowMapper())) {
+                snapshotMap.put(inventorySnapshot.getProductId(), inventorySnapshot);
+            }
+        }
+        return snapshotMap;
+    }
+
+    @Override
+    public void saveSnapshots(List<InventorySnapshot> snapshotList) {
+        String updateSql = "update inventory_snapshot set stock = :stock, last_movement_id = :lastMovementId, " +
+                "last_modified_date = :lastModifiedDate where product_id = :productId";
+        String insertSql = "insert into inventory_snapshot (product_id, stock, last_movement_id, last_modified_date) " +
+                "values (:productId, :stock, :lastMovementId, :lastModifiedDate)";
+
+        Date now = new Date();
+        SqlParameterSource[] parameterSources = new SqlParameterSource[snapshotList.size()];
+        for (int i = 0; i < snapshotList.size(); i++) {
+            InventorySnapshot inventorySnapshot = snapshotList.get(i);
+            MapSqlParameterSource parameterSource = new MapSqlParameterSource();
+            parameterSource.addValue("productId", inventorySnapshot.getProductId());
+            parameterSource.addValue("stock", inventorySnapshot.getStock());
+            parameterSource.addValue("lastMovementId", inventorySnapshot.getLastMovementId());
+            parameterSource.addValue("lastModifiedDate", now);
+            parameterSources[i] = parameterSource;
+        }
+
+        // 沒有更新到資料列的快照才新增
+        int[] updateCounts = namedParameterJdbcTemplate.batchUpdate(updateSql, parameterSources);
+        List<SqlParameterSource> insertList = new ArrayList<>();
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == 0) {
+                insertList.add(parameterSources[i]);
+            }
+        }
+        if (!insertList.isEmpty()) {
+            namedParameterJdbcTemplate.batchUpdate(insertSql, insertList.toArray(new SqlParameterSource[0]));
+        }
+    }
+
+    @Override
+    public Map<Integer, Integer> getStockDifferences(List<Integer> productIdList) {
+        String sql = "select product.product_id, " + productQuerySqlRegistry.stockExpression() + " - inventory_snapshot.stock - " +
+                "coalesce((select sum(m.quantity) from inventory_movement m where m.product_id = product.product_id), 0) as difference " +
+                "from product join inventory_snapshot on inventory_snapshot.product_id = product.product_id " +
+                "where product.product_id in (:productIds) and not exists (select 1 from inventory_movement m " +
+                "where m.product_id = product.product_id and m.reason in (:absoluteReasons))";
+
+        List<String> absoluteReasonList = new ArrayList<>();
+        for (InventoryMovementReason reason : InventoryMovementReason.values()) {
+            if (reason.isAbsolute()) {
+                absoluteReasonList.add(reason.name());
+            }
+        }
+
+        Map<Integer, Integer> differenceMap = new HashMap<>();
+        for (int from = 0; from < productIdList.size(); from += IN_CHUNK_SIZE) {
+            List<Integer> chunk = productIdList.subList(from, Math.min(from + IN_CHUNK_SIZE, productIdList.size()));
+            Map<String, Object> map = new HashMap<>();
+            map.put("productIds", chunk);
+            map.put("absoluteReasons", absoluteReasonList);
+            namedParameterJdbcTemplate.query(sql, map, (RowCallbackHandler) rs ->
+                    differenceMap.put(rs.getInt("product_id"), rs.getInt("difference")));
+        }
+        return differenceMap;
+    }
+
+    @Override
+    public void deleteByProductId(Integer productId) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("productId", productId);
+        namedParameterJdbcTemplate.update("delete from inventory_movement where product_id = :productId", map);
+        namedParameterJdbcTemplate.update("delete from inventory_snapshot where product_id = :productId", map);
+    }
+}
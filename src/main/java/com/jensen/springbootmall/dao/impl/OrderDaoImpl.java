@@ -1,10 +1,12 @@
 package com.jensen.springbootmall.dao.impl;
 
 import com.jensen.springbootmall.dao.OrderDao;
+import com.jensen.springbootmall.dao.rowmapper.OrderIdempotencyKeyRowMapper;
 import com.jensen.springbootmall.dao.rowmapper.OrderItemRowMapper;
 import com.jensen.springbootmall.dao.rowmapper.OrderRowMapper;
 import com.jensen.springbootmall.dto.OrderQueryParams;
 import com.jensen.springbootmall.model.Order;
+import com.jensen.springbootmall.model.OrderIdempotencyKey;
 import com.jensen.springbootmall.model.OrderItem;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
@@ -13,6 +15,7 @@ import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -22,6 +25,13 @@ import java.util.Map;
 @Component
 public class OrderDaoImpl implements OrderDao {
 
+    // 每次 IN (...) 查詢最多帶入的訂單ID數量，避免 SQL 過長或超過資料庫的參數上限
+    private static final int IN_CHUNK_SIZE = 500;
+
+    // 以子查詢在同一個查詢中計算每筆訂單的訂單項目數量（走 order_item 的 order_id 索引，不必 join product）
+    private static final String ITEM_COUNT_COLUMN =
+            "(select count(*) from order_item oi where oi.order_id = o.order_id) as item_count";
+
     // 注入 Spring JDBC 的 NamedParameterJdbcTemplate，用於執行帶命名參數的 SQL 語句
     @Autowired
     private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
@@ -30,7 +40,8 @@ public class OrderDaoImpl implements OrderDao {
     @Override
     public Order getOrderById(Integer orderId) {
         // 定義 SQL 查詢語句，從 `order` 表中根據訂單ID查詢訂單資料
-        String sql = "select order_id,user_id, total_amount, created_date, last_modified_date from `order` where order_id=:orderId";
+        String sql = "select order_id,user_id, total_amount, created_date, last_modified_date, " + ITEM_COUNT_COLUMN +
+                " from `order` o where order_id=:orderId";
 
         // 設定查詢條件
         Map<String, Object> map = new HashMap<>();
@@ -68,7 +79,8 @@ public class OrderDaoImpl implements OrderDao {
     @Override
     public List<Order> getOrders(OrderQueryParams orderQueryParams) {
         // 定義 SQL 查詢語句，從 `order` 表中查詢訂單資料
-        String sql = "select order_id,user_id, total_amount, created_date, last_modified_date from `order` where 1=1";
+        String sql = "select order_id,user_id, total_amount, created_date, last_modified_date, " + ITEM_COUNT_COLUMN +
+                " from `order` o where 1=1";
 
         // 使用 Map 存放查詢條件
         Map<String, Object> map = new HashMap<>();
@@ -115,9 +127,103 @@ public class OrderDaoImpl implements OrderDao {
         return orderItemList != null ? orderItemList : null; // 返回查詢結果，若查無訂單項目則返回 null
     }
 
+    // 一次查詢多筆訂單的所有訂單項目，取代逐筆呼叫 getOrderItemByOrderId（N+1 查詢）
+    @Override
+    public Map<Integer, List<OrderItem>> getOrderItemsByOrderIds(List<Integer> orderIdList) {
+        // 定義 SQL 查詢語句，以 order_id IN (...) 一次查出整頁訂單的訂單項目
+        String sql = "select order_item_id,order_id, oi.product_id, quantity, amount, product_name, image_url from order_item oi\n" +
+                "join product p on oi.product_id=p.product_id where order_id in (:orderIds) order by order_item_id";
+
+        // 依訂單ID分組，保持每筆訂單內訂單項目的建立順序
+        Map<Integer, List<OrderItem>> orderItemMap = new HashMap<>();
+
+        // 分段查詢，避免 IN (...) 參數過多
+        for (int from = 0; from < orderIdList.size(); from += IN_CHUNK_SIZE) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("orderIds", orderIdList.subList(from, Math.min(from + IN_CHUNK_SIZE, orderIdList.size())));
+
+            for (OrderItem orderItem : namedParameterJdbcTemplate.query(sql, map, new OrderItemRowMapper())) {
+                orderItemMap.computeIfAbsent(orderItem.getOrderId(), k -> new ArrayList<>()).add(orderItem);
+            }
+        }
+        return orderItemMap;
+    }
+
+    // 返回指定訂單ID中實際存在的訂單ID
+    @Override
+    public List<Integer> getExistingOrderIds(List<Integer> orderIdList) {
+        String sql = "select order_id from `order` where order_id in (:orderIds)";
+
+        List<Integer> existingOrderIdList = new ArrayList<>();
+
+        // 分段查詢，避免 IN (...) 參數過多
+        for (int from = 0; from < orderIdList.size(); from += IN_CHUNK_SIZE) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("orderIds", orderIdList.subList(from, Math.min(from + IN_CHUNK_SIZE, orderIdList.size())));
+
+            existingOrderIdList.addAll(namedParameterJdbcTemplate.queryForList(sql, map, Integer.class));
+        }
+        return existingOrderIdList;
+    }
+
+    // 根據用戶ID與 Idempotency-Key 查詢先前的創建訂單請求
+    @Override
+    public OrderIdempotencyKey getIdempotencyKey(Integer userId, String idempotencyKey) {
+        String sql = "select user_id, idempotency_key, request_hash, order_id, created_date from order_idempotency_key " +
+                "where user_id=:userId and idempotency_key=:idempotencyKey";
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("userId", userId);
+        map.put("idempotencyKey", idempotencyKey);
+
+        List<OrderIdempotencyKey> keyList = namedParameterJdbcTemplate.query(sql, map, new OrderIdempotencyKeyRowMapper());
+        return keyList.isEmpty() ? null : keyList.get(0);
+    }
+
+    // 記錄 Idempotency-Key；(user_id, idempotency_key) 為主鍵，重複時資料庫拋出 DuplicateKeyException
+    // 另一個交易已寫入同一個 key 但尚未提交時，會在此等待該交易結束
+    @Override
+    public void createIdempotencyKey(Integer userId, String idempotencyKey, String requestHash) {
+        String sql = "INSERT INTO order_idempotency_key (user_id, idempotency_key, request_hash, created_date) " +
+                "VALUES (:userId, :idempotencyKey, :requestHash, :createdDate)";
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("userId", userId);
+        map.put("idempotencyKey", idempotencyKey);
+        map.put("requestHash", requestHash);
+        map.put("createdDate", new Date());
+
+        namedParameterJdbcTemplate.update(sql, map);
+    }
+
+    // 記錄 Idempotency-Key 對應的訂單ID
+    @Override
+    public void updateIdempotencyKeyOrderId(Integer userId, String idempotencyKey, Integer orderId) {
+        String sql = "update order_idempotency_key set order_id=:orderId " +
+                "where user_id=:userId and idempotency_key=:idempotencyKey";
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("userId", userId);
+        map.put("idempotencyKey", idempotencyKey);
+        map.put("orderId", orderId);
+
+        namedParameterJdbcTemplate.update(sql, map);
+    }
+
+    // 以 created_date 索引範圍刪除過期的 Idempotency-Key
+    @Override
+    public int deleteIdempotencyKeysBefore(Date cutoff) {
+        String sql = "delete from order_idempotency_key where created_date < :cutoff";
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("cutoff", cutoff);
+
+        return namedParameterJdbcTemplate.update(sql, map);
+    }
+
     // 創建訂單
     @Override
-    public Integer createOrder(Integer userId, Integer totalAmount) {
+    public Order createOrder(Integer userId, Integer totalAmount) {
         // 定義 SQL 插入語句，將訂單資料插入 `order` 表
         String sql = "INSERT INTO `order` (user_id, total_amount, created_date, last_modified_date) " +
                 "VALUES (:userId, :totalAmount, :createdDate, :lastModifiedDate)";
@@ -136,8 +242,69 @@ public class OrderDaoImpl implements OrderDao {
         // 執行 SQL 插入操作，並將自動生成的主鍵返回
         namedParameterJdbcTemplate.update(sql, new MapSqlParameterSource(map), keyHolder);
 
-        // 返回資料庫生成的 order_id
-        return keyHolder.getKey().intValue();
+        // 以資料庫生成的 order_id 與寫入的資料組成訂單返回，不必再查詢一次
+        Order order = new Order();
+        order.setOrderId(keyHolder.getKey().intValue());
+        order.setUserId(userId);
+        order.setTotalAmount(totalAmount);
+        order.setCreatedDate(now);
+        order.setLastModifiedDate(now);
+        return order;
+    }
+
+    // 批量創建訂單，一次送出整批 INSERT 並依序取回自動產生的 order_id
+    @Override
+    public List<Integer> createOrders(List<Order> orderList) {
+        String sql = "INSERT INTO `order` (user_id, total_amount, created_date, last_modified_date) " +
+                "VALUES (:userId, :totalAmount, :createdDate, :lastModifiedDate)";
+
+        Date now = new Date(); // 同一批訂單使用相同的建立時間
+        MapSqlParameterSource[] parameterSources = new MapSqlParameterSource[orderList.size()];
+        for (int i = 0; i < orderList.size(); i++) {
+            parameterSources[i] = new MapSqlParameterSource();
+            parameterSources[i].addValue("userId", orderList.get(i).getUserId()); // 設置訂單的用戶 ID
+            parameterSources[i].addValue("totalAmount", orderList.get(i).getTotalAmount()); // 設置訂單總金額
+            parameterSources[i].addValue("createdDate", now);
+            parameterSources[i].addValue("lastModifiedDate", now);
+        }
+
+        // 用於儲存每一筆自動生成的主鍵（order_id）
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        namedParameterJdbcTemplate.batchUpdate(sql, parameterSources, keyHolder, new String[]{"order_id"});
+
+        // 同時回填每筆訂單的 order_id 與建立時間
+        List<Integer> orderIdList = new ArrayList<>(orderList.size());
+        List<Map<String, Object>> keyList = keyHolder.getKeyList();
+        for (int i = 0; i < keyList.size(); i++) {
+            Integer orderId = ((Number) keyList.get(i).values().iterator().next()).intValue();
+            Order order = orderList.get(i);
+            order.setOrderId(orderId);
+            order.setCreatedDate(now);
+            order.setLastModifiedDate(now);
+            orderIdList.add(orderId);
+        }
+        return orderIdList;
+    }
+
+    // 批量創建多筆訂單的訂單項目
+    @Override
+    public void createOrderItems(List<OrderItem> orderItemList) {
+        String sql = "INSERT INTO order_item (order_id, product_id, quantity, amount) " +
+                "VALUES (:orderId, :productId, :quantity, :amount)";
+
+        MapSqlParameterSource[] parameterSources = new MapSqlParameterSource[orderItemList.size()];
+        for (int i = 0; i < orderItemList.size(); i++) {
+            OrderItem orderItem = orderItemList.get(i);
+            parameterSources[i] = new MapSqlParameterSource();
+            parameterSources[i].addValue("orderId", orderItem.getOrderId()); // 設置訂單 ID
+            parameterSources[i].addValue("productId", orderItem.getProductId()); // 設置商品 ID
+            parameterSources[i].addValue("quantity", orderItem.getQuantity()); // 設置商品數量
+            parameterSources[i].addValue("amount", orderItem.getAmount()); // 設置商品金額
+        }
+
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        namedParameterJdbcTemplate.batchUpdate(sql, parameterSources, keyHolder, new String[]{"order_item_id"});
+        setOrderItemIds(orderItemList, keyHolder);
     }
 
     // 批量創建訂單項目
@@ -160,7 +327,20 @@ public class OrderDaoImpl implements OrderDao {
             parameterSources[i].addValue("amount", orderItem.getAmount()); // 設置商品金額
         }
 
-        // 使用 batchUpdate 執行批量插入，效率更高
-        namedParameterJdbcTemplate.batchUpdate(sql, parameterSources);
+        // 使用 batchUpdate 執行批量插入，效率更高，並依序取回自動生成的 order_item_id
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        namedParameterJdbcTemplate.batchUpdate(sql, parameterSources, keyHolder, new String[]{"order_item_id"});
+        for (OrderItem orderItem : orderItemList) {
+            orderItem.setOrderId(orderId);
+        }
+        setOrderItemIds(orderItemList, keyHolder);
+    }
+
+    // 依序回填批量插入產生的 order_item_id
+    private void setOrderItemIds(List<OrderItem> orderItemList, KeyHolder keyHolder) {
+        List<Map<String, Object>> keyList = keyHolder.getKeyList();
+        for (int i = 0; i < keyList.size(); i++) {
+            orderItemList.get(i).setOrderItemId(((Number) keyList.get(i).values().iterator().next()).intValue());
+        }
     }
 }
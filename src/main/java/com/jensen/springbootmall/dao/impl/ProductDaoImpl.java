@@ -6,24 +6,68 @@ import com.jensen.springbootmall.dto.ProductRequest;
 import com.jensen.springbootmall.dao.ProductDao;
 import com.jensen.springbootmall.dao.rowmapper.ProductRowMapper;
 import com.jensen.springbootmall.model.Product;
+import com.jensen.springbootmall.util.ProductCursor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Component;
 
+import javax.sql.DataSource;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
 
 @Component
 public class ProductDaoImpl implements ProductDao {
 
+    // 每次 IN (...) 查詢最多帶入的 productId 數量，避免 SQL 過長或超過資料庫的參數上限
+    private static final int IN_CHUNK_SIZE = 500;
+
     @Autowired
     private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
 
+    // 逐筆讀取大量資料專用：設定 fetch size，讓驅動程式分批從資料庫取回資料列，而不是一次載入整個結果集
+    // （MySQL 需在連線字串加上 useCursorFetch=true，fetch size 才會生效）
+    private NamedParameterJdbcTemplate streamingJdbcTemplate;
+
+    @Autowired
+    private ProductQuerySqlRegistry productQuerySqlRegistry;
+
+    // 商品列表查詢專用：解析快取的容量涵蓋登錄表中所有的 SQL，每個 SQL 只需解析一次
+    private NamedParameterJdbcTemplate productQueryJdbcTemplate;
+
+    // 只查部分欄位（fields 參數）的列表查詢專用：欄位組合的變化很多，使用獨立的解析快取，
+    // 不會把登錄表中預先建好的 SQL 擠出 productQueryJdbcTemplate 的快取
+    private NamedParameterJdbcTemplate projectedQueryJdbcTemplate;
+
+    @Autowired
+    public void setProductQueryJdbcTemplate(JdbcTemplate jdbcTemplate, ProductQuerySqlRegistry productQuerySqlRegistry,
+                                            @Value("${mall.product-query.projected-sql-cache-size:1024}") int projectedSqlCacheSize) {
+        this.productQueryJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.productQueryJdbcTemplate.setCacheLimit(productQuerySqlRegistry.size());
+        this.projectedQueryJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.projectedQueryJdbcTemplate.setCacheLimit(projectedSqlCacheSize);
+    }
+
+    @Autowired
+    public void setStreamingJdbcTemplate(DataSource dataSource,
+                                         @Value("${mall.product-stream.fetch-size:1000}") int fetchSize) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.setFetchSize(fetchSize);
+        this.streamingJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+    }
+
     @Override
     public void updateStock(Integer productId, Integer stock) {
         String sql = "update product set stock=:stock,last_modified_date=:lastModifiedDate " +
@@ -36,9 +80,73 @@ public class ProductDaoImpl implements ProductDao {
         namedParameterJdbcTemplate.update(sql, map);
     }
 
+    @Override
+    public List<Product> getProductsByIdsForUpdate(List<Integer> productIdList) {
+        String sql = "select product_id,product_name, category, image_url, price, " + productQuerySqlRegistry.stockColumn() + ", description, " +
+                "created_date, last_modified_date " +
+                "from product where product_id in (:productIds) order by product_id for update";
+
+        // 所有交易都依 product_id 由小到大加鎖（分段查詢時每段也是遞增），不會互相等待對方手上的鎖而死結
+        List<Integer> sortedIdList = productIdList.stream().distinct().sorted().toList();
+
+        List<Product> productList = new ArrayList<>(sortedIdList.size());
+        for (int from = 0; from < sortedIdList.size(); from += IN_CHUNK_SIZE) {
+            List<Integer> chunk = sortedIdList.subList(from, Math.min(from + IN_CHUNK_SIZE, sortedIdList.size()));
+            Map<String, Object> map = new HashMap<>();
+            map.put("productIds", chunk);
+            productList.addAll(namedParameterJdbcTemplate.query(sql, map, new ProductRowMapper()));
+        }
+        return productList;
+    }
+
+    @Override
+    public Map<Integer, Boolean> decreaseStocks(Map<Integer, Integer> quantityByProductId) {
+        String sql = "update product set stock = stock - :quantity, last_modified_date = :lastModifiedDate " +
+                "where product_id = :productId and stock >= :quantity";
+
+        // 依 productId 排序送出，與 getProductsByIdsForUpdate 的加鎖順序一致
+        List<Integer> productIdList = quantityByProductId.keySet().stream().sorted().toList();
+
+        Date now = new Date();
+        SqlParameterSource[] parameterSources = new SqlParameterSource[productIdList.size()];
+        for (int i = 0; i < productIdList.size(); i++) {
+            MapSqlParameterSource parameterSource = new MapSqlParameterSource();
+            parameterSource.addValue("productId", productIdList.get(i));
+            parameterSource.addValue("quantity", quantityByProductId.get(productIdList.get(i)));
+            parameterSource.addValue("lastModifiedDate", now);
+            parameterSources[i] = parameterSource;
+        }
+
+        int[] updateCounts = namedParameterJdbcTemplate.batchUpdate(sql, parameterSources);
+
+        // 部分驅動程式的批次更新只回報 SUCCESS_NO_INFO（-2）：呼叫端已鎖定資料列並檢查過庫存，視為成功
+        Map<Integer, Boolean> result = new HashMap<>();
+        for (int i = 0; i < productIdList.size(); i++) {
+            result.put(productIdList.get(i), updateCounts[i] > 0 || updateCounts[i] == Statement.SUCCESS_NO_INFO);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<Integer, Boolean> decreaseStocksRowByRow(Map<Integer, Integer> quantityByProductId) {
+        String sql = "update product set stock = stock - :quantity, last_modified_date = :lastModifiedDate " +
+                "where product_id = :productId and stock >= :quantity";
+
+        Date now = new Date();
+        Map<Integer, Boolean> result = new HashMap<>();
+        for (Integer productId : quantityByProductId.keySet().stream().sorted().toList()) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("productId", productId);
+            map.put("quantity", quantityByProductId.get(productId));
+            map.put("lastModifiedDate", now);
+            result.put(productId, namedParameterJdbcTemplate.update(sql, map) > 0);
+        }
+        return result;
+    }
+
     @Override
     public Product getProductById(Integer productId) {
-        String sql = "select product_id,product_name, category, image_url, price, stock, description, " +
+        String sql = "select product_id,product_name, category, image_url, price, " + productQuerySqlRegistry.stockColumn() + ", description, " +
                 "created_date, last_modified_date " +
                 "from product where product_id=:productId;";
 
@@ -54,9 +162,25 @@ public class ProductDaoImpl implements ProductDao {
 
     }
 
+    @Override
+    public List<Product> getProductsByIds(List<Integer> productIdList) {
+        String sql = "select product_id,product_name, category, image_url, price, " + productQuerySqlRegistry.stockColumn() + ", description, " +
+                "created_date, last_modified_date " +
+                "from product where product_id in (:productIds)";
+
+        List<Product> productList = new ArrayList<>(productIdList.size());
+        for (int from = 0; from < productIdList.size(); from += IN_CHUNK_SIZE) {
+            List<Integer> chunk = productIdList.subList(from, Math.min(from + IN_CHUNK_SIZE, productIdList.size()));
+            Map<String, Object> map = new HashMap<>();
+            map.put("productIds", chunk);
+            productList.addAll(namedParameterJdbcTemplate.query(sql, map, new ProductRowMapper()));
+        }
+        return productList;
+    }
+
     @Override
     public Product getProductByIdForUpdate(Integer productId) {
-        String sql = "select product_id,product_name, category, image_url, price, stock, description, " +
+        String sql = "select product_id,product_name, category, image_url, price, " + productQuerySqlRegistry.stockColumn() + ", description, " +
                 "created_date, last_modified_date " +
                 "from product where product_id=:productId for update;";
 
@@ -72,10 +196,9 @@ public class ProductDaoImpl implements ProductDao {
     }
 
     @Override
-    public Integer createProduct(ProductRequest productRequest) {
+    public Product createProduct(ProductRequest productRequest) {
         String sql = "INSERT INTO product (product_name, category, image_url, price, stock, description, created_date, last_modified_date) " +
                 "VALUES (:productName, :category, :imageUrl, :price, :stock, :description, :createdDate, :lastModifiedDate)";
-        ;
 
         Map<String, Object> map = new HashMap<>();
         map.put("productName", productRequest.getProductName());
@@ -89,13 +212,48 @@ public class ProductDaoImpl implements ProductDao {
         map.put("lastModifiedDate", now);
         KeyHolder keyHolder = new GeneratedKeyHolder();
 
-        int update = namedParameterJdbcTemplate.update(sql, new MapSqlParameterSource(map), keyHolder);
+        namedParameterJdbcTemplate.update(sql, new MapSqlParameterSource(map), keyHolder);
 
-        return keyHolder.getKey().intValue();
+        // 以產生的主鍵與寫入的資料組出商品，不必再查詢一次
+        Product product = toProduct(keyHolder.getKey().intValue(), productRequest, now);
+        product.setCreatedDate(now);
+        return product;
     }
 
     @Override
-    public void updateProduct(Integer productId, ProductRequest productRequest) {
+    public List<Integer> createProducts(List<ProductRequest> productRequestList) {
+        String sql = "INSERT INTO product (product_name, category, image_url, price, stock, description, created_date, last_modified_date) " +
+                "VALUES (:productName, :category, :imageUrl, :price, :stock, :description, :createdDate, :lastModifiedDate)";
+
+        Date now = new Date();
+        SqlParameterSource[] parameterSources = new SqlParameterSource[productRequestList.size()];
+        for (int i = 0; i < productRequestList.size(); i++) {
+            ProductRequest productRequest = productRequestList.get(i);
+            MapSqlParameterSource parameterSource = new MapSqlParameterSource();
+            parameterSource.addValue("productName", productRequest.getProductName());
+            parameterSource.addValue("category", productRequest.getCategory().name());
+            parameterSource.addValue("imageUrl", productRequest.getImageUrl());
+            parameterSource.addValue("price", productRequest.getPrice());
+            parameterSource.addValue("stock", productRequest.getStock());
+            parameterSource.addValue("description", productRequest.getDescription());
+            parameterSource.addValue("createdDate", now);
+            parameterSource.addValue("lastModifiedDate", now);
+            parameterSources[i] = parameterSource;
+        }
+
+        // 一次送出整批 INSERT，並依序取回每一筆的自動產生主鍵
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        namedParameterJdbcTemplate.batchUpdate(sql, parameterSources, keyHolder, new String[]{"product_id"});
+
+        List<Integer> productIdList = new ArrayList<>(productRequestList.size());
+        for (Map<String, Object> keys : keyHolder.getKeyList()) {
+            productIdList.add(((Number) keys.values().iterator().next()).intValue());
+        }
+        return productIdList;
+    }
+
+    @Override
+    public Product updateProduct(Integer productId, ProductRequest productRequest) {
 
         String sql = "update product set product_name=:productName, category=:category, image_url=:imageUrl, price=:price, stock=:stock, description=:description, last_modified_date=:lastModifiedDate where product_id=:productId";
 
@@ -107,43 +265,67 @@ public class ProductDaoImpl implements ProductDao {
         map.put("price", productRequest.getPrice());
         map.put("stock", productRequest.getStock());
         map.put("description", productRequest.getDescription());
-        map.put("lastModifiedDate", new Date());
+        Date now = new Date();
+        map.put("lastModifiedDate", now);
 
 
-        namedParameterJdbcTemplate.update(sql, map);
+        int updated = namedParameterJdbcTemplate.update(sql, map);
+        if (updated == 0) {
+            return null;
+        }
+
+        return toProduct(productId, productRequest, now);
+    }
+
+    // 以請求內容組出寫入後的商品（createdDate 由呼叫端設定）
+    private Product toProduct(Integer productId, ProductRequest productRequest, Date lastModifiedDate) {
+        Product product = new Product();
+        product.setProductId(productId);
+        product.setProductName(productRequest.getProductName());
+        product.setCategory(productRequest.getCategory());
+        product.setImageUrl(productRequest.getImageUrl());
+        product.setPrice(productRequest.getPrice());
+        product.setStock(productRequest.getStock());
+        product.setDescription(productRequest.getDescription());
+        product.setLastModifiedDate(lastModifiedDate);
+        return product;
     }
 
     @Override
     public List<Product> getProducts(ProductQueryParams productQueryParams) {
-        String sql = "select product_id,product_name, category, image_url, price, stock, description, " +
-                "created_date, last_modified_date " +
-                "from product where 1=1";
+        // SQL 由登錄表依篩選條件與排序方式挑選，這裡只負責填入參數
+        String sql = productQuerySqlRegistry.listSql(productQueryParams);
 
         Map<String, Object> map = new HashMap<>();
+        addFilteringParams(map, productQueryParams);
 
-//        //查詢條件
-//        if (productQueryParams.getCategory() != null) {
-//            sql = sql + " AND category = :category";
-//            map.put("category", productQueryParams.getCategory().name());
-//        }
-//
-//        if (productQueryParams.getSearch() != null) {
-//            sql = sql + " AND product_name like :search";
-//            map.put("search", "%" + productQueryParams.getSearch() + "%");
-//        }
-         sql = addFilteringSql(sql, map, productQueryParams);
+        ProductCursor cursor = productQueryParams.getCursor();
+        if (cursor != null) {
+            map.put("cursorValue", cursor.getValue());
+            map.put("cursorProductId", cursor.getProductId());
+        } else {
+            map.put("offSet", productQueryParams.getOffset());
+        }
+        map.put("limit", productQueryParams.getLimit());
 
+        ProductRowMapper productRowMapper = new ProductRowMapper(productQuerySqlRegistry.selectedFields(productQueryParams));
+        NamedParameterJdbcTemplate jdbcTemplate = productQueryParams.getFields() == null
+                ? productQueryJdbcTemplate : projectedQueryJdbcTemplate;
+        List<Product> productList = jdbcTemplate.query(sql, map, productRowMapper);
+        return productList;
+    }
 
-        // 排序
-        sql = sql + " ORDER BY " + productQueryParams.getOrderBy() + " " + productQueryParams.getSort();
-        // 分頁
-        sql = sql + " limit :limit OFFSET :offSet";
+    @Override
+    public void streamProducts(ProductQueryParams productQueryParams, Consumer<Product> consumer) {
+        String sql = productQuerySqlRegistry.streamSql(productQueryParams);
 
-        map.put("limit", productQueryParams.getLimit());
-        map.put("offSet", productQueryParams.getOffset());
+        Map<String, Object> map = new HashMap<>();
+        addFilteringParams(map, productQueryParams);
 
-        List<Product> productList = namedParameterJdbcTemplate.query(sql, map, new ProductRowMapper());
-        return productList;
+        // 結果集只能往前讀，不使用 rs.getRow()（部分驅動程式的串流模式不支援）
+        ProductRowMapper productRowMapper = new ProductRowMapper();
+        streamingJdbcTemplate.query(sql, map,
+                (RowCallbackHandler) rs -> consumer.accept(productRowMapper.mapRow(rs, 0)));
     }
 
     @Override
@@ -157,39 +339,132 @@ public class ProductDaoImpl implements ProductDao {
 
     @Override
     public Integer countProduct(ProductQueryParams productQueryParams) {
+        String sql = productQuerySqlRegistry.countSql(productQueryParams);
+
+        Map<String, Object> map = new HashMap<>();
+        addFilteringParams(map, productQueryParams);
+
+        Integer total = productQueryJdbcTemplate.queryForObject(sql, map, Integer.class);
+
+        return total;
+    }
 
-        String sql = "select count(*) from product WHERE 1=1";
+    @Override
+    public Map<Integer, Map<Integer, Integer>> getStockShards(List<Integer> productIdList) {
+        String sql = "select product_id, shard, stock from product_stock_shard where product_id in (:productIds)";
+
+        Map<Integer, Map<Integer, Integer>> stockShardMap = new HashMap<>();
+        for (int from = 0; from < productIdList.size(); from += IN_CHUNK_SIZE) {
+            List<Integer> chunk = productIdList.subList(from, Math.min(from + IN_CHUNK_SIZE, productIdList.size()));
+            Map<String, Object> map = new HashMap<>();
+            map.put("productIds", chunk);
+            namedParameterJdbcTemplate.query(sql, map, (RowCallbackHandler) rs ->
+                    stockShardMap.computeIfAbsent(rs.getInt("product_id"), productId -> new TreeMap<>())
+                            .put(rs.getInt("shard"), rs.getInt("stock")));
+        }
+        return stockShardMap;
+    }
+
+    @Override
+    public List<Integer> getStockShardedProductIds() {
+        String sql = "select distinct product_id from product_stock_shard order by product_id";
+        return namedParameterJdbcTemplate.queryForList(sql, new HashMap<>(), Integer.class);
+    }
+
+    @Override
+    public Integer getUnallocatedStockForUpdate(Integer productId) {
+        String sql = "select stock from product where product_id = :productId for update";
 
         Map<String, Object> map = new HashMap<>();
+        map.put("productId", productId);
+        List<Integer> stockList = namedParameterJdbcTemplate.queryForList(sql, map, Integer.class);
+        return stockList.isEmpty() ? null : stockList.get(0);
+    }
 
-//        //查詢條件
-//        if (productQueryParams.getCategory() != null) {
-//            sql = sql + " AND category = :category";
-//            map.put("category", productQueryParams.getCategory().name());
-//        }
-//
-//        if (productQueryParams.getSearch() != null) {
-//            sql = sql + " AND product_name like :search";
-//            map.put("search", "%" + productQueryParams.getSearch() + "%");
-//        }
+    @Override
+    public Map<Integer, Integer> getStockShardsForUpdate(Integer productId) {
+        String sql = "select shard, stock from product_stock_shard where product_id = :productId " +
+                "order by shard for update";
 
-        sql = addFilteringSql(sql, map, productQueryParams);
+        Map<String, Object> map = new HashMap<>();
+        map.put("productId", productId);
+        Map<Integer, Integer> stockByShard = new TreeMap<>();
+        namedParameterJdbcTemplate.query(sql, map, (RowCallbackHandler) rs ->
+                stockByShard.put(rs.getInt("shard"), rs.getInt("stock")));
+        return stockByShard;
+    }
 
-        Integer total = namedParameterJdbcTemplate.queryForObject(sql, map, Integer.class);
+    @Override
+    public boolean decreaseShardStock(Integer productId, Integer shard, Integer quantity) {
+        String sql = "update product_stock_shard set stock = stock - :quantity " +
+                "where product_id = :productId and shard = :shard and stock >= :quantity";
 
-        return total;
+        Map<String, Object> map = new HashMap<>();
+        map.put("productId", productId);
+        map.put("shard", shard);
+        map.put("quantity", quantity);
+        return namedParameterJdbcTemplate.update(sql, map) > 0;
+    }
+
+    @Override
+    public void updateStockShards(Integer productId, Map<Integer, Integer> stockByShard) {
+        String updateSql = "update product_stock_shard set stock = :stock where product_id = :productId and shard = :shard";
+        String insertSql = "insert into product_stock_shard (product_id, shard, stock) values (:productId, :shard, :stock)";
+
+        // 依 shard 排序送出，與 getStockShardsForUpdate 的加鎖順序一致
+        List<Integer> shardList = stockByShard.keySet().stream().sorted().toList();
+        SqlParameterSource[] parameterSources = new SqlParameterSource[shardList.size()];
+        for (int i = 0; i < shardList.size(); i++) {
+            MapSqlParameterSource parameterSource = new MapSqlParameterSource();
+            parameterSource.addValue("productId", productId);
+            parameterSource.addValue("shard", shardList.get(i));
+            parameterSource.addValue("stock", stockByShard.get(shardList.get(i)));
+            parameterSources[i] = parameterSource;
+        }
+
+        // 沒有更新到資料列的分片才新增
+        int[] updateCounts = namedParameterJdbcTemplate.batchUpdate(updateSql, parameterSources);
+        List<SqlParameterSource> insertList = new ArrayList<>();
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == 0) {
+                insertList.add(parameterSources[i]);
+            }
+        }
+        if (!insertList.isEmpty()) {
+            namedParameterJdbcTemplate.batchUpdate(insertSql, insertList.toArray(new SqlParameterSource[0]));
+        }
     }
 
-    private String addFilteringSql(String sql, Map<String, Object> map, ProductQueryParams productQueryParams) {
+    @Override
+    public void resetStockShards(Integer productId) {
+        String sql = "update product_stock_shard set stock = 0 where product_id = :productId";
+        Map<String, Object> map = new HashMap<>();
+        map.put("productId", productId);
+        namedParameterJdbcTemplate.update(sql, map);
+    }
+
+    @Override
+    public void deleteStockShards(Integer productId) {
+        String sql = "delete from product_stock_shard where product_id = :productId";
+        Map<String, Object> map = new HashMap<>();
+        map.put("productId", productId);
+        namedParameterJdbcTemplate.update(sql, map);
+    }
+
+    // 填入篩選條件的參數（對應的 SQL 條件由 ProductQuerySqlRegistry 產生）
+    private void addFilteringParams(Map<String, Object> map, ProductQueryParams productQueryParams) {
         if (productQueryParams.getCategory() != null) {
-            sql += " AND category = :category";
             map.put("category", productQueryParams.getCategory().name());
         }
         if (productQueryParams.getSearch() != null) {
-            sql += " AND product_name LIKE :search";
             map.put("search", "%" + productQueryParams.getSearch() + "%");
         }
-        return sql;
+        if (productQueryParams.getMinPrice() != null) {
+            map.put("minPrice", productQueryParams.getMinPrice());
+        }
+        if (productQueryParams.getMaxPrice() != null) {
+            map.put("maxPrice", productQueryParams.getMaxPrice());
+        }
     }
 
 
@@ -0,0 +1,230 @@
+package com.jensen.springbootmall.dao.impl;
+
+import com.jensen.springbootmall.constant.ProductField;
+import com.jensen.springbootmall.constant.ProductSortColumn;
+import com.jensen.springbootmall.dto.ProductQueryParams;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+// 商品查詢 SQL 的登錄表：啟動時就把所有允許的（篩選條件組合, 排序欄位, 排序方向, 是否游標分頁）
+// 變化組合成固定的 SQL 字串，查詢時只依參數挑選，不再每次以字串串接出新的 SQL
+// 變化數量有上限，NamedParameterJdbcTemplate 的解析快取與資料庫的 statement cache 都能完整涵蓋
+// 只查部分欄位（fields 參數）時，以啟動時建好的欄位清單接上預先建好的條件與排序部分，相同欄位組合會得到相同的 SQL
+@Component
+public class ProductQuerySqlRegistry {
+
+    // 啟用庫存分片時商品的總庫存：product.stock 加上拆分到 product_stock_shard 的庫存（沒有拆分庫存的商品沒有分片資料列）
+    // 以主鍵 (product_id, shard) 範圍掃描加總，只對查詢結果中的商品計算
+    private static final String TOTAL_STOCK = "(product.stock + coalesce((select sum(s.stock) from product_stock_shard s " +
+            "where s.product_id = product.product_id), 0))";
+
+    private static final String[] SORTS = {"asc", "desc"};
+
+    // 每一種篩選條件對應一個位元，篩選條件組合以位元遮罩表示
+    private static final int CATEGORY = 1;
+    private static final int SEARCH = 1 << 1;
+    private static final int MIN_PRICE = 1 << 2;
+    private static final int MAX_PRICE = 1 << 3;
+    private static final int IN_STOCK = 1 << 4;
+    private static final int FILTER_COMBINATIONS = 1 << 5;
+
+    // key 為 filters|orderBy|sort|cursor
+    private final Map<String, String> listSqlMap = new HashMap<>();
+
+    // 同上，但只有 SELECT 欄位清單之後的部分（條件、排序、分頁）
+    private final Map<String, String> listTailMap = new HashMap<>();
+
+    private final String[] countSqls = new String[FILTER_COMBINATIONS];
+
+    private final String[] streamSqls = new String[FILTER_COMBINATIONS];
+
+    // 每一種欄位組合的 SELECT 子句，以欄位 ordinal 的位元遮罩為索引
+    private final String[] selectClauses = new String[1 << ProductField.values().length];
+
+    // 未啟用庫存分片時直接讀取 product.stock，不執行分片的子查詢
+    private final boolean stockShardEnabled;
+
+    public ProductQuerySqlRegistry(@Value("${mall.stock-shard.enabled:false}") boolean stockShardEnabled) {
+        this.stockShardEnabled = stockShardEnabled;
+        for (int mask = 1; mask < selectClauses.length; mask++) {
+            selectClauses[mask] = buildSelectClause(fields(mask));
+        }
+        String selectColumns = selectClause(EnumSet.allOf(ProductField.class));
+        for (int filters = 0; filters < FILTER_COMBINATIONS; filters++) {
+            String filteringSql = filteringSql(filters);
+            countSqls[filters] = "select count(*) from product WHERE 1=1" + filteringSql;
+            streamSqls[filters] = selectColumns + filteringSql + " ORDER BY product_id";
+
+            for (ProductSortColumn sortColumn : ProductSortColumn.values()) {
+                for (String sort : SORTS) {
+                    for (boolean cursor : new boolean[]{false, true}) {
+                        String key = listKey(filters, sortColumn.getColumn(), sort, cursor);
+                        String tail = listTail(filteringSql, sortColumn.getColumn(), sort, cursor);
+                        listTailMap.put(key, tail);
+                        listSqlMap.put(key, selectColumns + tail);
+                    }
+                }
+            }
+        }
+    }
+
+    // 分頁查詢商品列表的 SQL；排序方式不在白名單中時拋出 IllegalArgumentException
+    public String listSql(ProductQueryParams productQueryParams) {
+        String key = listKey(filters(productQueryParams), productQueryParams.getOrderBy(),
+                productQueryParams.getSort(), productQueryParams.getCursor() != null);
+        String tail = listTailMap.get(key);
+        if (tail == null) {
+            throw new IllegalArgumentException("不支援的排序方式：" + productQueryParams.getOrderBy() + " " + productQueryParams.getSort());
+        }
+        if (productQueryParams.getFields() == null) {
+            return listSqlMap.get(key);
+        }
+        return selectClause(selectedFields(productQueryParams)) + tail;
+    }
+
+    // 列表查詢實際會選取的欄位：除了前端要的欄位，一律包含 product_id 與排序欄位（產生分頁游標需要）
+    public Set<ProductField> selectedFields(ProductQueryParams productQueryParams) {
+        if (productQueryParams.getFields() == null) {
+            return EnumSet.allOf(ProductField.class);
+        }
+        Set<ProductField> fields = EnumSet.noneOf(ProductField.class);
+        fields.addAll(productQueryParams.getFields());
+        fields.add(ProductField.PRODUCT_ID);
+        ProductField sortField = ProductField.ofColumn(productQueryParams.getOrderBy());
+        if (sortField != null) {
+            fields.add(sortField);
+        }
+        return fields;
+    }
+
+    public String countSql(ProductQueryParams productQueryParams) {
+        return countSqls[filters(productQueryParams)];
+    }
+
+    // 依 product_id 逐筆讀取所有符合條件商品的 SQL
+    public String streamSql(ProductQueryParams productQueryParams) {
+        return streamSqls[filters(productQueryParams)];
+    }
+
+    // 商品庫存的 SELECT 欄位（欄位名稱為 stock）
+    String stockColumn() {
+        return stockShardEnabled ? TOTAL_STOCK + " as stock" : "stock";
+    }
+
+    // 商品庫存的運算式，可用於與其他資料表 join 的查詢
+    String stockExpression() {
+        return stockShardEnabled ? TOTAL_STOCK : "product.stock";
+    }
+
+    // 登錄的 SQL 總數
+    public int size() {
+        return listSqlMap.size() + countSqls.length + streamSqls.length;
+    }
+
+    private static int filters(ProductQueryParams productQueryParams) {
+        int filters = 0;
+        if (productQueryParams.getCategory() != null) {
+            filters |= CATEGORY;
+        }
+        if (productQueryParams.getSearch() != null) {
+            filters |= SEARCH;
+        }
+        if (productQueryParams.getMinPrice() != null) {
+            filters |= MIN_PRICE;
+        }
+        if (productQueryParams.getMaxPrice() != null) {
+            filters |= MAX_PRICE;
+        }
+        if (Boolean.TRUE.equals(productQueryParams.getInStock())) {
+            filters |= IN_STOCK;
+        }
+        return filters;
+    }
+
+    private String filteringSql(int filters) {
+        StringBuilder sql = new StringBuilder();
+        if ((filters & CATEGORY) != 0) {
+            sql.append(" AND category = :category");
+        }
+        if ((filters & SEARCH) != 0) {
+            sql.append(" AND product_name LIKE :search");
+        }
+        // 價格範圍可由 (category, price) 索引做範圍掃描
+        if ((filters & MIN_PRICE) != 0) {
+            sql.append(" AND price >= :minPrice");
+        }
+        if ((filters & MAX_PRICE) != 0) {
+            sql.append(" AND price <= :maxPrice");
+        }
+        if ((filters & IN_STOCK) != 0) {
+            sql.append(" AND ").append(stockExpression()).append(" > 0");
+        }
+        return sql.toString();
+    }
+
+    private String selectClause(Set<ProductField> fields) {
+        int mask = 0;
+        for (ProductField field : fields) {
+            mask |= 1 << field.ordinal();
+        }
+        return selectClauses[mask];
+    }
+
+    private static Set<ProductField> fields(int mask) {
+        Set<ProductField> fields = EnumSet.noneOf(ProductField.class);
+        for (ProductField field : ProductField.values()) {
+            if ((mask & 1 << field.ordinal()) != 0) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    // EnumSet 依宣告順序走訪，相同的欄位組合一定產生相同的字串
+    private String buildSelectClause(Set<ProductField> fields) {
+        StringJoiner columns = new StringJoiner(", ", "select ", " from product where 1=1");
+        for (ProductField field : fields) {
+            columns.add(field == ProductField.STOCK ? stockColumn() : field.getColumn());
+        }
+        return columns.toString();
+    }
+
+    private static String listTail(String filteringSql, String orderBy, String sort, boolean cursor) {
+        String sql = filteringSql;
+
+        // 游標分頁：從上一頁最後一筆的（排序值, product_id）之後開始找
+        if (cursor) {
+            String operator = "asc".equals(sort) ? ">" : "<";
+            if ("product_id".equals(orderBy)) {
+                sql = sql + " AND product_id " + operator + " :cursorProductId";
+            } else {
+                sql = sql + " AND (" + orderBy + " " + operator + " :cursorValue" +
+                        " OR (" + orderBy + " = :cursorValue AND product_id " + operator + " :cursorProductId))";
+            }
+        }
+
+        // 排序（以 product_id 作為次要排序，讓排序值相同的商品順序固定，游標才能正確接續）
+        sql = sql + " ORDER BY " + orderBy + " " + sort;
+        if (!"product_id".equals(orderBy)) {
+            sql = sql + ", product_id " + sort;
+        }
+
+        // 分頁
+        if (cursor) {
+            sql = sql + " limit :limit";
+        } else {
+            sql = sql + " limit :limit OFFSET :offSet";
+        }
+        return sql;
+    }
+
+    private static String listKey(int filters, String orderBy, String sort, boolean cursor) {
+        return filters + "|" + orderBy + "|" + sort + "|" + cursor;
+    }
+}
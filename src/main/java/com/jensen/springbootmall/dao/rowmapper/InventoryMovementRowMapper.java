@@ -0,0 +1,22 @@
+package com.jensen.springbootmall.dao.rowmapper;
+
+import com.jensen.springbootmall.constant.InventoryMovementReason;
+import com.jensen.springbootmall.model.InventoryMovement;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class InventoryMovementRowMapper implements RowMapper<InventoryMovement> {
+    @Override
+    public InventoryMovement mapRow(ResultSet rs, int rowNum) throws SQLException {
+        InventoryMovement inventoryMovement = new InventoryMovement();
+        inventoryMovement.setMovementId(rs.getInt("movement_id"));
+        inventoryMovement.setProductId(rs.getInt("product_id"));
+        inventoryMovement.setQuantity(rs.getInt("quantity"));
+        inventoryMovement.setReason(InventoryMovementReason.valueOf(rs.getString("reason")));
+        inventoryMovement.setOrderId((Integer) rs.getObject("order_id"));
+        inventoryMovement.setCreatedDate(rs.getTimestamp("created_date"));
+        return inventoryMovement;
+    }
+}
@@ -0,0 +1,19 @@
+package com.jensen.springbootmall.dao.rowmapper;
+
+import com.jensen.springbootmall.model.InventorySnapshot;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class InventorySnapshotRowMapper implements RowMapper<InventorySnapshot> {
+    @Override
+    public InventorySnapshot mapRow(ResultSet rs, int rowNum) throws SQLException {
+        InventorySnapshot inventorySnapshot = new InventorySnapshot();
+        inventorySnapshot.setProductId(rs.getInt("product_id"));
+        inventorySnapshot.setStock(rs.getInt("stock"));
+        inventorySnapshot.setLastMovementId(rs.getInt("last_movement_id"));
+        inventorySnapshot.setLastModifiedDate(rs.getTimestamp("last_modified_date"));
+        return inventorySnapshot;
+    }
+}
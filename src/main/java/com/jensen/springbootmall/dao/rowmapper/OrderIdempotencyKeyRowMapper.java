@@ -0,0 +1,20 @@
+package com.jensen.springbootmall.dao.rowmapper;
+
+import com.jensen.springbootmall.model.OrderIdempotencyKey;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class OrderIdempotencyKeyRowMapper implements RowMapper<OrderIdempotencyKey> {
+    @Override
+    public OrderIdempotencyKey mapRow(ResultSet rs, int rowNum) throws SQLException {
+        OrderIdempotencyKey orderIdempotencyKey = new OrderIdempotencyKey();
+        orderIdempotencyKey.setUserId(rs.getInt("user_id"));
+        orderIdempotencyKey.setIdempotencyKey(rs.getString("idempotency_key"));
+        orderIdempotencyKey.setRequestHash(rs.getString("request_hash"));
+        orderIdempotencyKey.setOrderId((Integer) rs.getObject("order_id"));
+        orderIdempotencyKey.setCreatedDate(rs.getTimestamp("created_date"));
+        return orderIdempotencyKey;
+    }
+}
@@ -17,6 +17,7 @@ public class OrderRowMapper implements RowMapper<Order> {
         order.setTotalAmount(rs.getInt("total_amount"));
         order.setCreatedDate(rs.getTimestamp("created_date"));
         order.setLastModifiedDate(rs.getTimestamp("last_modified_date"));
+        order.setItemCount(rs.getInt("item_count"));
         return order;
     }
 
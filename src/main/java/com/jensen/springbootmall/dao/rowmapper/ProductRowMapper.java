@@ -1,34 +1,62 @@
 package com.jensen.springbootmall.dao.rowmapper;
 
 import com.jensen.springbootmall.constant.ProductCategory;
+import com.jensen.springbootmall.constant.ProductField;
 import com.jensen.springbootmall.model.Product;
 import org.springframework.jdbc.core.RowMapper;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.Set;
 
 
 public class ProductRowMapper implements RowMapper<Product> {
 
+    // 查詢中有選取的欄位，只對應這些欄位，其餘保持 null
+    private final Set<ProductField> fields;
 
+    public ProductRowMapper() {
+        this(EnumSet.allOf(ProductField.class));
+    }
+
+    public ProductRowMapper(Set<ProductField> fields) {
+        this.fields = fields;
+    }
 
     @Override
     public Product mapRow(ResultSet rs, int rowNum) throws SQLException {
         Product product = new Product();
         product.setProductId(rs.getInt("product_id"));
-        product.setProductName(rs.getString("product_name"));
-        String category = rs.getString("category");
-
-        ProductCategory productCategory = ProductCategory.valueOf(category);
-        product.setCategory(productCategory);
-
-        product.setImageUrl(rs.getString("image_url"));
-        product.setPrice(rs.getInt("price"));
-        product.setStock(rs.getInt("stock"));
-        product.setDescription(rs.getString("description"));
-        product.setCreatedDate(rs.getTimestamp("created_date"));
-        product.setLastModifiedDate(rs.getTimestamp("last_modified_date"));
+        if (fields.contains(ProductField.PRODUCT_NAME)) {
+            product.setProductName(rs.getString("product_name"));
+        }
+        if (fields.contains(ProductField.CATEGORY)) {
+            String category = rs.getString("category");
+
+            ProductCategory productCategory = ProductCategory.valueOf(category);
+            product.setCategory(productCategory);
+        }
+
+        if (fields.contains(ProductField.IMAGE_URL)) {
+            product.setImageUrl(rs.getString("image_url"));
+        }
+        if (fields.contains(ProductField.PRICE)) {
+            product.setPrice(rs.getInt("price"));
+        }
+        if (fields.contains(ProductField.STOCK)) {
+            product.setStock(rs.getInt("stock"));
+        }
+        if (fields.contains(ProductField.DESCRIPTION)) {
+            product.setDescription(rs.getString("description"));
+        }
+        if (fields.contains(ProductField.CREATED_DATE)) {
+            product.setCreatedDate(rs.getTimestamp("created_date"));
+        }
+        if (fields.contains(ProductField.LAST_MODIFIED_DATE)) {
+            product.setLastModifiedDate(rs.getTimestamp("last_modified_date"));
+        }
         return product;
     }
 }
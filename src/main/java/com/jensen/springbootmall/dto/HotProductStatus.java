@@ -0,0 +1,57 @@
+package com.jensen.springbootmall.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// 商品的熱門商品模式（限時搶購）狀態；關閉時一併返回對帳結果
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class HotProductStatus {
+
+    private Integer productId;
+    private boolean hot;
+    // 記憶體計數器中的可售庫存
+    private Integer availableStock;
+    // 已從計數器扣除、尚未寫回資料庫的數量
+    private Integer unflushedQuantity;
+    // 資料庫中的庫存（關閉時寫回後的值，與 availableStock 不同表示對帳不一致）
+    private Integer databaseStock;
+
+    public Integer getProductId() {
+        return productId;
+    }
+
+    public void setProductId(Integer productId) {
+        this.productId = productId;
+    }
+
+    public boolean isHot() {
+        return hot;
+    }
+
+    public void setHot(boolean hot) {
+        this.hot = hot;
+    }
+
+    public Integer getAvailableStock() {
+        return availableStock;
+    }
+
+    public void setAvailableStock(Integer availableStock) {
+        this.availableStock = availableStock;
+    }
+
+    public Integer getUnflushedQuantity() {
+        return unflushedQuantity;
+    }
+
+    public void setUnflushedQuantity(Integer unflushedQuantity) {
+        this.unflushedQuantity = unflushedQuantity;
+    }
+
+    public Integer getDatabaseStock() {
+        return databaseStock;
+    }
+
+    public void setDatabaseStock(Integer databaseStock) {
+        this.databaseStock = databaseStock;
+    }
+}
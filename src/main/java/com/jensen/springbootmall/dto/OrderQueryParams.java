@@ -4,6 +4,16 @@ public class OrderQueryParams {
    private Integer limit;
    private Integer offSet;
    private Integer userId;
+   // 是否一併載入每筆訂單的訂單項目
+   private boolean expandItems;
+
+    public boolean isExpandItems() {
+        return expandItems;
+    }
+
+    public void setExpandItems(boolean expandItems) {
+        this.expandItems = expandItems;
+    }
 
     public Integer getLimit() {
         return limit;
@@ -0,0 +1,64 @@
+package com.jensen.springbootmall.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// 非同步下單請求的處理狀態，由 GET /users/{userId}/orders/requests/{requestId} 查詢
+// 由處理佇列的工作執行緒更新，查詢的請求執行緒讀取，因此欄位皆為 volatile
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class OrderRequestStatus {
+
+    public enum Status {
+        // 已排入佇列，等待處理
+        QUEUED,
+        // 工作執行緒處理中
+        PROCESSING,
+        // 已建立訂單，orderId 為新訂單的 ID
+        CREATED,
+        // 建立失敗（例如庫存不足），message 為失敗原因
+        FAILED
+    }
+
+    private final String requestId;
+    private final Integer userId;
+    private volatile Status status;
+    private volatile Integer orderId;
+    private volatile String message;
+
+    public OrderRequestStatus(String requestId, Integer userId, Status status) {
+        this.requestId = requestId;
+        this.userId = userId;
+        this.status = status;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public Integer getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(Integer orderId) {
+        this.orderId = orderId;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+}
@@ -0,0 +1,28 @@
+package com.jensen.springbootmall.dto;
+
+import com.jensen.springbootmall.model.Product;
+
+import java.util.List;
+
+// 一次查詢多個商品的結果：results 依請求中的 productId 順序排列，查無資料的 productId 列在 missingIds
+public class ProductBatchResult {
+
+    private List<Product> results;
+    private List<Integer> missingIds;
+
+    public List<Product> getResults() {
+        return results;
+    }
+
+    public void setResults(List<Product> results) {
+        this.results = results;
+    }
+
+    public List<Integer> getMissingIds() {
+        return missingIds;
+    }
+
+    public void setMissingIds(List<Integer> missingIds) {
+        this.missingIds = missingIds;
+    }
+}
@@ -0,0 +1,76 @@
+package com.jensen.springbootmall.dto;
+
+import com.jensen.springbootmall.constant.ProductCategory;
+
+import java.util.List;
+import java.util.Map;
+
+// 商品篩選面板的統計：各分類、各價格區間的商品數
+public class ProductFacetResult {
+
+    private Integer total;
+    private Map<ProductCategory, Integer> categories;
+    private List<PriceBucket> priceBuckets;
+
+    public Integer getTotal() {
+        return total;
+    }
+
+    public void setTotal(Integer total) {
+        this.total = total;
+    }
+
+    public Map<ProductCategory, Integer> getCategories() {
+        return categories;
+    }
+
+    public void setCategories(Map<ProductCategory, Integer> categories) {
+        this.categories = categories;
+    }
+
+    public List<PriceBucket> getPriceBuckets() {
+        return priceBuckets;
+    }
+
+    public void setPriceBuckets(List<PriceBucket> priceBuckets) {
+        this.priceBuckets = priceBuckets;
+    }
+
+    // 價格區間 [min, max)，max 為 null 表示沒有上限
+    public static class PriceBucket {
+
+        private Integer min;
+        private Integer max;
+        private Integer count;
+
+        public PriceBucket(Integer min, Integer max, Integer count) {
+            this.min = min;
+            this.max = max;
+            this.count = count;
+        }
+
+        public Integer getMin() {
+            return min;
+        }
+
+        public void setMin(Integer min) {
+            this.min = min;
+        }
+
+        public Integer getMax() {
+            return max;
+        }
+
+        public void setMax(Integer max) {
+            this.max = max;
+        }
+
+        public Integer getCount() {
+            return count;
+        }
+
+        public void setCount(Integer count) {
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.jensen.springbootmall.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+// 批次匯入商品時，每一筆資料的處理結果
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ProductImportResult {
+
+    public enum Status {
+        // 已新增，productId 為新商品的 ID
+        CREATED,
+        // 格式錯誤或欄位驗證失敗，未寫入
+        INVALID,
+        // 資料正確，但同一批寫入資料庫時失敗，未寫入
+        FAILED
+    }
+
+    // 第幾筆資料（從 1 開始）
+    private Integer row;
+    private Status status;
+    private Integer productId;
+    private List<String> errors;
+
+    public ProductImportResult(Integer row, Status status) {
+        this.row = row;
+        this.status = status;
+    }
+
+    public Integer getRow() {
+        return row;
+    }
+
+    public void setRow(Integer row) {
+        this.row = row;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public Integer getProductId() {
+        return productId;
+    }
+
+    public void setProductId(Integer productId) {
+        this.productId = productId;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<String> errors) {
+        this.errors = errors;
+    }
+}
@@ -1,16 +1,29 @@
 package com.jensen.springbootmall.dto;
 
 import com.jensen.springbootmall.constant.ProductCategory;
+import com.jensen.springbootmall.constant.ProductField;
+import com.jensen.springbootmall.util.ProductCursor;
+
+import java.util.Set;
 
 
 
 public class ProductQueryParams {
     private ProductCategory category;
     private String search;
+    // 價格範圍（含上下限），null 表示不限制
+    private Integer minPrice;
+    private Integer maxPrice;
+    // true 時只查詢有庫存（stock > 0）的商品
+    private Boolean inStock;
     private String orderBy;
     private String sort;
     private Integer limit;
     private Integer offset;
+    // keyset 分頁游標，有值時改用游標定位，不使用 offset
+    private ProductCursor cursor;
+    // 只需要的欄位，null 表示全部欄位
+    private Set<ProductField> fields;
 
     public Integer getLimit() {
         return limit;
@@ -59,4 +72,44 @@ public class ProductQueryParams {
     public void setSearch(String search) {
         this.search = search;
     }
+
+    public ProductCursor getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(ProductCursor cursor) {
+        this.cursor = cursor;
+    }
+
+    public Integer getMinPrice() {
+        return minPrice;
+    }
+
+    public void setMinPrice(Integer minPrice) {
+        this.minPrice = minPrice;
+    }
+
+    public Integer getMaxPrice() {
+        return maxPrice;
+    }
+
+    public void setMaxPrice(Integer maxPrice) {
+        this.maxPrice = maxPrice;
+    }
+
+    public Boolean getInStock() {
+        return inStock;
+    }
+
+    public void setInStock(Boolean inStock) {
+        this.inStock = inStock;
+    }
+
+    public Set<ProductField> getFields() {
+        return fields;
+    }
+
+    public void setFields(Set<ProductField> fields) {
+        this.fields = fields;
+    }
 }
@@ -0,0 +1,50 @@
+package com.jensen.springbootmall.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Map;
+
+// 商品的庫存分片狀態；沒有拆分庫存時 shards 為 null
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class StockShardStatus {
+
+    private Integer productId;
+    // 各分片的庫存（shard -> stock）
+    private Map<Integer, Integer> shards;
+    // 尚未分配到分片的庫存（product.stock），由重新平衡分配到各分片
+    private Integer unallocatedStock;
+    // 總庫存：unallocatedStock 加上所有分片的庫存
+    private Integer totalStock;
+
+    public Integer getProductId() {
+        return productId;
+    }
+
+    public void setProductId(Integer productId) {
+        this.productId = productId;
+    }
+
+    public Map<Integer, Integer> getShards() {
+        return shards;
+    }
+
+    public void setShards(Map<Integer, Integer> shards) {
+        this.shards = shards;
+    }
+
+    public Integer getUnallocatedStock() {
+        return unallocatedStock;
+    }
+
+    public void setUnallocatedStock(Integer unallocatedStock) {
+        this.unallocatedStock = unallocatedStock;
+    }
+
+    public Integer getTotalStock() {
+        return totalStock;
+    }
+
+    public void setTotalStock(Integer totalStock) {
+        this.totalStock = totalStock;
+    }
+}
@@ -0,0 +1,21 @@
+package com.jensen.springbootmall.event;
+
+// 訂單資料異動事件，由建立訂單等寫入操作發出，供訂單列表的版本號（ETag）同步更新
+public class OrderChangedEvent {
+
+    private final Integer userId;
+    private final Integer orderId;
+
+    public OrderChangedEvent(Integer userId, Integer orderId) {
+        this.userId = userId;
+        this.orderId = orderId;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public Integer getOrderId() {
+        return orderId;
+    }
+}
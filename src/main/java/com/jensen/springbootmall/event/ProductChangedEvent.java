@@ -0,0 +1,31 @@
+package com.jensen.springbootmall.event;
+
+import java.util.List;
+
+// 商品資料異動事件，由 ProductDao 的寫入操作發出，供快取、搜尋索引等記憶體資料同步更新
+public class ProductChangedEvent {
+
+    public enum ChangeType {
+        CREATED,
+        UPDATED,
+        DELETED,
+        // 只有庫存變動（例如下單扣庫存），其他欄位不變
+        STOCK_CHANGED
+    }
+
+    private final List<Integer> productIds;
+    private final ChangeType changeType;
+
+    public ProductChangedEvent(List<Integer> productIds, ChangeType changeType) {
+        this.productIds = productIds;
+        this.changeType = changeType;
+    }
+
+    public List<Integer> getProductIds() {
+        return productIds;
+    }
+
+    public ChangeType getChangeType() {
+        return changeType;
+    }
+}
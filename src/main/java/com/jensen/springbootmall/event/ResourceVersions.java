@@ -0,0 +1,67 @@
+package com.jensen.springbootmall.event;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 商品目錄與各用戶訂單列表的版本號，用來產生列表頁的 ETag / Last-Modified
+// 不必查詢資料庫就能判斷前端手上的列表是否仍是最新的
+// 版本號只存在記憶體中：以啟動時間作為起點，重新啟動後舊的 ETag 一律視為過期
+@Component
+public class ResourceVersions {
+
+    private final long epoch = System.currentTimeMillis();
+
+    private final AtomicLong catalogVersion = new AtomicLong();
+
+    private volatile long catalogLastModified = epoch;
+
+    // userId -> 該用戶訂單列表的版本號與最後異動時間；沒有異動過的用戶不佔空間
+    private final Map<Integer, Version> orderVersions = new ConcurrentHashMap<>();
+
+    // 商品寫入的交易結束後（或非交易寫入後）才更新版本號，
+    // 確保拿到新版本號的請求一定讀得到新資料
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMPLETION, fallbackExecution = true)
+    public void onProductChanged(ProductChangedEvent event) {
+        catalogVersion.incrementAndGet();
+        catalogLastModified = System.currentTimeMillis();
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMPLETION, fallbackExecution = true)
+    public void onOrderChanged(OrderChangedEvent event) {
+        orderVersions.compute(event.getUserId(), (userId, version) ->
+                new Version(version == null ? 1 : version.number + 1, System.currentTimeMillis()));
+    }
+
+    public String catalogETag() {
+        return "\"catalog-" + epoch + "-" + catalogVersion.get() + "\"";
+    }
+
+    public long catalogLastModified() {
+        return catalogLastModified;
+    }
+
+    public String orderListETag(Integer userId) {
+        Version version = orderVersions.get(userId);
+        return "\"orders-" + userId + "-" + epoch + "-" + (version == null ? 0 : version.number) + "\"";
+    }
+
+    public long orderListLastModified(Integer userId) {
+        Version version = orderVersions.get(userId);
+        return version == null ? epoch : version.lastModified;
+    }
+
+    private static class Version {
+        private final long number;
+        private final long lastModified;
+
+        private Version(long number, long lastModified) {
+            this.number = number;
+            this.lastModified = lastModified;
+        }
+    }
+}
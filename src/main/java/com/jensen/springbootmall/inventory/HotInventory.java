@@ -0,0 +1,428 @@
+package com.jensen.springbootmall.inventory;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jensen.springbootmall.constant.InventoryMovementReason;
+import com.jensen.springbootmall.dao.OrderDao;
+import com.jensen.springbootmall.dao.ProductDao;
+import com.jensen.springbootmall.dto.HotProductStatus;
+import com.jensen.springbootmall.model.Product;
+import com.jensen.springbootmall.util.NdjsonJournal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// 熱門商品模式（限時搶購）：由管理者對個別商品開啟，開啟時把資料庫庫存載入記憶體計數器，
+// 下單時以 CAS 扣除計數器，不鎖定 product 資料列；扣除的數量定期批次寫回 product.stock
+// 每次扣除在交易提交前寫入本機日誌（標記訂單ID），當機重啟時把訂單已提交但尚未寫回的數量補寫回資料庫；關閉時寫回剩餘數量並與資料庫對帳
+// 開啟期間 GET /products 等查詢看到的資料庫庫存會比實際可售庫存多出尚未寫回的數量
+@Component
+public class HotInventory implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(HotInventory.class);
+
+    private static final String HOT = "HOT";
+    private static final String RESERVE = "RESERVE";
+    private static final String FLUSH = "FLUSH";
+    private static final String COLD = "COLD";
+
+    // 寫回後日誌超過此大小時壓縮成只含目前熱門商品的紀錄
+    private static final long JOURNAL_COMPACT_THRESHOLD_BYTES = 1024 * 1024;
+
+    // 日誌中的一筆紀錄：HOT / COLD 為開啟、關閉；RESERVE 為訂單 orderId 的扣除；FLUSH 為已寫回資料庫的數量
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Record(String type, Integer productId, Integer quantity, Integer orderId) {
+    }
+
+    // 一次下單的扣除；建立訂單後需以 setOrderId 記下訂單ID，提交前寫入日誌時一併記錄
+    public static class Reservation {
+        private Integer orderId;
+
+        public void setOrderId(Integer orderId) {
+            this.orderId = orderId;
+        }
+    }
+
+    // 寫回庫存經過快取層，讓商品快取失效並發出 STOCK_CHANGED
+    @Autowired
+    private ProductDao productDao;
+
+    // 對帳時直接讀取資料庫中的庫存
+    @Autowired
+    @Qualifier("productDaoImpl")
+    private ProductDao databaseProductDao;
+
+    // 重啟時確認日誌中的扣除所屬的訂單是否已提交
+    @Autowired
+    private OrderDao orderDao;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private InventoryLedger inventoryLedger;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${mall.hot-inventory.journal-path:${java.io.tmpdir}/springboot-mall/hot-inventory.journal}")
+    private String journalPath;
+
+    // 下單等待開啟、關閉或寫回完成的最長時間（毫秒），逾時視為鎖等待逾時，由下單重試
+    @Value("${mall.hot-inventory.lock-timeout-ms:1000}")
+    private long lockTimeoutMs;
+
+    // productId -> 計數器
+    private final Map<Integer, Counter> counters = new ConcurrentHashMap<>();
+
+    // 下單扣除持有讀鎖直到交易結束；開啟、關閉、寫回持有寫鎖，確保寫回時沒有尚未提交的扣除
+    // 使用公平鎖，等待中的寫回不會被持續進來的下單餓死
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+
+    private NdjsonJournal<Record> journal;
+
+    private static class Counter {
+        // 可售庫存
+        private final AtomicInteger available;
+        // 已扣除但尚未寫回資料庫的數量
+        private final AtomicInteger unflushed = new AtomicInteger();
+
+        private Counter(int stock) {
+            this.available = new AtomicInteger(stock);
+        }
+    }
+
+    // 啟動時重播日誌：把上次尚未寫回的數量寫回資料庫，並重新載入仍在熱門商品模式的商品
+    @Override
+    public void afterSingletonsInstantiated() {
+        journal = new NdjsonJournal<>(Path.of(journalPath), objectMapper, Record.class);
+        Set<Integer> hotProductIds = new LinkedHashSet<>();
+        // productId -> 最後一次寫回之後的扣除；寫回時持有寫鎖，之前的扣除不是已寫回就是已 rollback
+        Map<Integer, List<Record>> pendingMap = new HashMap<>();
+        try {
+            for (Record record : journal.replay()) {
+                switch (record.type()) {
+                    case HOT -> hotProductIds.add(record.productId());
+                    case COLD -> hotProductIds.remove(record.productId());
+                    case RESERVE -> pendingMap.computeIfAbsent(record.productId(), k -> new ArrayList<>()).add(record);
+                    case FLUSH -> pendingMap.remove(record.productId());
+                    default -> log.warn("略過未知類型的熱門商品日誌紀錄：{}", record.type());
+                }
+            }
+
+            // RESERVE 在交易提交前寫入：只補寫回訂單已提交的扣除，提交前當機或 rollback 的訂單沒有訂單資料列
+            Map<Integer, Integer> unflushedMap = new HashMap<>();
+            List<Integer> orderIdList = pendingMap.values().stream()
+                    .flatMap(List::stream).map(Record::orderId).filter(Objects::nonNull).distinct().toList();
+            if (!orderIdList.isEmpty()) {
+                Set<Integer> committedOrderIds = new HashSet<>(orderDao.getExistingOrderIds(orderIdList));
+                pendingMap.forEach((productId, recordList) -> recordList.forEach(record -> {
+                    if (committedOrderIds.contains(record.orderId())) {
+                        unflushedMap.merge(productId, record.quantity(), Integer::sum);
+                    }
+                }));
+            }
+            if (!unflushedMap.isEmpty()) {
+                log.info("從熱門商品日誌補寫回尚未寫回的庫存：{}", unflushedMap);
+                writeBack(unflushedMap);
+            }
+
+            List<Record> hotRecordList = new ArrayList<>();
+            for (Product product : databaseProductDao.getProductsByIds(new ArrayList<>(hotProductIds))) {
+                counters.put(product.getProductId(), new Counter(product.getStock()));
+                hotRecordList.add(new Record(HOT, product.getProductId(), null, null));
+            }
+            journal.open(hotRecordList);
+        } catch (IOException e) {
+            throw new UncheckedIOException("無法開啟熱門商品日誌 " + journalPath, e);
+        }
+    }
+
+    public boolean isHot(Integer productId) {
+        return counters.containsKey(productId);
+    }
+
+    public boolean containsHot(Collection<Integer> productIds) {
+        if (counters.isEmpty()) {
+            return false;
+        }
+        for (Integer productId : productIds) {
+            if (counters.containsKey(productId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 在目前交易中從計數器扣除庫存；交易 rollback 時自動退回
+    // 建立訂單後需以返回的 Reservation 記下訂單ID，交易提交前才寫入日誌
+    // 庫存不足時拋出 400；商品已不在熱門商品模式或等待逾時時拋出 CannotAcquireLockException，由下單重試
+    // 應在鎖定其他（非熱門）商品資料列之後才呼叫，避免持有讀鎖等待資料列鎖
+    public Reservation reserve(Map<Integer, Integer> quantityByProductId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            throw new IllegalStateException("熱門商品扣除庫存必須在交易中執行");
+        }
+        Lock readLock = lock.readLock();
+        try {
+            if (!readLock.tryLock(lockTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new CannotAcquireLockException("等待熱門商品庫存逾時");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CannotAcquireLockException("等待熱門商品庫存被中斷");
+        }
+
+        boolean registered = false;
+        try {
+            Map<Integer, Integer> reserved = new HashMap<>();
+            for (Map.Entry<Integer, Integer> entry : quantityByProductId.entrySet()) {
+                Counter counter = counters.get(entry.getKey());
+                if (counter == null) {
+                    release(reserved, false);
+                    throw new CannotAcquireLockException("商品 " + entry.getKey() + " 已關閉熱門商品模式");
+                }
+                if (!tryDecrement(counter.available, entry.getValue())) {
+                    release(reserved, false);
+                    log.info("熱門商品 {} 庫存不足，剩餘庫存：{}，欲購買數量：{}",
+                            entry.getKey(), counter.available.get(), entry.getValue());
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "庫存不足");
+                }
+                reserved.put(entry.getKey(), entry.getValue());
+            }
+
+            Reservation reservation = new Reservation();
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                private boolean journaled;
+
+                // 訂單資料列寫入後、提交前才寫入日誌並計入尚未寫回的數量
+                // 寫入後、提交前當機時，重啟後找不到訂單資料列而略過這筆扣除；日誌寫入失敗時拋出例外讓交易 rollback
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    if (reservation.orderId == null) {
+                        throw new IllegalStateException("熱門商品扣除庫存未記錄訂單ID");
+                    }
+                    journal.append(records(RESERVE, reserved, reservation.orderId));
+                    reserved.forEach((productId, quantity) -> counters.get(productId).unflushed.addAndGet(quantity));
+                    journaled = true;
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    try {
+                        if (status != STATUS_COMMITTED) {
+                            release(reserved, journaled);
+                        }
+                    } finally {
+                        readLock.unlock();
+                    }
+                }
+            });
+            registered = true;
+            return reservation;
+        } finally {
+            if (!registered) {
+                readLock.unlock();
+            }
+        }
+    }
+
+    // 定期把扣除的數量批次寫回資料庫
+    @Scheduled(fixedDelayString = "${mall.hot-inventory.flush-interval-ms:1000}")
+    public void flush() {
+        if (counters.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            flushLocked();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // 開啟熱門商品模式：鎖定資料列讀取庫存，等進行中的一般下單提交後才載入計數器
+    public HotProductStatus enable(Integer productId) {
+        lock.writeLock().lock();
+        try {
+            if (!counters.containsKey(productId)) {
+                Boolean found = transactionTemplate.execute(status -> {
+                    List<Product> productList = productDao.getProductsByIdsForUpdate(List.of(productId));
+                    if (productList.isEmpty()) {
+                        return false;
+                    }
+                    // 拆分庫存的商品的 product.stock 不是總庫存，寫回時無法從中扣除
+                    if (!productDao.getStockShards(List.of(productId)).isEmpty()) {
+                        throw new ResponseStatusException(HttpStatus.CONFLICT, "商品已拆分庫存，無法開啟熱門商品模式");
+                    }
+                    journal.append(List.of(new Record(HOT, productId, null, null)));
+                    // 在資料列鎖釋放前加入，等待這一列的一般下單取得鎖後會發現已是熱門商品而重試
+                    counters.put(productId, new Counter(productList.get(0).getStock()));
+                    return true;
+                });
+                if (!Boolean.TRUE.equals(found)) {
+                    throw new ResponseStatusException(HttpStatus.NOT_FOUND, "商品不存在");
+                }
+                log.info("商品 {} 開啟熱門商品模式，庫存 {}", productId, counters.get(productId).available.get());
+            }
+            return status(productId, counters.get(productId));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // 關閉熱門商品模式：寫回剩餘數量，並以資料庫庫存對帳
+    public HotProductStatus disable(Integer productId) {
+        lock.writeLock().lock();
+        try {
+            Counter counter = counters.get(productId);
+            if (counter == null) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "商品不在熱門商品模式");
+            }
+            flushLocked();
+            counters.remove(productId);
+            journal.append(List.of(new Record(COLD, productId, null, null)));
+
+            // 對帳：寫回後資料庫庫存應等於計數器；不一致（例如開啟期間直接修改了資料庫）時以資料庫為準
+            HotProductStatus status = status(productId, counter);
+            status.setHot(false);
+            Product product = databaseProductDao.getProductById(productId);
+            if (product != null) {
+                status.setDatabaseStock(product.getStock());
+                if (product.getStock() != counter.available.get()) {
+                    log.warn("熱門商品 {} 對帳不一致，資料庫庫存 {}，記憶體庫存 {}，以資料庫為準",
+                            productId, product.getStock(), counter.available.get());
+                }
+            }
+            log.info("商品 {} 關閉熱門商品模式", productId);
+            return status;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public HotProductStatus getStatus(Integer productId) {
+        Counter counter = counters.get(productId);
+        if (counter == null) {
+            HotProductStatus status = new HotProductStatus();
+            status.setProductId(productId);
+            return status;
+        }
+        return status(productId, counter);
+    }
+
+    private void flushLocked() {
+        Map<Integer, Integer> flushMap = new HashMap<>();
+        counters.forEach((productId, counter) -> {
+            int quantity = counter.unflushed.get();
+            if (quantity > 0) {
+                flushMap.put(productId, quantity);
+            }
+        });
+
+        if (!flushMap.isEmpty()) {
+            writeBack(flushMap);
+            flushMap.forEach((productId, quantity) -> counters.get(productId).unflushed.addAndGet(-quantity));
+            journal.append(records(FLUSH, flushMap, null));
+        }
+
+        // 寫回後沒有尚未寫回的數量，日誌只需保留目前的熱門商品
+        try {
+            if (journal.size() >= JOURNAL_COMPACT_THRESHOLD_BYTES) {
+                List<Record> hotRecordList = new ArrayList<>();
+                counters.keySet().forEach(productId -> hotRecordList.add(new Record(HOT, productId, null, null)));
+                journal.open(hotRecordList);
+            }
+        } catch (IOException e) {
+            log.warn("壓縮熱門商品日誌失敗", e);
+        }
+    }
+
+    // 逐筆以條件式 UPDATE 扣除資料庫庫存（未鎖定資料列，需依實際更新筆數判斷是否扣除成功，才能正確記錄庫存異動）
+    // 資料庫庫存已不足（開啟期間在資料庫中調降了庫存）的商品留待關閉時對帳
+    private void writeBack(Map<Integer, Integer> quantityByProductId) {
+        Map<Integer, Boolean> decreased = transactionTemplate.execute(status -> {
+            Map<Integer, Boolean> result = productDao.decreaseStocksRowByRow(quantityByProductId);
+            Map<Integer, Integer> decreasedQuantityByProductId = new HashMap<>(quantityByProductId);
+            decreasedQuantityByProductId.keySet().removeIf(productId -> !result.get(productId));
+            inventoryLedger.record(InventoryLedger.decreases(
+                    InventoryMovementReason.HOT_INVENTORY_FLUSH, null, decreasedQuantityByProductId));
+            return result;
+        });
+        decreased.forEach((productId, success) -> {
+            if (!success) {
+                log.error("熱門商品 {} 寫回庫存失敗，資料庫庫存少於扣除數量 {}", productId, quantityByProductId.get(productId));
+            }
+        });
+    }
+
+    // 退回扣除的數量；journaled 為 true 表示已寫入 RESERVE 並計入尚未寫回的數量
+    // 不需寫入退回紀錄：rollback 的訂單沒有訂單資料列，重啟時會略過它的 RESERVE
+    private void release(Map<Integer, Integer> reserved, boolean journaled) {
+        if (reserved.isEmpty()) {
+            return;
+        }
+        reserved.forEach((productId, quantity) -> {
+            Counter counter = counters.get(productId);
+            counter.available.addAndGet(quantity);
+            if (journaled) {
+                counter.unflushed.addAndGet(-quantity);
+            }
+        });
+    }
+
+    private boolean tryDecrement(AtomicInteger available, int quantity) {
+        while (true) {
+            int current = available.get();
+            if (current < quantity) {
+                return false;
+            }
+            if (available.compareAndSet(current, current - quantity)) {
+                return true;
+            }
+        }
+    }
+
+    private List<Record> records(String type, Map<Integer, Integer> quantityByProductId, Integer orderId) {
+        List<Record> recordList = new ArrayList<>(quantityByProductId.size());
+        quantityByProductId.forEach((productId, quantity) -> recordList.add(new Record(type, productId, quantity, orderId)));
+        return recordList;
+    }
+
+    private HotProductStatus status(Integer productId, Counter counter) {
+        HotProductStatus status = new HotProductStatus();
+        status.setProductId(productId);
+        status.setHot(true);
+        status.setAvailableStock(counter.available.get());
+        status.setUnflushedQuantity(counter.unflushed.get());
+        return status;
+    }
+}
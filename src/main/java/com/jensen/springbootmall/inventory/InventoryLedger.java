@@ -0,0 +1,163 @@
+package com.jensen.springbootmall.inventory;
+
+import com.jensen.springbootmall.constant.InventoryMovementReason;
+import com.jensen.springbootmall.dao.InventoryLedgerDao;
+import com.jensen.springbootmall.model.InventoryMovement;
+import com.jensen.springbootmall.model.InventorySnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// 庫存異動帳：每次庫存異動在同一個交易中新增一筆 inventory_movement（只新增不修改），保留異動歷史供對帳
+// 壓縮定期把一段時間之前的異動依序併入每個商品的快照（inventory_snapshot）後刪除，
+// 並檢查「快照 + 尚未壓縮的異動」是否等於商品目前的總庫存，不一致時記錄警告並以實際庫存重新設定快照
+// product.stock 仍是下單檢查庫存的依據：扣庫存必須先確認庫存足夠，只新增異動無法避免超賣
+@Component
+public class InventoryLedger {
+
+    private static final Logger log = LoggerFactory.getLogger(InventoryLedger.class);
+
+    @Autowired
+    private InventoryLedgerDao inventoryLedgerDao;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    // 是否記錄庫存異動帳
+    @Value("${mall.inventory-ledger.enabled:false}")
+    private boolean enabled;
+
+    // 只壓縮建立超過此時間（毫秒）的異動，避免略過 movement_id 較小但尚未提交的異動
+    @Value("${mall.inventory-ledger.compact-grace-ms:60000}")
+    private long compactGraceMs;
+
+    // 每次壓縮最多處理的異動數
+    @Value("${mall.inventory-ledger.compact-batch-size:10000}")
+    private int compactBatchSize;
+
+    // 扣庫存的異動（數量記為負數），orderId 可為 null
+    public static List<InventoryMovement> decreases(InventoryMovementReason reason, Integer orderId,
+                                                    Map<Integer, Integer> quantityByProductId) {
+        List<InventoryMovement> movementList = new ArrayList<>(quantityByProductId.size());
+        quantityByProductId.forEach((productId, quantity) ->
+                movementList.add(movement(productId, -quantity, reason, orderId)));
+        return movementList;
+    }
+
+    // 設定庫存的異動（記錄異動後的庫存）
+    public static List<InventoryMovement> stocks(InventoryMovementReason reason, Map<Integer, Integer> stockByProductId) {
+        List<InventoryMovement> movementList = new ArrayList<>(stockByProductId.size());
+        stockByProductId.forEach((productId, stock) -> movementList.add(movement(productId, stock, reason, null)));
+        return movementList;
+    }
+
+    // 以一次批次 INSERT 記錄異動；應在修改庫存的同一個交易中呼叫
+    public void record(List<InventoryMovement> movementList) {
+        if (!enabled || movementList.isEmpty()) {
+            return;
+        }
+        inventoryLedgerDao.createMovements(movementList);
+    }
+
+    public void deleteProduct(Integer productId) {
+        if (enabled) {
+            inventoryLedgerDao.deleteByProductId(productId);
+        }
+    }
+
+    // 定期壓縮異動帳並對帳
+    @Scheduled(fixedDelayString = "${mall.inventory-ledger.compact-interval-ms:60000}")
+    public void compact() {
+        if (!enabled) {
+            return;
+        }
+        Date cutoff = new Date(System.currentTimeMillis() - compactGraceMs);
+        transactionTemplate.executeWithoutResult(status -> compact(cutoff));
+    }
+
+    private void compact(Date cutoff) {
+        List<InventoryMovement> movementList = inventoryLedgerDao.getMovementsBefore(cutoff, compactBatchSize);
+        if (movementList.isEmpty()) {
+            return;
+        }
+
+        // 依 movement_id 順序把每個商品的異動併入快照
+        Map<Integer, List<InventoryMovement>> movementMap = new LinkedHashMap<>();
+        for (InventoryMovement inventoryMovement : movementList) {
+            movementMap.computeIfAbsent(inventoryMovement.getProductId(), productId -> new ArrayList<>()).add(inventoryMovement);
+        }
+        List<Integer> productIdList = new ArrayList<>(movementMap.keySet());
+        Map<Integer, InventorySnapshot> snapshotMap = inventoryLedgerDao.getSnapshots(productIdList);
+
+        List<InventorySnapshot> snapshotList = new ArrayList<>(movementMap.size());
+        List<Integer> openedProductIdList = new ArrayList<>();
+        movementMap.forEach((productId, productMovementList) -> {
+            InventorySnapshot inventorySnapshot = snapshotMap.get(productId);
+            if (inventorySnapshot == null) {
+                // 第一次壓縮的商品沒有期初庫存，先以 0 計算，稍後對帳時以實際庫存設定
+                inventorySnapshot = new InventorySnapshot();
+                inventorySnapshot.setProductId(productId);
+                inventorySnapshot.setStock(0);
+                openedProductIdList.add(productId);
+            }
+            int stock = inventorySnapshot.getStock();
+            for (InventoryMovement inventoryMovement : productMovementList) {
+                stock = inventoryMovement.getReason().isAbsolute() ? inventoryMovement.getQuantity()
+                        : stock + inventoryMovement.getQuantity();
+            }
+            inventorySnapshot.setStock(stock);
+            inventorySnapshot.setLastMovementId(productMovementList.get(productMovementList.size() - 1).getMovementId());
+            snapshotList.add(inventorySnapshot);
+        });
+
+        Integer maxMovementId = movementList.get(movementList.size() - 1).getMovementId();
+        inventoryLedgerDao.saveSnapshots(snapshotList);
+        inventoryLedgerDao.deleteMovements(maxMovementId, cutoff);
+
+        reconcile(snapshotList, openedProductIdList);
+    }
+
+    // 對帳：差額不為 0 表示有未經異動帳的庫存修改（例如直接修改資料庫），以實際庫存為準調整快照
+    private void reconcile(List<InventorySnapshot> snapshotList, List<Integer> openedProductIdList) {
+        List<Integer> productIdList = new ArrayList<>(snapshotList.size());
+        snapshotList.forEach(inventorySnapshot -> productIdList.add(inventorySnapshot.getProductId()));
+        Map<Integer, Integer> differenceMap = inventoryLedgerDao.getStockDifferences(productIdList);
+
+        List<InventorySnapshot> adjustedList = new ArrayList<>();
+        for (InventorySnapshot inventorySnapshot : snapshotList) {
+            Integer difference = differenceMap.get(inventorySnapshot.getProductId());
+            if (difference == null || difference == 0) {
+                continue;
+            }
+            if (!openedProductIdList.contains(inventorySnapshot.getProductId())) {
+                log.warn("商品 {} 庫存對帳不一致，實際庫存比異動帳多 {}，以實際庫存為準",
+                        inventorySnapshot.getProductId(), difference);
+            }
+            inventorySnapshot.setStock(inventorySnapshot.getStock() + difference);
+            adjustedList.add(inventorySnapshot);
+        }
+        if (!adjustedList.isEmpty()) {
+            inventoryLedgerDao.saveSnapshots(adjustedList);
+        }
+    }
+
+    private static InventoryMovement movement(Integer productId, Integer quantity,
+                                              InventoryMovementReason reason, Integer orderId) {
+        InventoryMovement inventoryMovement = new InventoryMovement();
+        inventoryMovement.setProductId(productId);
+        inventoryMovement.setQuantity(quantity);
+        inventoryMovement.setReason(reason);
+        inventoryMovement.setOrderId(orderId);
+        return inventoryMovement;
+    }
+}
@@ -0,0 +1,278 @@
+package com.jensen.springbootmall.inventory;
+
+import com.jensen.springbootmall.dao.ProductDao;
+import com.jensen.springbootmall.dto.StockShardStatus;
+import com.jensen.springbootmall.model.Product;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+// 庫存分片：把單一商品的庫存拆到 product_stock_shard 的多個資料列，下單隨機挑一個分片以條件式 UPDATE 扣庫存，
+// 同一商品的訂單分散鎖定不同的資料列，不再全部排隊等同一個 product 資料列鎖
+// 總庫存為 product.stock（尚未分配到分片的庫存）加上所有分片的庫存；重新平衡定期把庫存平均分配回各分片
+@Component
+public class StockShards {
+
+    private static final Logger log = LoggerFactory.getLogger(StockShards.class);
+
+    @Autowired
+    private ProductDao productDao;
+
+    @Autowired
+    private HotInventory hotInventory;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    // 是否啟用庫存分片；未啟用時下單不查詢分片
+    @Value("${mall.stock-shard.enabled:false}")
+    private boolean enabled;
+
+    // 一個商品最多的分片數
+    @Value("${mall.stock-shard.max-shards:64}")
+    private int maxShards;
+
+    // 查詢多個商品的庫存分片，沒有拆分庫存的商品不會出現在結果中
+    public Map<Integer, Map<Integer, Integer>> getStockShards(Collection<Integer> productIds) {
+        if (!enabled || productIds.isEmpty()) {
+            return Map.of();
+        }
+        return productDao.getStockShards(new ArrayList<>(productIds));
+    }
+
+    // 在目前交易中從商品的分片扣除庫存；stockByShard 為先前查到的各分片庫存，用來挑選庫存足夠的分片
+    // 從隨機的分片開始嘗試，沒有單一分片足夠時才鎖定商品的所有分片，從多個分片合計扣除
+    public void decrease(Integer productId, Integer quantity, Map<Integer, Integer> stockByShard) {
+        List<Integer> candidateList = new ArrayList<>();
+        stockByShard.forEach((shard, stock) -> {
+            if (stock >= quantity) {
+                candidateList.add(shard);
+            }
+        });
+
+        int start = candidateList.isEmpty() ? 0 : ThreadLocalRandom.current().nextInt(candidateList.size());
+        for (int i = 0; i < candidateList.size(); i++) {
+            Integer shard = candidateList.get((start + i) % candidateList.size());
+            if (productDao.decreaseShardStock(productId, shard, quantity)) {
+                return;
+            }
+        }
+        decreaseAcrossShards(productId, quantity);
+    }
+
+    // 拆分庫存：鎖定商品資料列，把目前的總庫存平均分配到 shardCount 個分片
+    public StockShardStatus enable(Integer productId, int shardCount) {
+        checkEnabled();
+        if (shardCount < 1 || shardCount > maxShards) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "shards 須介於 1 到 " + maxShards);
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            Integer unallocated = productDao.getUnallocatedStockForUpdate(productId);
+            if (unallocated == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "商品不存在");
+            }
+            // 熱門商品模式寫回時從 product.stock 扣除，兩種模式不能同時使用
+            if (hotInventory.isHot(productId)) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "商品在熱門商品模式，無法拆分庫存");
+            }
+            Map<Integer, Integer> stockByShard = productDao.getStockShardsForUpdate(productId);
+            if (!stockByShard.isEmpty() && stockByShard.size() != shardCount) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT,
+                        "商品已拆分為 " + stockByShard.size() + " 個分片，請先關閉庫存分片");
+            }
+            int totalStock = unallocated + sum(stockByShard);
+            List<Integer> shardList = new ArrayList<>();
+            for (int shard = 0; shard < shardCount; shard++) {
+                shardList.add(shard);
+            }
+            productDao.updateStockShards(productId, distribute(totalStock, shardList));
+            if (unallocated != 0) {
+                productDao.updateStock(productId, 0);
+            }
+            log.info("商品 {} 拆分庫存為 {} 個分片，總庫存 {}", productId, shardCount, totalStock);
+        });
+        return getStatus(productId);
+    }
+
+    // 關閉庫存分片：鎖定商品資料列與所有分片，把分片的庫存合併回 product.stock
+    public StockShardStatus disable(Integer productId) {
+        checkEnabled();
+        transactionTemplate.executeWithoutResult(status -> {
+            Integer unallocated = productDao.getUnallocatedStockForUpdate(productId);
+            if (unallocated == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "商品不存在");
+            }
+            Map<Integer, Integer> stockByShard = productDao.getStockShardsForUpdate(productId);
+            if (stockByShard.isEmpty()) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "商品沒有拆分庫存");
+            }
+            productDao.deleteStockShards(productId);
+            productDao.updateStock(productId, unallocated + sum(stockByShard));
+            log.info("商品 {} 關閉庫存分片", productId);
+        });
+        return getStatus(productId);
+    }
+
+    public StockShardStatus getStatus(Integer productId) {
+        checkEnabled();
+        return transactionTemplate.execute(status -> {
+            Product product = productDao.getProductById(productId);
+            if (product == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "商品不存在");
+            }
+            StockShardStatus stockShardStatus = new StockShardStatus();
+            stockShardStatus.setProductId(productId);
+            stockShardStatus.setTotalStock(product.getStock());
+            Map<Integer, Integer> stockByShard = productDao.getStockShards(List.of(productId)).get(productId);
+            if (stockByShard != null) {
+                stockShardStatus.setShards(stockByShard);
+                stockShardStatus.setUnallocatedStock(product.getStock() - sum(stockByShard));
+            } else {
+                stockShardStatus.setUnallocatedStock(product.getStock());
+            }
+            return stockShardStatus;
+        });
+    }
+
+    // 在目前交易中清空商品各分片的庫存（後台修改後的庫存即為總庫存），由重新平衡把 product.stock 分配回分片
+    public void resetShards(Integer productId) {
+        if (enabled) {
+            productDao.resetStockShards(productId);
+        }
+    }
+
+    // 在目前交易中刪除商品的所有分片
+    public void deleteShards(Integer productId) {
+        if (enabled) {
+            productDao.deleteStockShards(productId);
+        }
+    }
+
+    // 定期重新平衡：有尚未分配的庫存（例如後台修改了庫存），或有分片的庫存低於平均的一半時，重新平均分配
+    @Scheduled(fixedDelayString = "${mall.stock-shard.rebalance-interval-ms:5000}")
+    public void rebalance() {
+        if (!enabled) {
+            return;
+        }
+        List<Integer> productIdList = productDao.getStockShardedProductIds();
+        if (productIdList.isEmpty()) {
+            return;
+        }
+        Map<Integer, Map<Integer, Integer>> stockShardMap = productDao.getStockShards(productIdList);
+        for (Product product : productDao.getProductsByIds(productIdList)) {
+            Map<Integer, Integer> stockByShard = stockShardMap.get(product.getProductId());
+            if (stockByShard == null) {
+                continue;
+            }
+            // 先以未鎖定的讀取挑出需要重新平衡的商品，已平衡的商品不鎖定任何資料列
+            int unallocated = product.getStock() - sum(stockByShard);
+            if (unallocated != 0 || !isBalanced(stockByShard)) {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> rebalance(product.getProductId()));
+                } catch (RuntimeException e) {
+                    log.warn("商品 {} 重新平衡庫存分片失敗：{}", product.getProductId(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void rebalance(Integer productId) {
+        Integer unallocated = productDao.getUnallocatedStockForUpdate(productId);
+        Map<Integer, Integer> stockByShard = productDao.getStockShardsForUpdate(productId);
+        if (unallocated == null || stockByShard.isEmpty()) {
+            return;
+        }
+        if (unallocated == 0 && isBalanced(stockByShard)) {
+            return;
+        }
+        int totalStock = unallocated + sum(stockByShard);
+        productDao.updateStockShards(productId, distribute(totalStock, new ArrayList<>(stockByShard.keySet())));
+        if (unallocated != 0) {
+            productDao.updateStock(productId, 0);
+        }
+        log.debug("商品 {} 重新平衡庫存分片，總庫存 {}", productId, totalStock);
+    }
+
+    // 沒有單一分片足夠時：依商品資料列、分片由小到大的順序鎖定，先從 product.stock 再依序從各分片扣除
+    private void decreaseAcrossShards(Integer productId, Integer quantity) {
+        Integer unallocated = productDao.getUnallocatedStockForUpdate(productId);
+        if (unallocated == null) {
+            log.info("商品 {} 不存在", productId);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "商品不存在");
+        }
+        Map<Integer, Integer> stockByShard = productDao.getStockShardsForUpdate(productId);
+        int totalStock = unallocated + sum(stockByShard);
+        if (totalStock < quantity) {
+            log.info("商品 {} 庫存不足，無法購買，剩餘庫存：{}，欲購買數量：{}", productId, totalStock, quantity);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "庫存不足");
+        }
+
+        int remaining = quantity;
+        int fromUnallocated = Math.min(unallocated, remaining);
+        if (fromUnallocated > 0) {
+            productDao.updateStock(productId, unallocated - fromUnallocated);
+            remaining -= fromUnallocated;
+        }
+        Map<Integer, Integer> updatedStockByShard = new TreeMap<>();
+        for (Map.Entry<Integer, Integer> entry : stockByShard.entrySet()) {
+            if (remaining == 0) {
+                break;
+            }
+            int fromShard = Math.min(entry.getValue(), remaining);
+            if (fromShard > 0) {
+                updatedStockByShard.put(entry.getKey(), entry.getValue() - fromShard);
+                remaining -= fromShard;
+            }
+        }
+        if (!updatedStockByShard.isEmpty()) {
+            productDao.updateStockShards(productId, updatedStockByShard);
+        }
+    }
+
+    private void checkEnabled() {
+        if (!enabled) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "庫存分片未啟用");
+        }
+    }
+
+    // 庫存最少的分片不低於平均的一半
+    private boolean isBalanced(Map<Integer, Integer> stockByShard) {
+        int average = sum(stockByShard) / stockByShard.size();
+        for (Integer stock : stockByShard.values()) {
+            if (stock < average / 2) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 平均分配到各分片，餘數由前面的分片各多分一個
+    private Map<Integer, Integer> distribute(int totalStock, List<Integer> shardList) {
+        Map<Integer, Integer> stockByShard = new TreeMap<>();
+        for (int i = 0; i < shardList.size(); i++) {
+            stockByShard.put(shardList.get(i), totalStock / shardList.size() + (i < totalStock % shardList.size() ? 1 : 0));
+        }
+        return stockByShard;
+    }
+
+    private int sum(Map<Integer, Integer> stockByShard) {
+        int sum = 0;
+        for (Integer stock : stockByShard.values()) {
+            sum += stock;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,66 @@
+package com.jensen.springbootmall.model;
+
+import com.jensen.springbootmall.constant.InventoryMovementReason;
+
+import java.util.Date;
+
+// 庫存異動帳（inventory_movement）的一筆紀錄，只新增不修改，壓縮時併入 InventorySnapshot 後刪除
+public class InventoryMovement {
+
+    private Integer movementId;
+    private Integer productId;
+    // 增減數量（扣庫存為負數）；reason 為 absolute 時為異動後的庫存
+    private Integer quantity;
+    private InventoryMovementReason reason;
+    // 下單扣庫存時對應的訂單
+    private Integer orderId;
+    private Date createdDate;
+
+    public Integer getMovementId() {
+        return movementId;
+    }
+
+    public void setMovementId(Integer movementId) {
+        this.movementId = movementId;
+    }
+
+    public Integer getProductId() {
+        return productId;
+    }
+
+    public void setProductId(Integer productId) {
+        this.productId = productId;
+    }
+
+    public Integer getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(Integer quantity) {
+        this.quantity = quantity;
+    }
+
+    public InventoryMovementReason getReason() {
+        return reason;
+    }
+
+    public void setReason(InventoryMovementReason reason) {
+        this.reason = reason;
+    }
+
+    public Integer getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(Integer orderId) {
+        this.orderId = orderId;
+    }
+
+    public Date getCreatedDate() {
+        return createdDate;
+    }
+
+    public void setCreatedDate(Date createdDate) {
+        this.createdDate = createdDate;
+    }
+}
@@ -0,0 +1,44 @@
+package com.jensen.springbootmall.model;
+
+import java.util.Date;
+
+// 商品庫存在 lastMovementId 這筆異動之後的快照，由壓縮把已刪除的異動併入
+public class InventorySnapshot {
+
+    private Integer productId;
+    private Integer stock;
+    private Integer lastMovementId;
+    private Date lastModifiedDate;
+
+    public Integer getProductId() {
+        return productId;
+    }
+
+    public void setProductId(Integer productId) {
+        this.productId = productId;
+    }
+
+    public Integer getStock() {
+        return stock;
+    }
+
+    public void setStock(Integer stock) {
+        this.stock = stock;
+    }
+
+    public Integer getLastMovementId() {
+        return lastMovementId;
+    }
+
+    public void setLastMovementId(Integer lastMovementId) {
+        this.lastMovementId = lastMovementId;
+    }
+
+    public Date getLastModifiedDate() {
+        return lastModifiedDate;
+    }
+
+    public void setLastModifiedDate(Date lastModifiedDate) {
+        this.lastModifiedDate = lastModifiedDate;
+    }
+}
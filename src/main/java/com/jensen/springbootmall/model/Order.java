@@ -1,5 +1,7 @@
 package com.jensen.springbootmall.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.Date;
 import java.util.List;
 
@@ -11,10 +13,21 @@ public class Order {
     private Date createdDate;
     private Date lastModifiedDate;
 
+    // 訂單項目數量，與訂單資料在同一個查詢中計算
+    private Integer itemCount;
 
-
+    // 訂單列表未指定 expand=items 時不載入訂單項目，也不輸出此欄位
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private List<OrderItem> orderItemList;
 
+    public Integer getItemCount() {
+        return itemCount;
+    }
+
+    public void setItemCount(Integer itemCount) {
+        this.itemCount = itemCount;
+    }
+
     public List<OrderItem> getOrderItemList() {
         return orderItemList;
     }
@@ -0,0 +1,54 @@
+package com.jensen.springbootmall.model;
+
+import java.util.Date;
+
+// 創建訂單時帶入的 Idempotency-Key，記錄對應的請求內容與建立出的訂單
+public class OrderIdempotencyKey {
+
+    private Integer userId;
+    private String idempotencyKey;
+    // 購買清單的雜湊值，用來判斷同一個 key 是否被用在不同的請求
+    private String requestHash;
+    private Integer orderId;
+    private Date createdDate;
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Integer userId) {
+        this.userId = userId;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    public String getRequestHash() {
+        return requestHash;
+    }
+
+    public void setRequestHash(String requestHash) {
+        this.requestHash = requestHash;
+    }
+
+    public Integer getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(Integer orderId) {
+        this.orderId = orderId;
+    }
+
+    public Date getCreatedDate() {
+        return createdDate;
+    }
+
+    public void setCreatedDate(Date createdDate) {
+        this.createdDate = createdDate;
+    }
+}
@@ -1,9 +1,13 @@
 package com.jensen.springbootmall.model;
 
+import com.fasterxml.jackson.annotation.JsonFilter;
 import com.jensen.springbootmall.constant.ProductCategory;
+import com.jensen.springbootmall.util.ProductFields;
 
 import java.util.Date;
 
+// 可依 fields 參數只輸出部分欄位（見 ProductFields）
+@JsonFilter(ProductFields.FILTER_ID)
 public class Product {
 
     private Integer productId;
@@ -0,0 +1,381 @@
+package com.jensen.springbootmall.queue;
+
+import com.jensen.springbootmall.constant.InventoryMovementReason;
+import com.jensen.springbootmall.dao.OrderDao;
+import com.jensen.springbootmall.dao.ProductDao;
+import com.jensen.springbootmall.dao.UserDao;
+import com.jensen.springbootmall.dto.BuyItem;
+import com.jensen.springbootmall.dto.CreateOrderRequest;
+import com.jensen.springbootmall.event.OrderChangedEvent;
+import com.jensen.springbootmall.inventory.HotInventory;
+import com.jensen.springbootmall.inventory.InventoryLedger;
+import com.jensen.springbootmall.model.InventoryMovement;
+import com.jensen.springbootmall.model.Order;
+import com.jensen.springbootmall.model.OrderItem;
+import com.jensen.springbootmall.model.Product;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+// 訂單群組提交：收集短時間內（window-ms 或 max-batch 筆）同時送達的訂單，
+// 在同一個交易中一次鎖定商品、檢查庫存、批次扣庫存並批次寫入訂單與訂單項目，整批只 commit（fsync）一次
+// 庫存不足等檢查失敗的訂單個別拒絕，不影響同批的其他訂單；整批交易失敗時各訂單改為個別建立
+@Component
+public class OrderGroupCommitter implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderGroupCommitter.class);
+
+    @Autowired
+    private OrderDao orderDao;
+
+    @Autowired
+    private ProductDao productDao;
+
+    @Autowired
+    private UserDao userDao;
+
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private HotInventory hotInventory;
+
+    @Autowired
+    private InventoryLedger inventoryLedger;
+
+    // 收集訂單的時間窗（毫秒），從一批的第一筆訂單開始計算
+    @Value("${mall.order-group-commit.window-ms:2}")
+    private long windowMs;
+
+    // 一批最多的訂單數，收滿時不等時間窗結束
+    @Value("${mall.order-group-commit.max-batch:50}")
+    private int maxBatchSize;
+
+    // 等待群組提交結果的最長時間（毫秒）
+    @Value("${mall.order-group-commit.wait-timeout-ms:30000}")
+    private long waitTimeoutMs;
+
+    private final BlockingQueue<PendingOrder> queue = new LinkedBlockingQueue<>();
+
+    private Thread dispatcher;
+    private volatile boolean running = false;
+
+    // 加入下一批群組提交並等待建立的訂單（含訂單項目）；整批交易失敗時改用 individually 個別建立
+    public Order createOrder(Integer userId, CreateOrderRequest createOrderRequest, Supplier<Order> individually) {
+        if (!running) {
+            return individually.get();
+        }
+        PendingOrder pendingOrder = new PendingOrder(userId, createOrderRequest);
+        queue.add(pendingOrder);
+        // 剛好在停止時加入、沒有被處理到的訂單改為個別建立
+        if (!running && queue.remove(pendingOrder)) {
+            return individually.get();
+        }
+        try {
+            return await(pendingOrder);
+        } catch (GroupCommitFailedException e) {
+            return individually.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GroupCommitFailedException) {
+                return individually.get();
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // 等待群組提交的結果，最多等待 wait-timeout-ms
+    // 被中斷時若訂單尚未被取出就移出佇列並回應中斷；已被取出時改為不可中斷地等待結果，避免訂單已建立卻回應失敗
+    private Order await(PendingOrder pendingOrder) throws ExecutionException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitTimeoutMs);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return pendingOrder.future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    if (queue.remove(pendingOrder)) {
+                        throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "創建訂單被中斷");
+                    }
+                } catch (TimeoutException e) {
+                    // 尚未被取出的訂單沒有寫入任何資料，可以安全地改為個別建立
+                    if (queue.remove(pendingOrder)) {
+                        throw new GroupCommitFailedException();
+                    }
+                    throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "訂單處理逾時，請稍後查詢訂單確認結果");
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        dispatcher = new Thread(this::dispatch, "mall-order-group-commit");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    // 停止時尚未處理的訂單改為個別建立
+    @Override
+    public void stop() {
+        running = false;
+        dispatcher.interrupt();
+        try {
+            dispatcher.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        PendingOrder pendingOrder;
+        while ((pendingOrder = queue.poll()) != null) {
+            pendingOrder.future.completeExceptionally(new GroupCommitFailedException());
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void dispatch() {
+        List<PendingOrder> batch = new ArrayList<>(maxBatchSize);
+        try {
+            dispatchBatches(batch);
+        } finally {
+            // 非預期結束（例如 Error）時停止收集，已收集與尚在佇列中的訂單改為個別建立，避免呼叫端一直等待
+            if (running) {
+                running = false;
+                log.error("訂單群組提交執行緒異常結束，之後的訂單改為個別建立");
+                for (PendingOrder pendingOrder : batch) {
+                    pendingOrder.future.completeExceptionally(new GroupCommitFailedException());
+                }
+                PendingOrder pendingOrder;
+                while ((pendingOrder = queue.poll()) != null) {
+                    pendingOrder.future.completeExceptionally(new GroupCommitFailedException());
+                }
+            }
+        }
+    }
+
+    private void dispatchBatches(List<PendingOrder> batch) {
+        while (running) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMs);
+                while (batch.size() < maxBatchSize) {
+                    PendingOrder next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // 已收集的訂單仍然提交，之後結束
+                Thread.currentThread().interrupt();
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+        }
+    }
+
+    private void commit(List<PendingOrder> batch) {
+        Map<PendingOrder, RuntimeException> rejected = new HashMap<>();
+        Map<PendingOrder, Order> created;
+        try {
+            created = transactionTemplate.execute(status -> createOrders(batch, rejected));
+        } catch (RuntimeException e) {
+            // 整批交易失敗（例如鎖等待逾時），各訂單改為個別建立，以個別的重試與錯誤處理為準
+            log.warn("訂單群組提交失敗，{} 筆訂單改為個別建立：{}", batch.size(), e.getMessage());
+            for (PendingOrder pendingOrder : batch) {
+                pendingOrder.future.completeExceptionally(new GroupCommitFailedException());
+            }
+            return;
+        }
+
+        // 交易提交後才通知各呼叫端
+        created.forEach((pendingOrder, order) -> pendingOrder.future.complete(order));
+        rejected.forEach((pendingOrder, exception) -> pendingOrder.future.completeExceptionally(exception));
+    }
+
+    // 在同一個交易中建立整批訂單，檢查失敗的訂單放入 rejected
+    private Map<PendingOrder, Order> createOrders(List<PendingOrder> batch, Map<PendingOrder, RuntimeException> rejected) {
+        rejected.clear();
+
+        // 合併每筆訂單中同一商品的購買數量，並收集整批的商品ID
+        Map<PendingOrder, Map<Integer, Integer>> quantityMap = new HashMap<>();
+        Map<Integer, Boolean> userExists = new HashMap<>();
+        List<Integer> productIdList = new ArrayList<>();
+        for (PendingOrder pendingOrder : batch) {
+            Map<Integer, Integer> quantityByProductId = new TreeMap<>();
+            for (BuyItem buyItem : pendingOrder.createOrderRequest.getBuyItemList()) {
+                quantityByProductId.merge(buyItem.getProductId(), buyItem.getQuantity(), Integer::sum);
+            }
+            quantityMap.put(pendingOrder, quantityByProductId);
+            productIdList.addAll(quantityByProductId.keySet());
+            userExists.computeIfAbsent(pendingOrder.userId, userId -> userDao.getUserById(userId) != null);
+        }
+
+        // 以一次 SELECT ... ORDER BY product_id FOR UPDATE 鎖定整批訂單的所有商品
+        Map<Integer, Product> productMap = new HashMap<>();
+        Map<Integer, Integer> remainingStock = new HashMap<>();
+        for (Product product : productDao.getProductsByIdsForUpdate(productIdList)) {
+            productMap.put(product.getProductId(), product);
+            remainingStock.put(product.getProductId(), product.getStock());
+        }
+
+        // 等待期間有商品開啟了熱門商品模式時整批改為個別建立，由個別建立扣除記憶體計數器
+        if (hotInventory.containsHot(productMap.keySet())) {
+            throw new CannotAcquireLockException("商品已開啟熱門商品模式");
+        }
+
+        // 依送達順序檢查每筆訂單，庫存以同批前面訂單扣除後的剩餘量計算
+        List<PendingOrder> acceptedList = new ArrayList<>();
+        List<Order> orderList = new ArrayList<>();
+        List<List<OrderItem>> orderItemLists = new ArrayList<>();
+        Map<Integer, Integer> decreaseMap = new HashMap<>();
+        for (PendingOrder pendingOrder : batch) {
+            if (!userExists.get(pendingOrder.userId)) {
+                rejected.put(pendingOrder, new ResponseStatusException(HttpStatus.BAD_REQUEST, "用戶不存在"));
+                continue;
+            }
+            Map<Integer, Integer> quantityByProductId = quantityMap.get(pendingOrder);
+            RuntimeException rejection = check(quantityByProductId, productMap, remainingStock);
+            if (rejection != null) {
+                rejected.put(pendingOrder, rejection);
+                continue;
+            }
+
+            int totalAmount = 0;
+            List<OrderItem> orderItemList = new ArrayList<>();
+            for (Map.Entry<Integer, Integer> entry : quantityByProductId.entrySet()) {
+                Integer productId = entry.getKey();
+                Integer quantity = entry.getValue();
+                remainingStock.merge(productId, -quantity, Integer::sum);
+                decreaseMap.merge(productId, quantity, Integer::sum);
+
+                Product product = productMap.get(productId);
+                int amount = quantity * product.getPrice();
+                totalAmount += amount;
+
+                OrderItem orderItem = new OrderItem();
+                orderItem.setProductId(productId);
+                orderItem.setQuantity(quantity);
+                orderItem.setAmount(amount);
+                orderItem.setProductName(product.getProductName());
+                orderItem.setImageUrl(product.getImageUrl());
+                orderItemList.add(orderItem);
+            }
+
+            Order order = new Order();
+            order.setUserId(pendingOrder.userId);
+            order.setTotalAmount(totalAmount);
+            order.setItemCount(orderItemList.size());
+            order.setOrderItemList(orderItemList);
+            acceptedList.add(pendingOrder);
+            orderList.add(order);
+            orderItemLists.add(orderItemList);
+        }
+
+        Map<PendingOrder, Order> created = new HashMap<>();
+        if (acceptedList.isEmpty()) {
+            return created;
+        }
+
+        // 整批的扣庫存、訂單、訂單項目各以一次批次寫入
+        Map<Integer, Boolean> decreased = productDao.decreaseStocks(decreaseMap);
+        if (decreased.containsValue(false)) {
+            throw new IllegalStateException("已鎖定的商品扣庫存失敗：" + decreased);
+        }
+
+        List<Integer> orderIdList = orderDao.createOrders(orderList);
+        List<OrderItem> allOrderItemList = new ArrayList<>();
+        List<InventoryMovement> movementList = new ArrayList<>();
+        for (int i = 0; i < acceptedList.size(); i++) {
+            Integer orderId = orderIdList.get(i);
+            movementList.addAll(InventoryLedger.decreases(InventoryMovementReason.ORDER, orderId,
+                    quantityMap.get(acceptedList.get(i))));
+            for (OrderItem orderItem : orderItemLists.get(i)) {
+                orderItem.setOrderId(orderId);
+                allOrderItemList.add(orderItem);
+            }
+            created.put(acceptedList.get(i), orderList.get(i));
+            applicationEventPublisher.publishEvent(new OrderChangedEvent(acceptedList.get(i).userId, orderId));
+        }
+        orderDao.createOrderItems(allOrderItemList);
+        inventoryLedger.record(movementList);
+
+        return created;
+    }
+
+    // 檢查商品是否存在、庫存是否足夠，通過時返回 null
+    private RuntimeException check(Map<Integer, Integer> quantityByProductId, Map<Integer, Product> productMap,
+                                   Map<Integer, Integer> remainingStock) {
+        for (Map.Entry<Integer, Integer> entry : quantityByProductId.entrySet()) {
+            Product product = productMap.get(entry.getKey());
+            if (product == null) {
+                log.info("商品 {} 不存在", entry.getKey());
+                return new ResponseStatusException(HttpStatus.BAD_REQUEST, "商品不存在");
+            }
+            if (remainingStock.get(entry.getKey()) < entry.getValue()) {
+                log.info("商品 {} 庫存不足，無法購買，剩餘庫存：{}，欲購買數量：{}",
+                        product.getProductName(), remainingStock.get(entry.getKey()), entry.getValue());
+                return new ResponseStatusException(HttpStatus.BAD_REQUEST, "庫存不足");
+            }
+        }
+        return null;
+    }
+
+    private static class PendingOrder {
+        private final Integer userId;
+        private final CreateOrderRequest createOrderRequest;
+        private final CompletableFuture<Order> future = new CompletableFuture<>();
+
+        private PendingOrder(Integer userId, CreateOrderRequest createOrderRequest) {
+            this.userId = userId;
+            this.createOrderRequest = createOrderRequest;
+        }
+    }
+
+    // 整批交易失敗，呼叫端應改為個別建立
+    private static class GroupCommitFailedException extends RuntimeException {
+        private GroupCommitFailedException() {
+            super(null, null, false, false);
+        }
+    }
+}
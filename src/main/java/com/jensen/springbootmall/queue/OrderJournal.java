@@ -0,0 +1,29 @@
+package com.jensen.springbootmall.queue;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jensen.springbootmall.dto.BuyItem;
+import com.jensen.springbootmall.util.NdjsonJournal;
+
+import java.nio.file.Path;
+import java.util.List;
+
+// 下單佇列的本機 append-only 日誌
+// 排入佇列前先寫入 ENQUEUED 並 fsync，處理完成後寫入 CREATED / FAILED，重啟時據此找回尚未處理的請求
+public class OrderJournal extends NdjsonJournal<OrderJournal.Record> {
+
+    public static final String ENQUEUED = "ENQUEUED";
+    public static final String CREATED = "CREATED";
+    public static final String FAILED = "FAILED";
+
+    // 日誌中的一筆紀錄；ENQUEUED 帶有購買清單與用戶帶入的 Idempotency-Key（可為 null），
+    // CREATED 帶有 orderId，FAILED 帶有失敗原因
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Record(String type, String requestId, Integer userId, List<BuyItem> buyItemList,
+                         String idempotencyKey, Integer orderId, String message) {
+    }
+
+    public OrderJournal(Path path, ObjectMapper objectMapper) {
+        super(path, objectMapper, Record.class);
+    }
+}
@@ -0,0 +1,308 @@
+package com.jensen.springbootmall.queue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jensen.springbootmall.dao.ProductDao;
+import com.jensen.springbootmall.dao.UserDao;
+import com.jensen.springbootmall.dto.BuyItem;
+import com.jensen.springbootmall.dto.CreateOrderRequest;
+import com.jensen.springbootmall.dto.OrderRequestStatus;
+import com.jensen.springbootmall.dto.OrderRequestStatus.Status;
+import com.jensen.springbootmall.model.Product;
+import com.jensen.springbootmall.service.OrderService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 非同步下單佇列：請求驗證後排入有上限的佇列並立即回應 202，由固定數量的工作執行緒以小批次呼叫 createOrder
+// 排入前先寫入本機日誌，重啟時找回尚未處理的請求重新排入
+// 當機時若訂單已建立但結果尚未寫入日誌，重啟後會再處理一次；建立訂單時以用戶帶入的 Idempotency-Key
+// （沒有時以 requestId）去重，key 與訂單在同一個交易中寫入，再處理時返回先前建立的訂單，不會重複建立訂單或重複扣庫存
+@Component
+public class OrderQueue implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderQueue.class);
+
+    // 佇列清空時，日誌超過此大小才清空
+    private static final long JOURNAL_TRUNCATE_THRESHOLD_BYTES = 1024 * 1024;
+
+    // 以 requestId 產生的 Idempotency-Key 前綴，與用戶自訂的 key 區隔
+    private static final String IDEMPOTENCY_KEY_PREFIX = "order-queue:";
+
+    // 工作執行緒等待新請求的最長時間（毫秒），停止時不必中斷就能結束
+    private static final long POLL_INTERVAL_MS = 200;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private UserDao userDao;
+
+    @Autowired
+    private ProductDao productDao;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // 佇列中（含處理中）最多的請求數，超過時回應 429
+    @Value("${mall.order-queue.capacity:1000}")
+    private int capacity;
+
+    // 工作執行緒數量
+    @Value("${mall.order-queue.workers:4}")
+    private int workerCount;
+
+    // 每個工作執行緒一次取出處理的請求數，一批的處理結果只寫入（fsync）日誌一次
+    @Value("${mall.order-queue.batch-size:10}")
+    private int batchSize;
+
+    // 保留在記憶體中供查詢的處理狀態數量，超過時淘汰最舊的
+    @Value("${mall.order-queue.status-max-size:10000}")
+    private int statusMaxSize;
+
+    @Value("${mall.order-queue.journal-path:${java.io.tmpdir}/springboot-mall/order-queue.journal}")
+    private String journalPath;
+
+    private final BlockingQueue<OrderJournal.Record> queue = new LinkedBlockingQueue<>();
+
+    // 已排入但尚未處理完成的請求數（含重啟時找回的），用來做容量控制
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    // requestId -> 處理狀態，依加入順序淘汰最舊的
+    private Map<String, OrderRequestStatus> statusMap;
+
+    private OrderJournal journal;
+    private ExecutorService workers;
+    private volatile boolean running = false;
+
+    // 驗證請求並排入佇列；佇列已滿時拋出 429
+    // 帶有 Idempotency-Key 的請求重送時仍會排入，處理時返回先前以同一個 key 建立的訂單
+    public OrderRequestStatus submit(Integer userId, CreateOrderRequest createOrderRequest, String idempotencyKey) {
+        if (!running) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "下單佇列尚未啟動");
+        }
+
+        // 檢查用戶與商品是否存在，明顯錯誤的請求不必排隊；庫存不足等問題在處理時才會得知
+        if (userDao.getUserById(userId) == null) {
+            log.info("userId {} 不存在", userId);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "用戶不存在");
+        }
+        Set<Integer> productIds = new HashSet<>();
+        for (BuyItem buyItem : createOrderRequest.getBuyItemList()) {
+            productIds.add(buyItem.getProductId());
+        }
+        List<Product> productList = productDao.getProductsByIds(new ArrayList<>(productIds));
+        if (productList.size() != productIds.size()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "商品不存在");
+        }
+
+        // 先佔用容量再寫入日誌，佔用失敗時不留下日誌紀錄
+        if (pendingCount.incrementAndGet() > capacity) {
+            pendingCount.decrementAndGet();
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "下單佇列已滿，請稍後再試");
+        }
+
+        String requestId = UUID.randomUUID().toString();
+        OrderJournal.Record record = new OrderJournal.Record(OrderJournal.ENQUEUED, requestId, userId,
+                createOrderRequest.getBuyItemList(), idempotencyKey, null, null);
+        OrderRequestStatus status = new OrderRequestStatus(requestId, userId, Status.QUEUED);
+        try {
+            journal.append(List.of(record));
+        } catch (UncheckedIOException e) {
+            pendingCount.decrementAndGet();
+            log.error("寫入下單日誌失敗", e);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "暫時無法受理訂單");
+        }
+        statusMap.put(requestId, status);
+        queue.add(record);
+        return status;
+    }
+
+    // 查詢處理狀態，查無資料時返回 null
+    public OrderRequestStatus getStatus(String requestId) {
+        return statusMap.get(requestId);
+    }
+
+    @Override
+    public void start() {
+        statusMap = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, OrderRequestStatus> eldest) {
+                return size() > statusMaxSize;
+            }
+        });
+
+        // 重播日誌：找出沒有處理結果的 ENQUEUED，重新排入佇列，並以只含這些紀錄的新檔案取代日誌
+        journal = new OrderJournal(Path.of(journalPath), objectMapper);
+        List<OrderJournal.Record> pendingRecordList;
+        try {
+            pendingRecordList = recover(journal.replay());
+            journal.open(pendingRecordList);
+        } catch (IOException e) {
+            throw new UncheckedIOException("無法開啟下單日誌 " + journalPath, e);
+        }
+        pendingCount.addAndGet(pendingRecordList.size());
+        queue.addAll(pendingRecordList);
+        if (!pendingRecordList.isEmpty()) {
+            log.info("從下單日誌找回 {} 筆尚未處理的請求", pendingRecordList.size());
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "mall-order-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        for (int i = 0; i < workerCount; i++) {
+            workers.execute(this::work);
+        }
+    }
+
+    // 停止時不再取出新的請求，等待處理中的批次完成；仍在佇列中的請求已寫入日誌，下次啟動時會重新處理
+    // 逾時才中斷工作執行緒，被中斷的請求不寫入結果，同樣留待下次啟動時處理
+    @Override
+    public void stop() {
+        running = false;
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("下單工作執行緒未在時限內結束，中斷處理中的請求");
+                workers.shutdownNow();
+                workers.awaitTermination(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.warn("關閉下單日誌失敗", e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private List<OrderJournal.Record> recover(List<OrderJournal.Record> recordList) {
+        Map<String, OrderJournal.Record> pendingMap = new LinkedHashMap<>();
+        for (OrderJournal.Record record : recordList) {
+            OrderRequestStatus status = statusMap.computeIfAbsent(record.requestId(),
+                    requestId -> new OrderRequestStatus(requestId, record.userId(), Status.QUEUED));
+            switch (record.type()) {
+                case OrderJournal.ENQUEUED -> pendingMap.put(record.requestId(), record);
+                case OrderJournal.CREATED -> {
+                    pendingMap.remove(record.requestId());
+                    status.setStatus(Status.CREATED);
+                    status.setOrderId(record.orderId());
+                }
+                case OrderJournal.FAILED -> {
+                    pendingMap.remove(record.requestId());
+                    status.setStatus(Status.FAILED);
+                    status.setMessage(record.message());
+                }
+                default -> log.warn("略過未知類型的下單日誌紀錄：{}", record.type());
+            }
+        }
+        return new ArrayList<>(pendingMap.values());
+    }
+
+    private void work() {
+        List<OrderJournal.Record> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                OrderJournal.Record first = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, batchSize - 1);
+
+            // 被中斷（停止逾時）後不再處理，也不寫入結果，這些請求在日誌中仍是 ENQUEUED
+            List<OrderJournal.Record> resultList = new ArrayList<>(batch.size());
+            for (OrderJournal.Record record : batch) {
+                OrderJournal.Record result = Thread.currentThread().isInterrupted() ? null : process(record);
+                if (result != null) {
+                    resultList.add(result);
+                } else {
+                    OrderRequestStatus status = statusMap.get(record.requestId());
+                    if (status != null) {
+                        status.setStatus(Status.QUEUED);
+                    }
+                }
+            }
+
+            // 一批的結果一次寫入日誌，寫入後才更新狀態，確保查到 CREATED 的請求重啟後不會再處理一次
+            try {
+                journal.append(resultList);
+            } catch (UncheckedIOException e) {
+                log.error("寫入下單結果至日誌失敗，重啟後這批請求會再處理一次", e);
+            }
+            for (OrderJournal.Record result : resultList) {
+                OrderRequestStatus status = statusMap.get(result.requestId());
+                if (status != null) {
+                    status.setOrderId(result.orderId());
+                    status.setMessage(result.message());
+                    status.setStatus(OrderJournal.CREATED.equals(result.type()) ? Status.CREATED : Status.FAILED);
+                }
+            }
+            pendingCount.addAndGet(-batch.size());
+            journal.truncateIfIdle(() -> pendingCount.get() == 0, JOURNAL_TRUNCATE_THRESHOLD_BYTES);
+            batch.clear();
+        }
+    }
+
+    // 以既有的 createOrder 建立訂單（含鎖定重試），失敗時記錄原因；處理中被中斷時返回 null
+    private OrderJournal.Record process(OrderJournal.Record record) {
+        OrderRequestStatus status = statusMap.get(record.requestId());
+        if (status != null) {
+            status.setStatus(Status.PROCESSING);
+        }
+
+        CreateOrderRequest createOrderRequest = new CreateOrderRequest();
+        createOrderRequest.setBuyItemList(record.buyItemList());
+        try {
+            String idempotencyKey = record.idempotencyKey() != null ? record.idempotencyKey()
+                    : IDEMPOTENCY_KEY_PREFIX + record.requestId();
+            Integer orderId = orderService.createOrder(record.userId(), createOrderRequest, idempotencyKey).getOrderId();
+            return new OrderJournal.Record(OrderJournal.CREATED, record.requestId(), record.userId(), null, null, orderId, null);
+        } catch (ResponseStatusException e) {
+            // 重試退避或等待結果時被中斷：不是請求本身的錯誤，不記錄為失敗
+            if (Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+            return new OrderJournal.Record(OrderJournal.FAILED, record.requestId(), record.userId(), null, null, null, e.getReason());
+        } catch (RuntimeException e) {
+            log.error("處理下單請求 {} 失敗", record.requestId(), e);
+            return new OrderJournal.Record(OrderJournal.FAILED, record.requestId(), record.userId(), null, null, null, "建立訂單失敗");
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.jensen.springbootmall.search;
+
+import com.jensen.springbootmall.constant.ProductCategory;
+import com.jensen.springbootmall.dao.ProductDao;
+import com.jensen.springbootmall.dto.ProductFacetResult;
+import com.jensen.springbootmall.dto.ProductQueryParams;
+import com.jensen.springbootmall.event.ProductChangedEvent;
+import com.jensen.springbootmall.model.Product;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// 各分類、各價格區間商品數的記憶體統計，讓 GET /products/facets 不必每次掃描整張表
+// 啟動時從資料庫建立，之後依 ProductChangedEvent 增量更新（只調整異動商品原本與現在所屬的計數）
+@Component
+public class ProductFacetCounter implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductFacetCounter.class);
+
+    // 直接使用底層 DAO，確保讀到的是資料庫中的最新資料而非快取
+    @Autowired
+    @Qualifier("productDaoImpl")
+    private ProductDao productDao;
+
+    // 價格區間的分界點，例如 100,500 代表 [0,100)、[100,500)、[500,∞) 三個區間
+    private final int[] priceBounds;
+
+    private final int[] categoryCounts = new int[ProductCategory.values().length];
+
+    private final int[] priceBucketCounts;
+
+    // productId -> 該商品目前被計入的分類與價格區間，異動時用來扣掉舊的計數
+    private final Map<Integer, Facet> facets = new HashMap<>();
+
+    private volatile boolean ready = false;
+
+    public ProductFacetCounter(@Value("${mall.product-facets.price-bounds:100,500,1000,5000}") int[] priceBounds) {
+        this.priceBounds = priceBounds.clone();
+        Arrays.sort(this.priceBounds);
+        this.priceBucketCounts = new int[this.priceBounds.length + 1];
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        try {
+            productDao.streamProducts(new ProductQueryParams(), this::put);
+            ready = true;
+        } catch (DataAccessException e) {
+            // 建立失敗時仍可啟動，統計改為每次請求時即時計算
+            log.warn("商品篩選統計建立失敗，將改為每次請求時即時計算", e);
+        }
+    }
+
+    // 商品寫入的交易結束後（或非交易寫入後），重新讀取異動的商品並調整計數
+    // 交易 rollback 時讀回的是原本的資料，計數自然不變
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMPLETION, fallbackExecution = true)
+    public void onProductChanged(ProductChangedEvent event) {
+        // 只有庫存變動時，分類與價格都不變
+        if (event.getChangeType() == ProductChangedEvent.ChangeType.STOCK_CHANGED) {
+            return;
+        }
+        Set<Integer> removedIds = new HashSet<>(event.getProductIds());
+        for (Product product : productDao.getProductsByIds(event.getProductIds())) {
+            put(product);
+            removedIds.remove(product.getProductId());
+        }
+        removedIds.forEach(this::remove);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // 目前所有商品的統計
+    public synchronized ProductFacetResult snapshot() {
+        return toResult(categoryCounts.clone(), priceBucketCounts.clone());
+    }
+
+    // 只統計 source 逐筆提供的商品（例如搜尋結果），不保留商品本身
+    public ProductFacetResult count(Consumer<Consumer<Product>> source) {
+        int[] categoryCounts = new int[ProductCategory.values().length];
+        int[] priceBucketCounts = new int[priceBounds.length + 1];
+        source.accept(product -> {
+            categoryCounts[product.getCategory().ordinal()]++;
+            priceBucketCounts[priceBucket(product.getPrice())]++;
+        });
+        return toResult(categoryCounts, priceBucketCounts);
+    }
+
+    private synchronized void put(Product product) {
+        remove(product.getProductId());
+        Facet facet = new Facet(product.getCategory().ordinal(), priceBucket(product.getPrice()));
+        facets.put(product.getProductId(), facet);
+        categoryCounts[facet.category]++;
+        priceBucketCounts[facet.priceBucket]++;
+    }
+
+    private synchronized void remove(Integer productId) {
+        Facet facet = facets.remove(productId);
+        if (facet != null) {
+            categoryCounts[facet.category]--;
+            priceBucketCounts[facet.priceBucket]--;
+        }
+    }
+
+    private int priceBucket(int price) {
+        int bucket = 0;
+        while (bucket < priceBounds.length && price >= priceBounds[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    private ProductFacetResult toResult(int[] categoryCounts, int[] priceBucketCounts) {
+        int total = 0;
+        Map<ProductCategory, Integer> categories = new EnumMap<>(ProductCategory.class);
+        for (ProductCategory category : ProductCategory.values()) {
+            categories.put(category, categoryCounts[category.ordinal()]);
+            total += categoryCounts[category.ordinal()];
+        }
+
+        List<ProductFacetResult.PriceBucket> priceBuckets = new ArrayList<>(priceBucketCounts.length);
+        for (int i = 0; i < priceBucketCounts.length; i++) {
+            Integer min = i == 0 ? 0 : priceBounds[i - 1];
+            Integer max = i < priceBounds.length ? priceBounds[i] : null;
+            priceBuckets.add(new ProductFacetResult.PriceBucket(min, max, priceBucketCounts[i]));
+        }
+
+        ProductFacetResult productFacetResult = new ProductFacetResult();
+        productFacetResult.setTotal(total);
+        productFacetResult.setCategories(categories);
+        productFacetResult.setPriceBuckets(priceBuckets);
+        return productFacetResult;
+    }
+
+    private static class Facet {
+        private final int category;
+        private final int priceBucket;
+
+        private Facet(int category, int priceBucket) {
+            this.category = category;
+            this.priceBucket = priceBucket;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.jensen.springbootmall.search;
+
+import com.jensen.springbootmall.dao.ProductDao;
+import com.jensen.springbootmall.dto.ProductQueryParams;
+import com.jensen.springbootmall.event.ProductChangedEvent;
+import com.jensen.springbootmall.model.Product;
+import com.jensen.springbootmall.util.ProductCursor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// 商品名稱與描述的記憶體倒排索引，取代 product_name LIKE '%search%' 的全表掃描
+// 啟動時從資料庫建立，之後依 ProductChangedEvent 逐筆更新；只有庫存變動的商品延到下一次由索引回答查詢時才讀回
+@Component
+public class ProductSearchIndex implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductSearchIndex.class);
+
+    // 商品名稱中的詞比描述中的詞更重要
+    private static final int NAME_WEIGHT = 3;
+
+    // 直接使用底層 DAO，確保讀到的是資料庫中的最新資料而非快取
+    @Autowired
+    @Qualifier("productDaoImpl")
+    private ProductDao productDao;
+
+    @Value("${mall.product-search.index-enabled:true}")
+    private boolean enabled;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // productId -> 索引中的商品
+    private final Map<Integer, Document> documents = new HashMap<>();
+
+    // 詞 -> 含有此詞的 productId；用 TreeMap 以支援前綴查詢
+    private final TreeMap<String, Set<Integer>> postings = new TreeMap<>();
+
+    // 庫存變動後尚未讀回的商品：下單不必在請求執行緒上多查一次資料庫，多筆訂單的變動也能合併成一次查詢
+    private final Set<Integer> stockChangedIds = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean ready = false;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            productDao.streamProducts(new ProductQueryParams(), this::put);
+            ready = true;
+            log.info("商品搜尋索引建立完成，共 {} 筆商品", size());
+        } catch (DataAccessException e) {
+            // 索引建立失敗時仍可啟動，搜尋會改走資料庫查詢
+            log.warn("商品搜尋索引建立失敗，搜尋將改用資料庫查詢", e);
+        }
+    }
+
+    // 商品寫入的交易結束後（或非交易寫入後），重新讀取商品並更新索引
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMPLETION, fallbackExecution = true)
+    public void onProductChanged(ProductChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        if (event.getChangeType() == ProductChangedEvent.ChangeType.STOCK_CHANGED) {
+            stockChangedIds.addAll(event.getProductIds());
+            return;
+        }
+        reload(event.getProductIds());
+    }
+
+    // 批次匯入等一次異動多筆時，以一次 IN 查詢讀回所有商品
+    private void reload(List<Integer> productIdList) {
+        Set<Integer> removedIds = new HashSet<>(productIdList);
+        for (Product product : productDao.getProductsByIds(productIdList)) {
+            put(product);
+            removedIds.remove(product.getProductId());
+        }
+        removedIds.forEach(this::remove);
+    }
+
+    // 讀回庫存變動過的商品；在取出之後才標記的變動留待下一次查詢
+    private void reloadStockChanged() {
+        if (stockChangedIds.isEmpty()) {
+            return;
+        }
+        List<Integer> productIdList = new ArrayList<>();
+        for (Iterator<Integer> iterator = stockChangedIds.iterator(); iterator.hasNext(); ) {
+            productIdList.add(iterator.next());
+            iterator.remove();
+        }
+        try {
+            reload(productIdList);
+        } catch (DataAccessException e) {
+            // 讀回失敗時仍以索引中的資料回答，下一次查詢再試
+            stockChangedIds.addAll(productIdList);
+            log.warn("讀回庫存變動的商品失敗，搜尋結果的庫存可能不是最新的", e);
+        }
+    }
+
+    // 索引可用、且搜尋字串能切出至少一個詞時，才由索引回答
+    public boolean canSearch(String search) {
+        return ready && search != null && !ProductTokenizer.queryTerms(search).isEmpty();
+    }
+
+    // 依搜尋條件與分類篩選，回傳排序、分頁後的商品
+    public List<Product> search(ProductQueryParams productQueryParams) {
+        List<Match> matches = match(productQueryParams);
+
+        String orderBy = productQueryParams.getOrderBy();
+        boolean asc = "asc".equals(productQueryParams.getSort());
+        matches.sort(comparator(orderBy, asc));
+
+        // 游標分頁：略過排在游標（含）之前的商品
+        ProductCursor cursor = productQueryParams.getCursor();
+        int from = 0;
+        if (cursor != null) {
+            while (from < matches.size() && !isAfterCursor(matches.get(from).product, cursor, asc)) {
+                from++;
+            }
+        } else if (productQueryParams.getOffset() != null) {
+            from = Math.min(productQueryParams.getOffset(), matches.size());
+        }
+        int to = Math.min(from + productQueryParams.getLimit(), matches.size());
+
+        List<Product> productList = new ArrayList<>(to - from);
+        for (Match match : matches.subList(from, to)) {
+            productList.add(match.product);
+        }
+        return productList;
+    }
+
+    // 符合搜尋條件與分類篩選的所有商品（不排序、不分頁）
+    public List<Product> matchProducts(ProductQueryParams productQueryParams) {
+        List<Match> matches = match(productQueryParams);
+        List<Product> productList = new ArrayList<>(matches.size());
+        for (Match match : matches) {
+            productList.add(match.product);
+        }
+        return productList;
+    }
+
+    // 符合搜尋條件與分類篩選的商品總數（精確值）
+    public int count(ProductQueryParams productQueryParams) {
+        return match(productQueryParams).size();
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void put(Product product) {
+        Document document = new Document(product,
+                ProductTokenizer.indexTerms(product.getProductName()),
+                ProductTokenizer.indexTerms(product.getDescription()));
+
+        lock.writeLock().lock();
+        try {
+            removeDocument(product.getProductId());
+            documents.put(product.getProductId(), document);
+            for (String term : document.terms()) {
+                postings.computeIfAbsent(term, k -> new HashSet<>()).add(product.getProductId());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void remove(Integer productId) {
+        lock.writeLock().lock();
+        try {
+            removeDocument(productId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeDocument(Integer productId) {
+        Document old = documents.remove(productId);
+        if (old == null) {
+            return;
+        }
+        for (String term : old.terms()) {
+            Set<Integer> productIds = postings.get(term);
+            if (productIds != null) {
+                productIds.remove(productId);
+                if (productIds.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+
+    // 找出包含所有查詢詞的商品並計算相關度（tf-idf，名稱加權）
+    private List<Match> match(ProductQueryParams productQueryParams) {
+        reloadStockChanged();
+        List<ProductTokenizer.QueryTerm> queryTerms = ProductTokenizer.queryTerms(productQueryParams.getSearch());
+
+        lock.readLock().lock();
+        try {
+            Map<Integer, Double> scores = null;
+            int documentCount = documents.size();
+
+            for (ProductTokenizer.QueryTerm queryTerm : queryTerms) {
+                Collection<Map.Entry<String, Set<Integer>>> entries;
+                if (queryTerm.isPrefix()) {
+                    entries = postings.subMap(queryTerm.getTerm(), true,
+                            queryTerm.getTerm() + Character.MAX_VALUE, true).entrySet();
+                } else {
+                    Set<Integer> productIds = postings.get(queryTerm.getTerm());
+                    entries = productIds == null ? List.of() : List.of(Map.entry(queryTerm.getTerm(), productIds));
+                }
+
+                Map<Integer, Double> termScores = new HashMap<>();
+                for (Map.Entry<String, Set<Integer>> entry : entries) {
+                    double idf = Math.log(1 + (double) documentCount / entry.getValue().size());
+                    for (Integer productId : entry.getValue()) {
+                        Document document = documents.get(productId);
+                        int tf = NAME_WEIGHT * document.nameTerms.getOrDefault(entry.getKey(), 0)
+                                + document.descriptionTerms.getOrDefault(entry.getKey(), 0);
+                        termScores.merge(productId, tf * idf, Double::sum);
+                    }
+                }
+
+                // 每個查詢詞都必須出現（AND）
+                if (scores == null) {
+                    scores = termScores;
+                } else {
+                    scores.keySet().retainAll(termScores.keySet());
+                    scores.replaceAll((productId, score) -> score + termScores.get(productId));
+                }
+                if (scores.isEmpty()) {
+                    break;
+                }
+            }
+
+            List<Match> matches = new ArrayList<>();
+            if (scores == null) {
+                return matches;
+            }
+            for (Map.Entry<Integer, Double> entry : scores.entrySet()) {
+                Product product = documents.get(entry.getKey()).product;
+                if (!matchesFilters(product, productQueryParams)) {
+                    continue;
+                }
+                matches.add(new Match(product, entry.getValue()));
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 與資料庫查詢相同的篩選條件（分類、價格範圍、是否有庫存）
+    private boolean matchesFilters(Product product, ProductQueryParams productQueryParams) {
+        if (productQueryParams.getCategory() != null && productQueryParams.getCategory() != product.getCategory()) {
+            return false;
+        }
+        if (productQueryParams.getMinPrice() != null && product.getPrice() < productQueryParams.getMinPrice()) {
+            return false;
+        }
+        if (productQueryParams.getMaxPrice() != null && product.getPrice() > productQueryParams.getMaxPrice()) {
+            return false;
+        }
+        return !Boolean.TRUE.equals(productQueryParams.getInStock()) || product.getStock() > 0;
+    }
+
+    // orderBy 為 relevance（或無法在記憶體中排序的欄位）時依相關度排序，否則依指定欄位排序
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Comparator<Match> comparator(String orderBy, boolean asc) {
+        if (orderBy == null || !ProductCursor.supports(orderBy, asc ? "asc" : "desc")) {
+            return Comparator.comparingDouble((Match match) -> match.score).reversed()
+                    .thenComparing((Match match) -> match.product.getProductId(), Comparator.reverseOrder());
+        }
+        Comparator<Match> comparator = (a, b) -> {
+            int compare = ((Comparable) ProductCursor.sortValue(orderBy, a.product))
+                    .compareTo(ProductCursor.sortValue(orderBy, b.product));
+            return compare != 0 ? compare : a.product.getProductId().compareTo(b.product.getProductId());
+        };
+        return asc ? comparator : comparator.reversed();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private boolean isAfterCursor(Product product, ProductCursor cursor, boolean asc) {
+        int compare = ((Comparable) ProductCursor.sortValue(cursor.getOrderBy(), product)).compareTo(cursor.getValue());
+        if (compare == 0) {
+            compare = product.getProductId().compareTo(cursor.getProductId());
+        }
+        return asc ? compare > 0 : compare < 0;
+    }
+
+    private static class Document {
+        private final Product product;
+        private final Map<String, Integer> nameTerms;
+        private final Map<String, Integer> descriptionTerms;
+
+        private Document(Product product, Map<String, Integer> nameTerms, Map<String, Integer> descriptionTerms) {
+            this.product = product;
+            this.nameTerms = nameTerms;
+            this.descriptionTerms = descriptionTerms;
+        }
+
+        private Set<String> terms() {
+            Set<String> terms = new HashSet<>(nameTerms.keySet());
+            terms.addAll(descriptionTerms.keySet());
+            return terms;
+        }
+    }
+
+    private static class Match {
+        private final Product product;
+        private final double score;
+
+        private Match(Product product, double score) {
+            this.product = product;
+            this.score = score;
+        }
+    }
+}
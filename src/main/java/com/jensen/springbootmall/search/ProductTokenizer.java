@@ -0,0 +1,125 @@
+package com.jensen.springbootmall.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// 商品搜尋用的斷詞器：中日韓文字切成單字與二字詞（bigram），拉丁文字與數字以整個單字為詞
+public class ProductTokenizer {
+
+    // 查詢詞；prefix 為 true 時以前綴比對（例如輸入 "b" 可找到 "bmw"、"benz"）
+    public static class QueryTerm {
+        private final String term;
+        private final boolean prefix;
+
+        public QueryTerm(String term, boolean prefix) {
+            this.term = term;
+            this.prefix = prefix;
+        }
+
+        public String getTerm() {
+            return term;
+        }
+
+        public boolean isPrefix() {
+            return prefix;
+        }
+    }
+
+    // 建立索引用：回傳每個詞出現的次數
+    public static Map<String, Integer> indexTerms(String text) {
+        Map<String, Integer> termFrequency = new HashMap<>();
+        for (Run run : split(text)) {
+            if (run.cjk) {
+                int[] codePoints = run.text.codePoints().toArray();
+                for (int i = 0; i < codePoints.length; i++) {
+                    termFrequency.merge(new String(codePoints, i, 1), 1, Integer::sum);
+                    if (i + 1 < codePoints.length) {
+                        termFrequency.merge(new String(codePoints, i, 2), 1, Integer::sum);
+                    }
+                }
+            } else {
+                termFrequency.merge(run.text, 1, Integer::sum);
+            }
+        }
+        return termFrequency;
+    }
+
+    // 查詢用：中日韓文字取 bigram（只有一個字時取單字），拉丁單字以前綴比對
+    public static List<QueryTerm> queryTerms(String text) {
+        List<QueryTerm> queryTerms = new ArrayList<>();
+        for (Run run : split(text)) {
+            if (run.cjk) {
+                int[] codePoints = run.text.codePoints().toArray();
+                if (codePoints.length == 1) {
+                    queryTerms.add(new QueryTerm(run.text, false));
+                }
+                for (int i = 0; i + 1 < codePoints.length; i++) {
+                    queryTerms.add(new QueryTerm(new String(codePoints, i, 2), false));
+                }
+            } else {
+                queryTerms.add(new QueryTerm(run.text, true));
+            }
+        }
+        return queryTerms;
+    }
+
+    // 將文字正規化（全形轉半形、轉小寫）後，切成連續的中日韓文字段與拉丁文字/數字段，其餘字元視為分隔
+    private static List<Run> split(String text) {
+        List<Run> runs = new ArrayList<>();
+        if (text == null) {
+            return runs;
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+
+        StringBuilder current = new StringBuilder();
+        boolean currentCjk = false;
+        int i = 0;
+        while (i < normalized.length()) {
+            int codePoint = normalized.codePointAt(i);
+            i += Character.charCount(codePoint);
+
+            boolean cjk = isCjk(codePoint);
+            boolean word = !cjk && Character.isLetterOrDigit(codePoint);
+            if (!cjk && !word) {
+                flush(runs, current, currentCjk);
+                continue;
+            }
+            if (current.length() > 0 && cjk != currentCjk) {
+                flush(runs, current, currentCjk);
+            }
+            currentCjk = cjk;
+            current.appendCodePoint(codePoint);
+        }
+        flush(runs, current, currentCjk);
+        return runs;
+    }
+
+    private static void flush(List<Run> runs, StringBuilder current, boolean cjk) {
+        if (current.length() > 0) {
+            runs.add(new Run(current.toString(), cjk));
+            current.setLength(0);
+        }
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    private static class Run {
+        private final String text;
+        private final boolean cjk;
+
+        private Run(String text, boolean cjk) {
+            this.text = text;
+            this.cjk = cjk;
+        }
+    }
+}
@@ -3,11 +3,16 @@ package com.jensen.springbootmall.service;
 import com.jensen.springbootmall.dto.CreateOrderRequest;
 import com.jensen.springbootmall.dto.OrderQueryParams;
 import com.jensen.springbootmall.model.Order;
+import com.jensen.springbootmall.util.Page;
 
 import java.util.List;
 
 public interface OrderService {
-    Integer createOrder(Integer UserId, CreateOrderRequest createOrderRequest);
+    // 創建訂單，返回建立的訂單（含訂單項目）
+    Order createOrder(Integer UserId, CreateOrderRequest createOrderRequest);
+
+    // 帶有 Idempotency-Key 的創建訂單：同一用戶以同一個 key 重送時返回先前建立的訂單，不會重複建立
+    Order createOrder(Integer userId, CreateOrderRequest createOrderRequest, String idempotencyKey);
 
     Order getOrderById(Integer orderId);
 
@@ -15,4 +20,6 @@ public interface OrderService {
 
     List<Order> getOrders(OrderQueryParams orderQueryParams);
 
+    Page<Order> getOrderPage(OrderQueryParams orderQueryParams);
+
 }
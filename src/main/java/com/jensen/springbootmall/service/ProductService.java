@@ -1,18 +1,37 @@
 package com.jensen.springbootmall.service;
 
 import com.jensen.springbootmall.constant.ProductCategory;
+import com.jensen.springbootmall.dto.ProductBatchResult;
+import com.jensen.springbootmall.dto.ProductFacetResult;
+import com.jensen.springbootmall.dto.ProductImportResult;
 import com.jensen.springbootmall.dto.ProductQueryParams;
 import com.jensen.springbootmall.dto.ProductRequest;
 import com.jensen.springbootmall.model.Product;
+import com.jensen.springbootmall.util.Page;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface ProductService {
     List<Product> getProducts(ProductQueryParams productQueryParams);
+    // 逐筆輸出符合篩選條件的所有商品（依 product_id 排序，不分頁、不整批載入記憶體）
+    void exportProducts(ProductQueryParams productQueryParams, Consumer<Product> consumer);
+    // 取得一頁商品（列表、總數、是否有下一頁與下一頁游標）
+    Page<Product> getProductPage(ProductQueryParams productQueryParams, boolean includeTotal);
     Product getProductById(Integer productId);
-    Integer createProduct(ProductRequest productRequest);
-    void updateProduct(Integer productId,ProductRequest productRequest);
+    // 一次查詢多個商品，結果依傳入順序排列（重複的 productId 只回傳一次）
+    ProductBatchResult getProductsByIds(List<Integer> productIdList);
+    // 新增商品，回傳新增後的商品
+    Product createProduct(ProductRequest productRequest);
+    // 從串流逐筆讀取商品（NDJSON 或 JSON 陣列）並分批寫入，每筆的處理結果依序交給 resultConsumer
+    void importProducts(InputStream inputStream, Consumer<ProductImportResult> resultConsumer) throws IOException;
+    // 修改商品，回傳修改後的商品；商品不存在時回傳 null
+    Product updateProduct(Integer productId,ProductRequest productRequest);
     void deleteProductById(Integer productId);
     Integer countProduct(ProductQueryParams productQueryParams);
+    // 各分類、各價格區間的商品數，search 不為 null 時只統計符合搜尋條件的商品
+    ProductFacetResult getProductFacets(String search);
 
 }
@@ -57,19 +57,8 @@ public class CartServiceImpl implements CartService {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "商品不存在");
         }
 
-        // 查詢是否已有相同商品在購物車中
-        CartItem existingCartItem = cartDao.getCartItemByUserIdAndProductId(userId, createCartItemRequest.getProductId());
-
-        if (existingCartItem != null) {
-            // 若已存在則累加數量
-            Integer newQuantity = existingCartItem.getQuantity() + createCartItemRequest.getQuantity();
-            cartDao.updateCartItemQuantity(existingCartItem.getCartItemId(), newQuantity);
-            return cartDao.getCartItemById(existingCartItem.getCartItemId());
-        } else {
-            // 否則新增一筆新項目
-            Integer cartItemId = cartDao.createCartItem(userId, createCartItemRequest);
-            return cartDao.getCartItemById(cartItemId);
-        }
+        // 以單一 upsert 新增或累加數量，並直接取回寫入後的項目
+        return cartDao.upsertCartItem(userId, createCartItemRequest);
     }
 
     // 修改購物車中某一筆項目的數量
@@ -81,8 +70,7 @@ public class CartServiceImpl implements CartService {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "購物車項目不存在或不屬於該用戶");
         }
 
-        // 執行更新
-        cartDao.updateCartItemQuantity(cartItemId, newQuantity);
-        return cartDao.getCartItemById(cartItemId);
+        // 執行更新，返回更新後的項目（商品資料取自前面的查詢）
+        return cartDao.updateCartItemQuantity(cartItem, newQuantity);
     }
 }
@@ -1,26 +1,61 @@
 package com.jensen.springbootmall.service.impl;
 
+import com.jensen.springbootmall.constant.InventoryMovementReason;
 import com.jensen.springbootmall.dao.OrderDao;
 import com.jensen.springbootmall.dao.ProductDao;
 import com.jensen.springbootmall.dao.UserDao;
 import com.jensen.springbootmall.dto.BuyItem;
 import com.jensen.springbootmall.dto.CreateOrderRequest;
 import com.jensen.springbootmall.dto.OrderQueryParams;
+import com.jensen.springbootmall.event.OrderChangedEvent;
+import com.jensen.springbootmall.inventory.HotInventory;
+import com.jensen.springbootmall.inventory.InventoryLedger;
+import com.jensen.springbootmall.inventory.StockShards;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jensen.springbootmall.model.Order;
+import com.jensen.springbootmall.model.OrderIdempotencyKey;
 import com.jensen.springbootmall.model.OrderItem;
 import com.jensen.springbootmall.model.Product;
 import com.jensen.springbootmall.model.User;
+import com.jensen.springbootmall.queue.OrderGroupCommitter;
 import com.jensen.springbootmall.service.OrderService;
+import com.jensen.springbootmall.util.LocalCache;
+import com.jensen.springbootmall.util.Page;
+import com.jensen.springbootmall.util.ParallelQueries;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.PessimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 // 標記為 Spring 的組件，使其成為 Bean，由 Spring 容器管理
 @Component
@@ -38,13 +73,195 @@ public class OrderServiceImpl implements OrderService {
     @Autowired
     private UserDao userDao;
 
+    // 注入事件發布器，訂單異動時通知訂單列表版本號更新
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    // 注入執行緒池，用於同時執行訂單列表與訂單總數查詢
+    @Autowired
+    @Qualifier("applicationTaskExecutor")
+    private AsyncTaskExecutor queryExecutor;
+
+    // 以程式控制交易範圍，讓鎖定失敗時能 rollback 後重新開始整筆交易
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    // 鎖等待逾時或死結時最多嘗試的次數
+    @Value("${mall.order.lock-retry.max-attempts:3}")
+    private int lockRetryMaxAttempts;
+
+    // 重試退避的基準時間（毫秒），每次重試加倍
+    @Value("${mall.order.lock-retry.backoff-ms:20}")
+    private long lockRetryBackoffMs;
+
+    // 已完成的 Idempotency-Key 請求的快取，減少重送時查詢資料庫
+    private LocalCache<String, OrderIdempotencyKey> idempotencyKeyCache;
+
+    // 處理中的 Idempotency-Key 請求：userId|key -> 執行中的請求
+    private final ConcurrentHashMap<String, InFlightOrder> inFlightOrders = new ConcurrentHashMap<>();
+
+    // 重複請求等待第一個請求完成的最長時間（毫秒）
+    @Value("${mall.order-idempotency.wait-timeout-ms:30000}")
+    private long idempotencyWaitTimeoutMs;
+
+    // Idempotency-Key 在資料庫中保存的時間（小時），須涵蓋用戶端重試的期間；短於記憶體快取的存活時間時以快取為準
+    @Value("${mall.order-idempotency.retention-hours:24}")
+    private long idempotencyRetentionHours;
+
+    // 記憶體快取的存活時間（秒）
+    private long idempotencyCacheTtlSeconds;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // 是否啟用訂單群組提交（不帶 Idempotency-Key 的訂單）
+    @Value("${mall.order-group-commit.enabled:false}")
+    private boolean groupCommitEnabled;
+
+    @Autowired
+    private OrderGroupCommitter orderGroupCommitter;
+
+    @Autowired
+    private HotInventory hotInventory;
+
+    @Autowired
+    private StockShards stockShards;
+
+    @Autowired
+    private InventoryLedger inventoryLedger;
+
+    // 查詢逾時時間（毫秒）
+    @Value("${mall.query.timeout-ms:5000}")
+    private long queryTimeoutMs;
+
     // 初始化 SLF4J 日誌記錄器，用於記錄服務層的運行資訊
     private static final Logger log = LoggerFactory.getLogger(OrderServiceImpl.class);
 
-    // 創建訂單的方法，使用 @Transactional 確保事務一致性
-    @Transactional // 保證訂單創建過程中的多個資料庫操作要麼全成功，要麼全失敗
+    @Autowired
+    public void setIdempotencyKeyCache(
+            @Value("${mall.order-idempotency.cache-max-size:10000}") int maxSize,
+            @Value("${mall.order-idempotency.cache-ttl-seconds:3600}") long ttlSeconds
+    ) {
+        // 不快取「查無資料」：key 隨時可能被寫入
+        this.idempotencyKeyCache = new LocalCache<>(maxSize, ttlSeconds * 1000, 0);
+        this.idempotencyCacheTtlSeconds = ttlSeconds;
+    }
+
+    // 定期刪除超過保存時間的 Idempotency-Key（包含非同步訂單佇列寫入的 key），避免資料表無限成長
+    @Scheduled(fixedDelayString = "${mall.order-idempotency.purge-interval-ms:3600000}")
+    public void purgeIdempotencyKeys() {
+        long retentionMs = Math.max(TimeUnit.HOURS.toMillis(idempotencyRetentionHours),
+                TimeUnit.SECONDS.toMillis(idempotencyCacheTtlSeconds));
+        int deleted = orderDao.deleteIdempotencyKeysBefore(new Date(System.currentTimeMillis() - retentionMs));
+        if (deleted > 0) {
+            log.info("刪除 {} 筆超過保存時間的 Idempotency-Key", deleted);
+        }
+    }
+
+    // 同一個 Idempotency-Key 正在處理中的請求，重複的請求等待同一個結果
+    private static class InFlightOrder {
+        private final String requestHash;
+        private final CompletableFuture<Order> future = new CompletableFuture<>();
+
+        private InFlightOrder(String requestHash) {
+            this.requestHash = requestHash;
+        }
+    }
+
+    // 創建訂單，返回建立的訂單（含訂單項目）
     @Override
-    public Integer createOrder(Integer userId, CreateOrderRequest createOrderRequest) {
+    public Order createOrder(Integer userId, CreateOrderRequest createOrderRequest) {
+        // 群組提交：與同時送達的其他訂單在同一個交易中建立；已在外層交易中時無法併入其他交易，個別建立
+        // 含熱門商品或拆分庫存商品的訂單不鎖定 product 資料列，不需要群組提交
+        if (groupCommitEnabled && !TransactionSynchronizationManager.isActualTransactionActive()
+                && isGroupCommittable(productIds(createOrderRequest))) {
+            return orderGroupCommitter.createOrder(userId, createOrderRequest,
+                    () -> createOrderWithRetry(userId, createOrderRequest, null, null));
+        }
+        return createOrderWithRetry(userId, createOrderRequest, null, null);
+    }
+
+    // 帶有 Idempotency-Key 的創建訂單：先查已完成的請求，再合併同時送達的重複請求，最後才真正建立訂單
+    @Override
+    public Order createOrder(Integer userId, CreateOrderRequest createOrderRequest, String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return createOrder(userId, createOrderRequest);
+        }
+        String requestHash = requestHash(createOrderRequest);
+        String cacheKey = userId + "|" + idempotencyKey;
+
+        // 已完成的請求：直接返回當時建立的訂單，不必鎖定商品
+        OrderIdempotencyKey stored = idempotencyKeyCache.get(cacheKey, k -> orderDao.getIdempotencyKey(userId, idempotencyKey));
+        if (stored != null) {
+            return getOrderById(replay(stored, requestHash));
+        }
+
+        // 同一個 key 的請求正在處理中：等待它的結果，不另外執行
+        InFlightOrder inFlightOrder = new InFlightOrder(requestHash);
+        InFlightOrder existing = inFlightOrders.putIfAbsent(cacheKey, inFlightOrder);
+        if (existing != null) {
+            return awaitInFlight(existing, requestHash);
+        }
+
+        try {
+            Order order;
+            try {
+                order = createOrderWithRetry(userId, createOrderRequest, idempotencyKey, requestHash);
+            } catch (DuplicateKeyException e) {
+                // 其他執行個體已用同一個 key 建立訂單（寫入 key 時已等到該交易提交）
+                order = getOrderById(replay(orderDao.getIdempotencyKey(userId, idempotencyKey), requestHash));
+            }
+
+            // 放入快取後才移除處理中的紀錄，之後的重送一定查得到結果
+            OrderIdempotencyKey created = new OrderIdempotencyKey();
+            created.setUserId(userId);
+            created.setIdempotencyKey(idempotencyKey);
+            created.setRequestHash(requestHash);
+            created.setOrderId(order.getOrderId());
+            idempotencyKeyCache.get(cacheKey, k -> created);
+
+            inFlightOrder.future.complete(order);
+            return order;
+        } catch (RuntimeException e) {
+            // 失敗的請求不記錄 key（交易已 rollback），等待中的重複請求得到相同的錯誤
+            inFlightOrder.future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightOrders.remove(cacheKey, inFlightOrder);
+        }
+    }
+
+    // 創建訂單：每次嘗試都在獨立的交易中執行，遇到鎖等待逾時或死結時 rollback 後重試
+    private Order createOrderWithRetry(Integer userId, CreateOrderRequest createOrderRequest,
+                                       String idempotencyKey, String requestHash) {
+        // 已在外層交易中時無法單獨 rollback 重試，只執行一次
+        int maxAttempts = TransactionSynchronizationManager.isActualTransactionActive() ? 1 : lockRetryMaxAttempts;
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> {
+                    // 先寫入 key 再鎖定商品：其他執行個體的重複請求會卡在寫入 key，不會去鎖定商品
+                    if (idempotencyKey != null) {
+                        orderDao.createIdempotencyKey(userId, idempotencyKey, requestHash);
+                    }
+                    Order order = doCreateOrder(userId, createOrderRequest);
+                    if (idempotencyKey != null) {
+                        orderDao.updateIdempotencyKeyOrderId(userId, idempotencyKey, order.getOrderId());
+                    }
+                    return order;
+                });
+            } catch (PessimisticLockingFailureException e) {
+                if (attempt >= maxAttempts) {
+                    log.warn("創建訂單時鎖定商品失敗，已重試 {} 次：{}", attempt, e.getMessage());
+                    throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "商品忙碌中，請稍後再試");
+                }
+                backoff(attempt);
+            }
+        }
+    }
+
+    // 保證訂單創建過程中的多個資料庫操作要麼全成功，要麼全失敗（由 createOrder 的 transactionTemplate 開啟交易）
+    private Order doCreateOrder(Integer userId, CreateOrderRequest createOrderRequest) {
         // 檢查用戶是否存在
         User user = userDao.getUserById(userId);
         if (user == null) {
@@ -52,57 +269,186 @@ public class OrderServiceImpl implements OrderService {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "用戶不存在"); // 拋出 400 錯誤
         }
 
+        // 合併同一商品的購買數量，並依 productId 排序（TreeMap）
+        Map<Integer, Integer> quantityByProductId = new TreeMap<>();
+        for (BuyItem buyItem : createOrderRequest.getBuyItemList()) {
+            quantityByProductId.merge(buyItem.getProductId(), buyItem.getQuantity(), Integer::sum);
+        }
+
+        // 熱門商品模式的商品由記憶體計數器扣除庫存，不鎖定資料列
+        Map<Integer, Integer> hotQuantityByProductId = new TreeMap<>();
+        Map<Integer, Integer> coldQuantityByProductId = new TreeMap<>();
+        quantityByProductId.forEach((productId, quantity) ->
+                (hotInventory.isHot(productId) ? hotQuantityByProductId : coldQuantityByProductId).put(productId, quantity));
+
+        // 拆分庫存的商品從其中一個分片扣庫存，同樣不鎖定 product 資料列
+        Map<Integer, Map<Integer, Integer>> stockShardMap = stockShards.getStockShards(coldQuantityByProductId.keySet());
+        Map<Integer, Integer> shardedQuantityByProductId = new TreeMap<>();
+        for (Integer productId : stockShardMap.keySet()) {
+            shardedQuantityByProductId.put(productId, coldQuantityByProductId.remove(productId));
+        }
+
+        // 以一次 SELECT ... ORDER BY product_id FOR UPDATE 鎖定所有商品，所有訂單以相同順序加鎖，不會死結
+        Map<Integer, Product> productMap = new HashMap<>();
+        for (Product product : productDao.getProductsByIdsForUpdate(new ArrayList<>(coldQuantityByProductId.keySet()))) {
+            productMap.put(product.getProductId(), product);
+        }
+        // 等待資料列鎖期間商品可能已開啟熱門商品模式，此時資料庫庫存不再是可售庫存，重試
+        if (hotInventory.containsHot(coldQuantityByProductId.keySet())) {
+            throw new CannotAcquireLockException("商品已開啟熱門商品模式");
+        }
+        List<Integer> unlockedProductIdList = new ArrayList<>(hotQuantityByProductId.keySet());
+        unlockedProductIdList.addAll(shardedQuantityByProductId.keySet());
+        if (!unlockedProductIdList.isEmpty()) {
+            for (Product product : productDao.getProductsByIds(unlockedProductIdList)) {
+                productMap.put(product.getProductId(), product);
+            }
+        }
+
         // 初始化訂單總金額
         int totalAmount = 0;
 
         // 初始化訂單項目清單，用於儲存訂單中的商品資訊
         List<OrderItem> orderItemList = new ArrayList<>();
 
-        // 獲取前端傳來的購買商品清單
-        List<BuyItem> buyItemList = createOrderRequest.getBuyItemList();
-
         // 遍歷購買清單，計算總金額並驗證商品與庫存
-        for (BuyItem buyItem : buyItemList) {
-            // 根據商品 ID 查詢商品資訊
-            Product product = productDao.getProductByIdForUpdate(buyItem.getProductId());
+        for (Map.Entry<Integer, Integer> entry : quantityByProductId.entrySet()) {
+            Integer productId = entry.getKey();
+            Integer quantity = entry.getValue();
+            Product product = productMap.get(productId);
 
             // 檢查商品是否存在
             if (product == null) {
-                log.info("商品 {} 不存在", buyItem.getProductId()); // 記錄商品不存在的日誌
+                log.info("商品 {} 不存在", productId); // 記錄商品不存在的日誌
                 throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "商品不存在"); // 拋出 400 錯誤
             }
 
-            // 檢查庫存是否足夠
-            int remainingStock = product.getStock();
-            if (remainingStock < buyItem.getQuantity()) {
+            // 檢查庫存是否足夠（熱門商品在扣除計數器時、拆分庫存的商品在扣除分片時檢查）
+            if (coldQuantityByProductId.containsKey(productId) && product.getStock() < quantity) {
                 log.info("商品 {} 庫存不足，無法購買，剩餘庫存：{}，欲購買數量：{}",
-                        product.getProductName(), remainingStock, buyItem.getQuantity()); // 記錄庫存不足的日誌
+                        product.getProductName(), product.getStock(), quantity); // 記錄庫存不足的日誌
                 throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "庫存不足"); // 拋出 400 錯誤
             }
 
             // 計算單個商品金額：數量 * 價格
-            int amount = buyItem.getQuantity() * product.getPrice();
+            int amount = quantity * product.getPrice();
             totalAmount += amount; // 累加至訂單總金額
 
-            // 更新商品庫存，減少購買數量
-            productDao.updateStock(buyItem.getProductId(), remainingStock - buyItem.getQuantity());
-
             // 創建訂單項目物件並設置屬性
             OrderItem orderItem = new OrderItem();
-            orderItem.setProductId(buyItem.getProductId()); // 設置商品 ID
-            orderItem.setQuantity(buyItem.getQuantity());   // 設置購買數量
-            orderItem.setAmount(amount);                    // 設置單項金額
-            orderItemList.add(orderItem);                   // 加入訂單項目清單
+            orderItem.setProductId(productId); // 設置商品 ID
+            orderItem.setQuantity(quantity);   // 設置購買數量
+            orderItem.setAmount(amount);       // 設置單項金額
+            orderItem.setProductName(product.getProductName()); // 設置商品名稱（回應用，不寫入訂單項目）
+            orderItem.setImageUrl(product.getImageUrl());       // 設置商品圖片
+            orderItemList.add(orderItem);      // 加入訂單項目清單
+        }
+
+        // 以一次批次 UPDATE 扣除所有商品的庫存（資料列已鎖定並檢查過庫存，條件式 UPDATE 只是保險）
+        if (!coldQuantityByProductId.isEmpty()) {
+            Map<Integer, Boolean> decreased = productDao.decreaseStocks(coldQuantityByProductId);
+            // 已鎖定並檢查過庫存仍扣除失敗：等待資料列鎖期間商品拆分了庫存（product.stock 已分配到分片），重試
+            if (decreased.containsValue(false)) {
+                throw new CannotAcquireLockException("已鎖定的商品扣庫存失敗：" + decreased);
+            }
+        }
+
+        // 拆分庫存的商品依 productId 順序各從一個分片扣除
+        shardedQuantityByProductId.forEach((productId, quantity) ->
+                stockShards.decrease(productId, quantity, stockShardMap.get(productId)));
+
+        // 熱門商品在取得資料列鎖之後才扣除計數器，交易 rollback 時自動退回
+        HotInventory.Reservation reservation = null;
+        if (!hotQuantityByProductId.isEmpty()) {
+            reservation = hotInventory.reserve(hotQuantityByProductId);
         }
 
-        // 在資料庫中創建訂單主記錄，返回生成的訂單 ID
-        Integer orderId = orderDao.createOrder(userId, totalAmount);
+        // 在資料庫中創建訂單主記錄，返回帶有生成的訂單 ID 的訂單
+        Order order = orderDao.createOrder(userId, totalAmount);
+        Integer orderId = order.getOrderId();
 
-        // 批量創建訂單項目，將商品資訊保存至資料庫
+        // 熱門商品的扣除在提交前連同訂單ID寫入日誌
+        if (reservation != null) {
+            reservation.setOrderId(orderId);
+        }
+
+        // 批量創建訂單項目，將商品資訊保存至資料庫（同時回填訂單項目 ID）
         orderDao.createOrderItems(orderId, orderItemList);
 
-        // 返回創建的訂單 ID
-        return orderId;
+        // 記錄庫存異動（熱門商品在寫回資料庫時才記錄）
+        Map<Integer, Integer> decreasedQuantityByProductId = new TreeMap<>(coldQuantityByProductId);
+        decreasedQuantityByProductId.putAll(shardedQuantityByProductId);
+        inventoryLedger.record(InventoryLedger.decreases(InventoryMovementReason.ORDER, orderId, decreasedQuantityByProductId));
+
+        // 通知該用戶的訂單列表已異動（交易提交後才更新 ETag 版本號）
+        applicationEventPublisher.publishEvent(new OrderChangedEvent(userId, orderId));
+
+        // 以手上已有的資料組成完整的訂單返回，不必再查詢訂單與訂單項目
+        order.setItemCount(orderItemList.size());
+        order.setOrderItemList(orderItemList);
+        return order;
+    }
+
+    // 同一個 key 只能用於相同內容的請求
+    private Integer replay(OrderIdempotencyKey stored, String requestHash) {
+        if (!stored.getRequestHash().equals(requestHash)) {
+            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY, "Idempotency-Key 已用於不同的請求");
+        }
+        return stored.getOrderId();
+    }
+
+    private Order awaitInFlight(InFlightOrder inFlightOrder, String requestHash) {
+        if (!inFlightOrder.requestHash.equals(requestHash)) {
+            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY, "Idempotency-Key 已用於不同的請求");
+        }
+        try {
+            return inFlightOrder.future.get(idempotencyWaitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "相同 Idempotency-Key 的請求仍在處理中");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "創建訂單被中斷");
+        }
+    }
+
+    // 購買清單的 SHA-256 雜湊值
+    private String requestHash(CreateOrderRequest createOrderRequest) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(createOrderRequest.getBuyItemList());
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(json));
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // 訂單中沒有熱門商品，也沒有拆分庫存的商品
+    private boolean isGroupCommittable(List<Integer> productIdList) {
+        return !hotInventory.containsHot(productIdList) && stockShards.getStockShards(productIdList).isEmpty();
+    }
+
+    // 購買清單中的商品ID
+    private List<Integer> productIds(CreateOrderRequest createOrderRequest) {
+        List<Integer> productIdList = new ArrayList<>();
+        for (BuyItem buyItem : createOrderRequest.getBuyItemList()) {
+            productIdList.add(buyItem.getProductId());
+        }
+        return productIdList;
+    }
+
+    // 指數退避加上隨機抖動（full jitter），避免同時失敗的請求又在同一時間重試
+    private void backoff(int attempt) {
+        long maxDelayMs = lockRetryBackoffMs << Math.min(attempt - 1, 10);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(maxDelayMs + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "創建訂單被中斷");
+        }
     }
 
     // 根據訂單 ID 查詢訂單詳情，包括訂單項目
@@ -111,6 +457,11 @@ public class OrderServiceImpl implements OrderService {
         // 查詢訂單主記錄
         Order order = orderDao.getOrderById(orderId);
 
+        // 查無訂單時返回 null
+        if (order == null) {
+            return null;
+        }
+
         // 查詢該訂單的訂單項目列表
         List<OrderItem> orderItemList = orderDao.getOrderItemByOrderId(orderId);
 
@@ -134,13 +485,43 @@ public class OrderServiceImpl implements OrderService {
         // 查詢訂單列表
         List<Order> orders = orderDao.getOrders(orderQueryParams);
 
-        // 遍歷訂單列表，為每個訂單附加訂單項目
+        // 沒有訂單或未要求展開訂單項目時不必查詢訂單項目
+        if (orders.isEmpty() || !orderQueryParams.isExpandItems()) {
+            return orders;
+        }
+
+        // 一次查出整頁訂單的訂單項目，再依訂單ID分配給各訂單
+        List<Integer> orderIdList = new ArrayList<>(orders.size());
         for (Order order : orders) {
-            List<OrderItem> orderItemList = orderDao.getOrderItemByOrderId(order.getOrderId());
-            order.setOrderItemList(orderItemList); // 設置訂單項目
+            orderIdList.add(order.getOrderId());
+        }
+        Map<Integer, List<OrderItem>> orderItemMap = orderDao.getOrderItemsByOrderIds(orderIdList);
+
+        for (Order order : orders) {
+            order.setOrderItemList(orderItemMap.getOrDefault(order.getOrderId(), new ArrayList<>())); // 設置訂單項目
         }
 
         // 返回完整的訂單列表
         return orders;
     }
+
+    // 查詢一頁訂單：訂單列表與訂單總數互不相依，交給執行緒池同時查詢
+    @Override
+    public Page<Order> getOrderPage(OrderQueryParams orderQueryParams) {
+        // 兩個查詢共用同一個期限，任一方失敗或逾時時取消另一方
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queryTimeoutMs);
+        Future<Integer> countFuture = ParallelQueries.submit(queryExecutor, () -> countOrder(orderQueryParams));
+        Future<List<Order>> orderListFuture = ParallelQueries.submit(queryExecutor, () -> getOrders(orderQueryParams));
+
+        List<Order> orderList = ParallelQueries.await(orderListFuture, deadline, countFuture);
+        Integer count = ParallelQueries.await(countFuture, deadline, orderListFuture);
+
+        // 封裝分頁資訊
+        Page<Order> orderPage = new Page<>();
+        orderPage.setLimit(orderQueryParams.getLimit());  // 設置每頁顯示的數量
+        orderPage.setOffset(orderQueryParams.getOffSet());  // 設置當前頁的偏移量
+        orderPage.setResults(orderList);  // 設置查詢到的訂單數據
+        orderPage.setTotal(count);  // 設置訂單總數，方便前端計算總頁數
+        return orderPage;
+    }
 }
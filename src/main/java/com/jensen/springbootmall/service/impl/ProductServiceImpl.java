@@ -1,22 +1,97 @@
 package com.jensen.springbootmall.service.impl;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jensen.springbootmall.constant.InventoryMovementReason;
 import com.jensen.springbootmall.constant.ProductCategory;
+import com.jensen.springbootmall.dto.ProductBatchResult;
+import com.jensen.springbootmall.dto.ProductFacetResult;
+import com.jensen.springbootmall.dto.ProductImportResult;
 import com.jensen.springbootmall.dto.ProductQueryParams;
 import com.jensen.springbootmall.dto.ProductRequest;
 import com.jensen.springbootmall.dao.ProductDao;
+import com.jensen.springbootmall.inventory.HotInventory;
+import com.jensen.springbootmall.inventory.InventoryLedger;
+import com.jensen.springbootmall.inventory.StockShards;
 import com.jensen.springbootmall.model.Product;
+import com.jensen.springbootmall.search.ProductFacetCounter;
+import com.jensen.springbootmall.search.ProductSearchIndex;
 import com.jensen.springbootmall.service.ProductService;
+import com.jensen.springbootmall.util.Page;
+import com.jensen.springbootmall.util.ParallelQueries;
+import com.jensen.springbootmall.util.ProductCursor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
 
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 @Component
 public class ProductServiceImpl implements ProductService {
 
+    private static final String RELEVANCE = "relevance";
+
     @Autowired
     private ProductDao productDao;
 
+    @Autowired
+    private ProductSearchIndex productSearchIndex;
+
+    @Autowired
+    private ProductFacetCounter productFacetCounter;
+
+    @Autowired
+    private InventoryLedger inventoryLedger;
+
+    @Autowired
+    private StockShards stockShards;
+
+    @Autowired
+    private HotInventory hotInventory;
+
+    // 用來同時執行列表與總數查詢的執行緒池（啟用虛擬執行緒時為虛擬執行緒）
+    @Autowired
+    @Qualifier("applicationTaskExecutor")
+    private AsyncTaskExecutor queryExecutor;
+
+    @Value("${mall.query.timeout-ms:5000}")
+    private long queryTimeoutMs;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private Validator validator;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    // 批次匯入時每批寫入的筆數，同時也是匯入過程中暫存於記憶體的最大筆數
+    @Value("${mall.product-import.batch-size:500}")
+    private int importBatchSize;
+
     @Override
     public Product getProductById(Integer productId) {
         Product productById = productDao.getProductById(productId);
@@ -24,27 +99,284 @@ public class ProductServiceImpl implements ProductService {
     }
 
     @Override
-    public Integer createProduct(ProductRequest productRequest) {
-        return productDao.createProduct(productRequest);
+    public ProductBatchResult getProductsByIds(List<Integer> productIdList) {
+        List<Integer> distinctIdList = new ArrayList<>(new LinkedHashSet<>(productIdList));
+
+        Map<Integer, Product> productMap = new HashMap<>();
+        for (Product product : productDao.getProductsByIds(distinctIdList)) {
+            productMap.put(product.getProductId(), product);
+        }
+
+        // 資料庫回傳的順序不固定，依請求中的順序重新排列
+        List<Product> productList = new ArrayList<>(productMap.size());
+        List<Integer> missingIdList = new ArrayList<>();
+        for (Integer productId : distinctIdList) {
+            Product product = productMap.get(productId);
+            if (product != null) {
+                productList.add(product);
+            } else {
+                missingIdList.add(productId);
+            }
+        }
+
+        ProductBatchResult productBatchResult = new ProductBatchResult();
+        productBatchResult.setResults(productList);
+        productBatchResult.setMissingIds(missingIdList);
+        return productBatchResult;
+    }
+
+    @Override
+    public Product createProduct(ProductRequest productRequest) {
+        return transactionTemplate.execute(status -> {
+            Product product = productDao.createProduct(productRequest);
+            inventoryLedger.record(InventoryLedger.stocks(InventoryMovementReason.PRODUCT_CREATED,
+                    Map.of(product.getProductId(), productRequest.getStock())));
+            return product;
+        });
     }
 
     @Override
-    public void updateProduct(Integer productId, ProductRequest productRequest) {
-        productDao.updateProduct(productId,productRequest);
+    public void importProducts(InputStream inputStream, Consumer<ProductImportResult> resultConsumer) throws IOException {
+        // readValues 可同時讀取以空白 / 換行分隔的多個 JSON 物件（NDJSON）與最外層的 JSON 陣列，
+        // 一次只解析一筆，不會把整個請求載入記憶體
+        MappingIterator<ProductRequest> iterator = objectMapper.readerFor(ProductRequest.class).readValues(inputStream);
+
+        List<ProductImportResult> resultList = new ArrayList<>(importBatchSize);
+        List<ProductRequest> productRequestList = new ArrayList<>(importBatchSize);
+        List<ProductImportResult> pendingResultList = new ArrayList<>(importBatchSize);
+        int row = 0;
+
+        try {
+            while (iterator.hasNextValue()) {
+                row++;
+                ProductImportResult result;
+                try {
+                    ProductRequest productRequest = iterator.nextValue();
+                    List<String> errors = validate(productRequest);
+                    if (errors.isEmpty()) {
+                        result = new ProductImportResult(row, ProductImportResult.Status.CREATED);
+                        productRequestList.add(productRequest);
+                        pendingResultList.add(result);
+                    } else {
+                        result = invalid(row, errors);
+                    }
+                } catch (JsonMappingException e) {
+                    // 欄位型別錯誤（例如分類不存在）：略過這筆，繼續讀取下一筆
+                    result = invalid(row, List.of(e.getOriginalMessage()));
+                }
+                resultList.add(result);
+
+                if (resultList.size() >= importBatchSize) {
+                    flushImportBatch(resultList, productRequestList, pendingResultList, resultConsumer);
+                }
+            }
+        } catch (JsonProcessingException e) {
+            // JSON 語法錯誤時無法判斷下一筆從哪裡開始，先寫入已讀到的資料再停止
+            flushImportBatch(resultList, productRequestList, pendingResultList, resultConsumer);
+            resultConsumer.accept(invalid(row + 1, List.of(e.getOriginalMessage())));
+            return;
+        }
+        flushImportBatch(resultList, productRequestList, pendingResultList, resultConsumer);
+    }
+
+    @Override
+    public Product updateProduct(Integer productId, ProductRequest productRequest) {
+        // 先確認商品存在並取得建立時間（通常由快取回答），修改後不必再查詢一次
+        Product existing = productDao.getProductById(productId);
+        if (existing == null) {
+            return null;
+        }
+        return transactionTemplate.execute(status -> {
+            Product product = productDao.updateProduct(productId, productRequest);
+            if (product == null) {
+                return null;
+            }
+            checkNotHot(productId);
+            stockShards.resetShards(productId);
+            inventoryLedger.record(InventoryLedger.stocks(InventoryMovementReason.PRODUCT_UPDATED,
+                    Map.of(productId, productRequest.getStock())));
+            product.setCreatedDate(existing.getCreatedDate());
+            return product;
+        });
     }
 
     @Override
     public List<Product> getProducts(ProductQueryParams productQueryParams) {
-        return productDao.getProducts(productQueryParams);
+        // 有搜尋關鍵字時改由記憶體倒排索引回答，避免 LIKE '%search%' 全表掃描
+        if (productSearchIndex.canSearch(productQueryParams.getSearch())) {
+            return productSearchIndex.search(productQueryParams);
+        }
+        return productDao.getProducts(withDatabaseOrder(productQueryParams));
+    }
+
+    @Override
+    public void exportProducts(ProductQueryParams productQueryParams, Consumer<Product> consumer) {
+        if (productSearchIndex.canSearch(productQueryParams.getSearch())) {
+            // 索引中已有商品資料，直接依 product_id 排序輸出，不必再查資料庫
+            productQueryParams.setOrderBy("product_id");
+            productQueryParams.setSort("asc");
+            productQueryParams.setOffset(0);
+            productQueryParams.setLimit(Integer.MAX_VALUE);
+            productSearchIndex.search(productQueryParams).forEach(consumer);
+            return;
+        }
+        productDao.streamProducts(productQueryParams, consumer);
+    }
+
+    @Override
+    public Page<Product> getProductPage(ProductQueryParams productQueryParams, boolean includeTotal) {
+        Integer limit = productQueryParams.getLimit();
+
+        // 多取一筆，用來判斷是否還有下一頁
+        productQueryParams.setLimit(limit + 1);
+
+        List<Product> productList;
+        Integer total = null;
+        if (productSearchIndex.canSearch(productQueryParams.getSearch())) {
+            // 由記憶體索引回答，不需要另開執行緒
+            productList = productSearchIndex.search(productQueryParams);
+            if (includeTotal) {
+                total = productSearchIndex.count(productQueryParams);
+            }
+        } else {
+            // 列表與總數是兩個互不相依的查詢，同時執行讓延遲取兩者較大值而非相加
+            ProductQueryParams databaseQueryParams = withDatabaseOrder(productQueryParams);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queryTimeoutMs);
+            Future<Integer> totalFuture = includeTotal
+                    ? ParallelQueries.submit(queryExecutor, () -> productDao.countProduct(databaseQueryParams))
+                    : CompletableFuture.completedFuture(null);
+            Future<List<Product>> productListFuture =
+                    ParallelQueries.submit(queryExecutor, () -> productDao.getProducts(databaseQueryParams));
+
+            productList = ParallelQueries.await(productListFuture, deadline, totalFuture);
+            total = ParallelQueries.await(totalFuture, deadline, productListFuture);
+        }
+        productQueryParams.setLimit(limit);
+
+        boolean hasMore = productList.size() > limit;
+        if (hasMore) {
+            productList = productList.subList(0, limit);
+        }
+
+        Page<Product> page = new Page<>();
+        page.setLimit(limit);
+        if (productQueryParams.getCursor() == null) {
+            page.setOffset(productQueryParams.getOffset());
+        }
+        page.setTotal(total);
+        page.setHasMore(hasMore);
+        page.setResults(productList);
+
+        // 還有下一頁時，產生下一頁的游標
+        String orderBy = productQueryParams.getOrderBy();
+        String sort = productQueryParams.getSort();
+        if (hasMore && !productList.isEmpty() && ProductCursor.supports(orderBy, sort)) {
+            Product last = productList.get(productList.size() - 1);
+            page.setNextCursor(ProductCursor.of(orderBy, sort, last).encode());
+        }
+        return page;
     }
 
     @Override
     public void deleteProductById(Integer productId) {
-        productDao.deleteProductById(productId);
+        transactionTemplate.executeWithoutResult(status -> {
+            productDao.deleteProductById(productId);
+            checkNotHot(productId);
+            stockShards.deleteShards(productId);
+            inventoryLedger.deleteProduct(productId);
+        });
     }
 
     @Override
     public Integer countProduct(ProductQueryParams productQueryParams) {
+        if (productSearchIndex.canSearch(productQueryParams.getSearch())) {
+            return productSearchIndex.count(productQueryParams);
+        }
         return productDao.countProduct(productQueryParams);
     }
+
+    // 熱門商品的可售庫存在記憶體計數器中，只修改 product.stock 會讓計數器繼續以舊庫存接單而超賣，須先關閉熱門商品模式
+    // 在寫入之後（已持有商品資料列鎖）才檢查：開啟熱門商品模式時在同一個資料列鎖內載入計數器，不會漏掉同時開啟的情況
+    private void checkNotHot(Integer productId) {
+        if (hotInventory.isHot(productId)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "商品在熱門商品模式，請先關閉熱門商品模式");
+        }
+    }
+
+    private List<String> validate(ProductRequest productRequest) {
+        List<String> errors = new ArrayList<>();
+        if (productRequest == null) {
+            errors.add("資料不可為 null");
+            return errors;
+        }
+        Set<ConstraintViolation<ProductRequest>> violations = validator.validate(productRequest);
+        for (ConstraintViolation<ProductRequest> violation : violations) {
+            errors.add(violation.getPropertyPath() + " " + violation.getMessage());
+        }
+        return errors;
+    }
+
+    private ProductImportResult invalid(int row, List<String> errors) {
+        ProductImportResult result = new ProductImportResult(row, ProductImportResult.Status.INVALID);
+        result.setErrors(errors);
+        return result;
+    }
+
+    // 將這一批通過驗證的商品以一次 batch INSERT 寫入（同一交易，全部成功或全部失敗），
+    // 再依原始順序輸出這一批每筆資料的結果
+    private void flushImportBatch(List<ProductImportResult> resultList,
+                                  List<ProductRequest> productRequestList,
+                                  List<ProductImportResult> pendingResultList,
+                                  Consumer<ProductImportResult> resultConsumer) {
+        if (!productRequestList.isEmpty()) {
+            try {
+                List<Integer> productIdList = transactionTemplate.execute(status -> {
+                    List<Integer> createdIdList = productDao.createProducts(productRequestList);
+                    Map<Integer, Integer> stockByProductId = new HashMap<>();
+                    for (int i = 0; i < createdIdList.size(); i++) {
+                        stockByProductId.put(createdIdList.get(i), productRequestList.get(i).getStock());
+                    }
+                    inventoryLedger.record(InventoryLedger.stocks(InventoryMovementReason.PRODUCT_CREATED, stockByProductId));
+                    return createdIdList;
+                });
+                for (int i = 0; i < pendingResultList.size(); i++) {
+                    pendingResultList.get(i).setProductId(productIdList.get(i));
+                }
+            } catch (DataAccessException e) {
+                for (ProductImportResult result : pendingResultList) {
+                    result.setStatus(ProductImportResult.Status.FAILED);
+                    result.setErrors(List.of(e.getMostSpecificCause().getMessage()));
+                }
+            }
+        }
+        resultList.forEach(resultConsumer);
+
+        resultList.clear();
+        productRequestList.clear();
+        pendingResultList.clear();
+    }
+
+    @Override
+    public ProductFacetResult getProductFacets(String search) {
+        // 不帶搜尋條件時直接回傳持續維護的統計，不必查詢
+        if (search == null && productFacetCounter.isReady()) {
+            return productFacetCounter.snapshot();
+        }
+
+        ProductQueryParams productQueryParams = new ProductQueryParams();
+        productQueryParams.setSearch(search);
+        if (productSearchIndex.canSearch(search)) {
+            return productFacetCounter.count(consumer -> productSearchIndex.matchProducts(productQueryParams).forEach(consumer));
+        }
+        // 沒有索引可用時逐筆讀取符合條件的商品計算，不整批載入記憶體
+        return productFacetCounter.count(consumer -> productDao.streamProducts(productQueryParams, consumer));
+    }
+
+    // 資料庫無法依相關度排序，改用預設的建立時間排序
+    private ProductQueryParams withDatabaseOrder(ProductQueryParams productQueryParams) {
+        if (RELEVANCE.equals(productQueryParams.getOrderBy())) {
+            productQueryParams.setOrderBy("created_date");
+        }
+        return productQueryParams;
+    }
 }
@@ -0,0 +1,177 @@
+package com.jensen.springbootmall.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// 簡易的行程內快取：依容量做 LRU 淘汰、依存活時間（TTL）過期，並可快取 null（查無資料）結果
+public class LocalCache<K, V> {
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+
+    // accessOrder = true，讓最久未使用的項目排在最前面，方便 LRU 淘汰
+    private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+
+    // 每次失效都會遞增，用來避免「讀取途中被失效」的舊資料又被放回快取
+    private long invalidationCount = 0;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    public LocalCache(int maxSize, long ttlMillis, long negativeTtlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+    }
+
+    // 從快取取值，沒有命中時呼叫 loader 載入（loader 回傳 null 也會被快取為「查無資料」）
+    public V get(K key, Function<K, V> loader) {
+        long invalidationSnapshot;
+        synchronized (this) {
+            Entry<V> entry = map.get(key);
+            if (entry != null) {
+                if (!entry.isExpired()) {
+                    hitCount++;
+                    return entry.value;
+                }
+                map.remove(key);
+                evictionCount++;
+            }
+            missCount++;
+            invalidationSnapshot = invalidationCount;
+        }
+
+        // 在鎖外載入，避免資料庫查詢期間阻塞其他讀取
+        V value = loader.apply(key);
+
+        synchronized (this) {
+            // 載入期間若有失效發生，這筆資料可能已過時，不放入快取
+            if (invalidationSnapshot == invalidationCount) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    // 一次取多個 key：命中的直接回傳，沒有命中的整批交給 loader 一次載入
+    // loader 回傳的 Map 中沒有的 key 視為查無資料（同樣會被快取）；回傳結果中查無資料的 key 對應 null
+    public Map<K, V> getAll(Collection<K> keys, Function<List<K>, Map<K, V>> loader) {
+        Map<K, V> result = new HashMap<>();
+        List<K> missingKeys = new ArrayList<>();
+        long invalidationSnapshot;
+        synchronized (this) {
+            for (K key : keys) {
+                Entry<V> entry = map.get(key);
+                if (entry != null) {
+                    if (!entry.isExpired()) {
+                        hitCount++;
+                        result.put(key, entry.value);
+                        continue;
+                    }
+                    map.remove(key);
+                    evictionCount++;
+                }
+                missCount++;
+                missingKeys.add(key);
+            }
+            invalidationSnapshot = invalidationCount;
+        }
+        if (missingKeys.isEmpty()) {
+            return result;
+        }
+
+        // 在鎖外載入，避免資料庫查詢期間阻塞其他讀取
+        Map<K, V> loaded = loader.apply(missingKeys);
+
+        synchronized (this) {
+            for (K key : missingKeys) {
+                V value = loaded.get(key);
+                result.put(key, value);
+                // 載入期間若有失效發生，這批資料可能已過時，不放入快取
+                if (invalidationSnapshot == invalidationCount) {
+                    put(key, value);
+                }
+            }
+        }
+        return result;
+    }
+
+    // 只查快取、不載入；沒有命中（或命中的是查無資料）時回傳 null
+    public synchronized V getIfPresent(K key) {
+        Entry<V> entry = map.get(key);
+        if (entry == null || entry.isExpired()) {
+            return null;
+        }
+        return entry.value;
+    }
+
+    public synchronized void invalidate(K key) {
+        invalidationCount++;
+        map.remove(key);
+    }
+
+    public synchronized void invalidateIf(Predicate<K> predicate) {
+        invalidationCount++;
+        map.keySet().removeIf(predicate);
+    }
+
+    public synchronized void invalidateAll() {
+        invalidationCount++;
+        map.clear();
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    private void put(K key, V value) {
+        long ttl = value != null ? ttlMillis : negativeTtlMillis;
+        if (ttl <= 0) {
+            return;
+        }
+        map.put(key, new Entry<>(value, System.currentTimeMillis() + ttl));
+
+        // 超過容量時淘汰最久未使用的項目
+        Iterator<Map.Entry<K, Entry<V>>> iterator = map.entrySet().iterator();
+        while (map.size() > maxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expireAt;
+
+        private Entry(V value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= expireAt;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.jensen.springbootmall.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+// 本機的 append-only 日誌：每行一筆 JSON 紀錄（NDJSON），寫入後 fsync，重啟時重播以恢復記憶體中的狀態
+public class NdjsonJournal<T> implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(NdjsonJournal.class);
+
+    private final Path path;
+    private final ObjectMapper objectMapper;
+    private final Class<T> recordType;
+    private FileChannel channel;
+
+    public NdjsonJournal(Path path, ObjectMapper objectMapper, Class<T> recordType) {
+        this.path = path;
+        this.objectMapper = objectMapper;
+        this.recordType = recordType;
+    }
+
+    // 讀取日誌中的所有紀錄；最後一行可能因當機只寫了一半，無法解析的行略過
+    public synchronized List<T> replay() throws IOException {
+        List<T> recordList = new ArrayList<>();
+        if (!Files.exists(path)) {
+            return recordList;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    recordList.add(objectMapper.readValue(line, recordType));
+                } catch (JsonProcessingException e) {
+                    log.warn("略過無法解析的下單日誌紀錄：{}", line);
+                }
+            }
+        }
+        return recordList;
+    }
+
+    // 以只含指定紀錄的新檔案原子地取代日誌，然後（重新）開啟日誌供後續寫入；也用於壓縮已開啟的日誌
+    public synchronized void open(List<T> retainedRecordList) throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel tempChannel = FileChannel.open(tempPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(tempChannel, retainedRecordList);
+            tempChannel.force(false);
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // 寫入一批紀錄並 fsync，一批只 fsync 一次
+    public synchronized void append(List<T> recordList) {
+        try {
+            write(channel, recordList);
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // 日誌中的紀錄都已不再需要（idle 為 true）且日誌超過指定大小時清空日誌，避免檔案無限增長
+    // 在同一把鎖內確認 idle，避免清掉剛寫入的紀錄
+    public synchronized void truncateIfIdle(BooleanSupplier idle, long thresholdBytes) {
+        try {
+            if (channel.size() >= thresholdBytes && idle.getAsBoolean()) {
+                channel.truncate(0);
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            log.warn("清空下單日誌失敗", e);
+        }
+    }
+
+    public synchronized long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private void write(FileChannel fileChannel, List<T> recordList) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (T record : recordList) {
+            lines.append(objectMapper.writeValueAsString(record)).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            fileChannel.write(buffer);
+        }
+    }
+}
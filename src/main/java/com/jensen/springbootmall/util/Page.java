@@ -7,7 +7,11 @@ public class Page<T> {
     private Integer limit;
     private Integer offset;
     private Integer total;
+    // 是否還有下一頁（不計算 total 時，前端可依此判斷是否繼續載入）
+    private Boolean hasMore;
     private List<T> results;
+    // 游標分頁時的下一頁游標，沒有下一頁時為 null
+    private String nextCursor;
 
     public Integer getLimit() {
         return limit;
@@ -33,6 +37,14 @@ public class Page<T> {
         this.total = total;
     }
 
+    public Boolean getHasMore() {
+        return hasMore;
+    }
+
+    public void setHasMore(Boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+
     public List<T> getResults() {
         return results;
     }
@@ -40,4 +52,12 @@ public class Page<T> {
     public void setResults(List<T> results) {
         this.results = results;
     }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
 }
@@ -0,0 +1,70 @@
+package com.jensen.springbootmall.util;
+
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// 將互不相依的查詢（例如列表與總數）丟到執行緒池同時執行，並在期限內收回結果
+public class ParallelQueries {
+
+    private ParallelQueries() {
+    }
+
+    // 交給執行緒池執行；執行緒池已滿時直接在目前執行緒執行（退化為循序查詢），不讓請求失敗
+    // 目前執行緒在交易中時也在原執行緒執行，其他執行緒拿不到同一條連線，會讀不到交易內尚未提交的資料
+    public static <T> Future<T> submit(AsyncTaskExecutor executor, Callable<T> query) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return callInline(query);
+        }
+        try {
+            return executor.submit(query);
+        } catch (TaskRejectedException e) {
+            return callInline(query);
+        }
+    }
+
+    // 在期限（System.nanoTime() 的時間點）前取得結果；
+    // 逾時或失敗時一併取消其他仍在執行的查詢，避免白白佔用資料庫連線
+    public static <T> T await(Future<T> future, long deadlineNanos, Future<?>... others) {
+        try {
+            return future.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            cancel(future, others);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "查詢逾時");
+        } catch (ExecutionException e) {
+            cancel(future, others);
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel(future, others);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "查詢被中斷");
+        }
+    }
+
+    private static <T> Future<T> callInline(Callable<T> query) {
+        try {
+            return CompletableFuture.completedFuture(query.call());
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static void cancel(Future<?> future, Future<?>... others) {
+        future.cancel(true);
+        for (Future<?> other : others) {
+            other.cancel(true);
+        }
+    }
+}
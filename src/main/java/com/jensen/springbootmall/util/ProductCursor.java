@@ -0,0 +1,117 @@
+package com.jensen.springbootmall.util;
+
+import com.jensen.springbootmall.constant.ProductSortColumn;
+import com.jensen.springbootmall.model.Product;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+// 商品列表的 keyset（seek）分頁游標：記錄上一頁最後一筆的（排序欄位值, product_id）
+// 對前端而言是不透明的字串，只需原封不動帶回下一次請求
+public class ProductCursor {
+
+    private enum ValueType { INT, TIMESTAMP }
+
+    // 可用游標分頁的排序欄位：即商品列表允許的排序欄位（皆為 NOT NULL 欄位，才能用比較運算往下翻頁）
+    private static final Map<String, ValueType> COLUMN_TYPES = new HashMap<>();
+
+    static {
+        for (ProductSortColumn sortColumn : ProductSortColumn.values()) {
+            COLUMN_TYPES.put(sortColumn.getColumn(), valueType(sortColumn));
+        }
+    }
+
+    private final String orderBy;
+    private final String sort;
+    private final Object value;
+    private final Integer productId;
+
+    private ProductCursor(String orderBy, String sort, Object value, Integer productId) {
+        this.orderBy = orderBy;
+        this.sort = sort;
+        this.value = value;
+        this.productId = productId;
+    }
+
+    // 新增排序欄位時編譯器會要求在這裡指定游標值的型別
+    private static ValueType valueType(ProductSortColumn sortColumn) {
+        return switch (sortColumn) {
+            case PRODUCT_ID, PRICE -> ValueType.INT;
+            case CREATED_DATE -> ValueType.TIMESTAMP;
+        };
+    }
+
+    public static boolean supports(String orderBy, String sort) {
+        return COLUMN_TYPES.containsKey(orderBy) && ("asc".equals(sort) || "desc".equals(sort));
+    }
+
+    // 以一頁中的最後一筆商品產生下一頁的游標
+    public static ProductCursor of(String orderBy, String sort, Product last) {
+        return new ProductCursor(orderBy, sort, sortValue(orderBy, last), last.getProductId());
+    }
+
+    // 取得商品在指定排序欄位上的值（與資料庫欄位值相同型別，可直接比較）
+    public static Comparable<?> sortValue(String orderBy, Product product) {
+        ProductSortColumn sortColumn = ProductSortColumn.of(orderBy);
+        if (sortColumn == null) {
+            throw new IllegalArgumentException("不支援游標分頁的排序欄位：" + orderBy);
+        }
+        return switch (sortColumn) {
+            case PRODUCT_ID -> product.getProductId();
+            case PRICE -> product.getPrice();
+            case CREATED_DATE -> product.getCreatedDate();
+        };
+    }
+
+    // 解析前端帶回的游標字串，格式不正確時拋出 IllegalArgumentException
+    public static ProductCursor decode(String cursor) {
+        String raw;
+        try {
+            raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("游標格式不正確", e);
+        }
+
+        // 排序值放在最後，避免商品名稱中的分隔符號影響解析
+        String[] parts = raw.split("\\|", 4);
+        if (parts.length != 4 || !supports(parts[0], parts[1])) {
+            throw new IllegalArgumentException("游標格式不正確");
+        }
+
+        try {
+            Integer productId = Integer.valueOf(parts[2]);
+            Object value = switch (COLUMN_TYPES.get(parts[0])) {
+                case INT -> Integer.valueOf(parts[3]);
+                case TIMESTAMP -> new Date(Long.parseLong(parts[3]));
+            };
+            return new ProductCursor(parts[0], parts[1], value, productId);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("游標格式不正確", e);
+        }
+    }
+
+    public String encode() {
+        String valueText = value instanceof Date date ? String.valueOf(date.getTime()) : String.valueOf(value);
+        String raw = orderBy + "|" + sort + "|" + productId + "|" + valueText;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public String getOrderBy() {
+        return orderBy;
+    }
+
+    public String getSort() {
+        return sort;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    public Integer getProductId() {
+        return productId;
+    }
+}
@@ -0,0 +1,51 @@
+package com.jensen.springbootmall.util;
+
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import com.jensen.springbootmall.constant.ProductField;
+
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+// fields 參數（例如 fields=productName,price）的解析，以及對應的 JSON 輸出過濾
+public class ProductFields {
+
+    // Product 上 @JsonFilter 使用的過濾器名稱
+    public static final String FILTER_ID = "productFilter";
+
+    private ProductFields() {
+    }
+
+    // 解析以逗號分隔的 JSON 屬性名稱；productId 一律包含（分頁游標與前端識別都需要）
+    // 有不認得的名稱時拋出 IllegalArgumentException
+    public static Set<ProductField> parse(String fields) {
+        Set<ProductField> fieldSet = EnumSet.of(ProductField.PRODUCT_ID);
+        for (String property : fields.split(",")) {
+            property = property.trim();
+            if (property.isEmpty()) {
+                continue;
+            }
+            ProductField field = ProductField.ofProperty(property);
+            if (field == null) {
+                throw new IllegalArgumentException("不支援的欄位：" + property);
+            }
+            fieldSet.add(field);
+        }
+        return fieldSet;
+    }
+
+    // 只輸出指定欄位的過濾設定；fieldSet 為 null 時輸出全部欄位
+    public static FilterProvider filterProvider(Set<ProductField> fieldSet) {
+        SimpleFilterProvider filterProvider = new SimpleFilterProvider().setDefaultFilter(SimpleBeanPropertyFilter.serializeAll());
+        if (fieldSet == null) {
+            return filterProvider.addFilter(FILTER_ID, SimpleBeanPropertyFilter.serializeAll());
+        }
+        Set<String> properties = new HashSet<>();
+        for (ProductField field : fieldSet) {
+            properties.add(field.getProperty());
+        }
+        return filterProvider.addFilter(FILTER_ID, SimpleBeanPropertyFilter.filterOutAllExcept(properties));
+    }
+}
@@ -0,0 +1,138 @@
+package com.jensen.springbootmall.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.JsonPath;
+import com.jensen.springbootmall.QueryCounter;
+import com.jensen.springbootmall.dto.CreateCartItemRequest;
+import com.jensen.springbootmall.dto.UpdateCartItemRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class CartControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private QueryCounter queryCounter;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    private ObjectMapper objectMapper = new ObjectMapper();
+
+    // 新增、累加、修改購物車項目都直接回傳更新後的項目，不再於寫入後查詢一次
+    @Transactional
+    @Test
+    public void addAndUpdateCartItem_queryCount() throws Exception {
+        // 先查詢一次，讓商品進入快取
+        mockMvc.perform(MockMvcRequestBuilders.get("/products/{productId}", 1))
+                .andExpect(status().isOk());
+
+        CreateCartItemRequest createCartItemRequest = new CreateCartItemRequest();
+        createCartItemRequest.setProductId(1);
+        createCartItemRequest.setQuantity(2);
+
+        queryCounter.reset();
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.post("/users/{userId}/cart", 1)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(createCartItemRequest)))
+                .andExpect(status().is(201))
+                .andExpect(jsonPath("$.cartItemId", notNullValue()))
+                .andExpect(jsonPath("$.quantity", equalTo(2)))
+                .andExpect(jsonPath("$.productName", notNullValue()))
+                .andExpect(jsonPath("$.unitPrice", equalTo(30)))
+                .andExpect(jsonPath("$.totalPrice", equalTo(60)))
+                .andReturn();
+        // 以一個 MERGE 新增並取回項目
+        assertEquals(1, queryCounter.getStatementCount());
+        Integer cartItemId = JsonPath.read(result.getResponse().getContentAsString(), "$.cartItemId");
+
+        queryCounter.reset();
+        mockMvc.perform(MockMvcRequestBuilders.post("/users/{userId}/cart", 1)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(createCartItemRequest)))
+                .andExpect(status().is(201))
+                .andExpect(jsonPath("$.cartItemId", equalTo(cartItemId)))
+                .andExpect(jsonPath("$.quantity", equalTo(4)));
+        // 同一個 MERGE 累加數量並取回項目
+        assertEquals(1, queryCounter.getStatementCount());
+
+        UpdateCartItemRequest updateCartItemRequest = new UpdateCartItemRequest();
+        updateCartItemRequest.setQuantity(1);
+
+        queryCounter.reset();
+        mockMvc.perform(MockMvcRequestBuilders.put("/users/{userId}/cart/{cartItemId}", 1, cartItemId)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(updateCartItemRequest)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.quantity", equalTo(1)))
+                .andExpect(jsonPath("$.productName", notNullValue()))
+                .andExpect(jsonPath("$.totalPrice", equalTo(30)));
+        // 查詢項目、修改數量各一次
+        assertEquals(2, queryCounter.getStatementCount());
+    }
+
+    // 同時加入同一商品只會有一筆項目，數量為所有請求的總和
+    @Test
+    public void addCartItem_concurrent() throws Exception {
+        CreateCartItemRequest createCartItemRequest = new CreateCartItemRequest();
+        createCartItemRequest.setProductId(2);
+        createCartItemRequest.setQuantity(1);
+        String json = objectMapper.writeValueAsString(createCartItemRequest);
+
+        int requestCount = 8;
+        ExecutorService executorService = Executors.newFixedThreadPool(requestCount);
+        try {
+            CountDownLatch startLatch = new CountDownLatch(1);
+            List<Future<?>> futureList = new ArrayList<>();
+            for (int i = 0; i < requestCount; i++) {
+                futureList.add(executorService.submit(() -> {
+                    startLatch.await();
+                    mockMvc.perform(MockMvcRequestBuilders.post("/users/{userId}/cart", 2)
+                                    .contentType(MediaType.APPLICATION_JSON)
+                                    .content(json))
+                            .andExpect(status().is(201));
+                    return null;
+                }));
+            }
+            startLatch.countDown();
+            for (Future<?> future : futureList) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+
+            List<Integer> quantityList = namedParameterJdbcTemplate.queryForList(
+                    "select quantity from cart_item where user_id = 2 and product_id = 2", Map.of(), Integer.class);
+            assertEquals(List.of(requestCount), quantityList);
+        } finally {
+            executorService.shutdownNow();
+
+            // 還原測試資料
+            namedParameterJdbcTemplate.update("delete from cart_item where user_id = 2", Map.of());
+        }
+    }
+}
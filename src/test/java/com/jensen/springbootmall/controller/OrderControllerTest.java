@@ -1,23 +1,53 @@
 package com.jensen.springbootmall.controller;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jensen.springbootmall.QueryCounter;
+import com.jensen.springbootmall.dao.ProductDao;
 import com.jensen.springbootmall.dto.BuyItem;
 import com.jensen.springbootmall.dto.CreateOrderRequest;
+import com.jensen.springbootmall.inventory.HotInventory;
+import com.jensen.springbootmall.inventory.InventoryLedger;
+import com.jensen.springbootmall.inventory.StockShards;
+import com.jensen.springbootmall.queue.OrderGroupCommitter;
+import com.jensen.springbootmall.service.impl.OrderServiceImpl;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.RequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -28,6 +58,36 @@ public class OrderControllerTest {
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private ProductDao productDao;
+
+    @Autowired
+    private QueryCounter queryCounter;
+
+    @Autowired
+    private OrderGroupCommitter orderGroupCommitter;
+
+    @Autowired
+    private HotInventory hotInventory;
+
+    @Autowired
+    private StockShards stockShards;
+
+    @Autowired
+    private InventoryLedger inventoryLedger;
+
+    @Autowired
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    private OrderServiceImpl orderServiceImpl;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${mall.hot-inventory.journal-path}")
+    private String journalPath;
+
     private ObjectMapper objectMapper = new ObjectMapper();
 
     // 創建訂單
@@ -66,6 +126,65 @@ public class OrderControllerTest {
                 .andExpect(jsonPath("$.lastModifiedDate", notNullValue()));
     }
 
+    // 創建訂單直接回傳組好的訂單與訂單項目，不再於寫入後查詢訂單
+    @Transactional
+    @Test
+    public void createOrder_queryCount() throws Exception {
+        CreateOrderRequest createOrderRequest = new CreateOrderRequest();
+        List<BuyItem> buyItemList = new ArrayList<>();
+        for (int productId = 1; productId <= 2; productId++) {
+            BuyItem buyItem = new BuyItem();
+            buyItem.setProductId(productId);
+            buyItem.setQuantity(1);
+            buyItemList.add(buyItem);
+        }
+        createOrderRequest.setBuyItemList(buyItemList);
+
+        queryCounter.reset();
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .post("/users/{userId}/orders", 1)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(createOrderRequest)))
+                .andExpect(status().is(201))
+                .andExpect(jsonPath("$.itemCount", equalTo(2)))
+                .andExpect(jsonPath("$.orderItemList", hasSize(2)))
+                .andExpect(jsonPath("$.orderItemList[0].orderItemId", notNullValue()))
+                .andExpect(jsonPath("$.orderItemList[0].productName", notNullValue()))
+                .andExpect(jsonPath("$.orderItemList[0].imageUrl", notNullValue()));
+
+        // 查詢用戶、查詢庫存分片、鎖定商品、扣庫存、新增訂單、新增訂單項目、記錄庫存異動各一次
+        assertEquals(7, queryCounter.getStatementCount());
+    }
+
+    // 不在測試交易中執行，交易提交後的事件處理（快取、搜尋索引、篩選統計）也計入
+    @Test
+    public void createOrder_queryCountAfterCommit() throws Exception {
+        int stock2 = productDao.getProductById(2).getStock();
+        List<Integer> orderIdList = new ArrayList<>();
+        try {
+            queryCounter.reset();
+            orderIdList.add(createOrder(buyOneOf(2)));
+
+            // 與在交易中執行時相同；只有庫存變動時搜尋索引不在提交後讀回商品
+            assertEquals(7, queryCounter.getStatementCount());
+
+            // 下一次由搜尋索引回答查詢時讀回庫存變動的商品
+            mockMvc.perform(MockMvcRequestBuilders.get("/products").param("search", "北海道"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.results[0].productId", equalTo(2)))
+                    .andExpect(jsonPath("$.results[0].stock", equalTo(stock2 - 1)));
+        } finally {
+            // 還原測試資料
+            if (!orderIdList.isEmpty()) {
+                Map<String, Object> map = Map.of("orderIds", orderIdList);
+                namedParameterJdbcTemplate.update("delete from order_item where order_id in (:orderIds)", map);
+                namedParameterJdbcTemplate.update("delete from `order` where order_id in (:orderIds)", map);
+            }
+            productDao.updateStock(2, stock2);
+        }
+    }
+
     @Transactional
     @Test
     public void createOrder_illegalArgument_emptyBuyItemList() throws Exception {
@@ -156,11 +275,666 @@ public class OrderControllerTest {
                 .andExpect(status().is(400));
     }
 
+    @Transactional
+    @Test
+    public void createOrder_decreaseStock() throws Exception {
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/products/{productId}", 1))
+                .andExpect(status().isOk())
+                .andReturn();
+        int stock = objectMapper.readTree(result.getResponse().getContentAsString()).get("stock").asInt();
+
+        CreateOrderRequest createOrderRequest = new CreateOrderRequest();
+        BuyItem buyItem1 = new BuyItem();
+        buyItem1.setProductId(1);
+        buyItem1.setQuantity(3);
+        createOrderRequest.setBuyItemList(List.of(buyItem1));
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .post("/users/{userId}/orders", 1)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(createOrderRequest)))
+                .andExpect(status().is(201))
+                .andExpect(jsonPath("$.orderItemList[0].amount", equalTo(90)));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/products/{productId}", 1))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.stock", equalTo(stock - 3)));
+    }
+
+    @Transactional
+    @Test
+    public void createOrder_mergeDuplicateItems() throws Exception {
+        CreateOrderRequest createOrderRequest = new CreateOrderRequest();
+        List<BuyItem> buyItemList = new ArrayList<>();
+
+        BuyItem buyItem1 = new BuyItem();
+        buyItem1.setProductId(1);
+        buyItem1.setQuantity(2);
+        buyItemList.add(buyItem1);
+
+        BuyItem buyItem2 = new BuyItem();
+        buyItem2.setProductId(1);
+        buyItem2.setQuantity(3);
+        buyItemList.add(buyItem2);
+
+        createOrderRequest.setBuyItemList(buyItemList);
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .post("/users/{userId}/orders", 1)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(createOrderRequest)))
+                .andExpect(status().is(201))
+                .andExpect(jsonPath("$.totalAmount", equalTo(150)))
+                .andExpect(jsonPath("$.orderItemList", hasSize(1)))
+                .andExpect(jsonPath("$.orderItemList[0].quantity", equalTo(5)));
+    }
+
+    // 多個請求同時以不同順序購買重疊的商品：不會死結，且庫存扣除的總數正確
+    @Test
+    public void createOrder_concurrentOverlappingBaskets() throws Exception {
+        List<List<Integer>> baskets = List.of(List.of(1, 2, 3), List.of(3, 2, 1), List.of(2, 3, 1, 3));
+        int threadCount = 8;
+        int ordersPerThread = 5;
+
+        Map<Integer, Integer> originalStocks = new HashMap<>();
+        for (Integer productId : List.of(1, 2, 3)) {
+            originalStocks.put(productId, productDao.getProductById(productId).getStock());
+            productDao.updateStock(productId, 1000);
+        }
+
+        List<Integer> orderIdList = Collections.synchronizedList(new ArrayList<>());
+        Map<Integer, Integer> expectedQuantities = new ConcurrentHashMap<>();
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            CountDownLatch startLatch = new CountDownLatch(1);
+            List<Future<?>> futureList = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                List<Integer> basket = baskets.get(i % baskets.size());
+                futureList.add(executorService.submit(() -> {
+                    startLatch.await();
+                    for (int j = 0; j < ordersPerThread; j++) {
+                        CreateOrderRequest createOrderRequest = new CreateOrderRequest();
+                        List<BuyItem> buyItemList = new ArrayList<>();
+                        for (Integer productId : basket) {
+                            BuyItem buyItem = new BuyItem();
+                            buyItem.setProductId(productId);
+                            buyItem.setQuantity(1);
+                            buyItemList.add(buyItem);
+                            expectedQuantities.merge(productId, 1, Integer::sum);
+                        }
+                        createOrderRequest.setBuyItemList(buyItemList);
+
+                        MvcResult result = mockMvc.perform(MockMvcRequestBuilders
+                                        .post("/users/{userId}/orders", 1)
+                                        .contentType(MediaType.APPLICATION_JSON)
+                                        .content(objectMapper.writeValueAsString(createOrderRequest)))
+                                .andExpect(status().is(201))
+                                .andReturn();
+                        orderIdList.add(objectMapper.readTree(result.getResponse().getContentAsString()).get("orderId").asInt());
+                    }
+                    return null;
+                }));
+            }
+            startLatch.countDown();
+            for (Future<?> future : futureList) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+
+            assertEquals(threadCount * ordersPerThread, orderIdList.size());
+            for (Integer productId : List.of(1, 2, 3)) {
+                assertEquals(1000 - expectedQuantities.get(productId), productDao.getProductById(productId).getStock());
+            }
+        } finally {
+            executorService.shutdownNow();
+
+            // 還原測試資料
+            if (!orderIdList.isEmpty()) {
+                Map<String, Object> map = Map.of("orderIds", orderIdList);
+                namedParameterJdbcTemplate.update("delete from order_item where order_id in (:orderIds)", map);
+                namedParameterJdbcTemplate.update("delete from `order` where order_id in (:orderIds)", map);
+            }
+            originalStocks.forEach(productDao::updateStock);
+        }
+    }
+
+    // 非同步下單：立即返回 202 與狀態查詢網址，由工作執行緒建立訂單
+    @Test
+    public void createOrder_async() throws Exception {
+        int stock = productDao.getProductById(3).getStock();
+
+        CreateOrderRequest createOrderRequest = new CreateOrderRequest();
+        BuyItem buyItem1 = new BuyItem();
+        buyItem1.setProductId(3);
+        buyItem1.setQuantity(2);
+        createOrderRequest.setBuyItemList(List.of(buyItem1));
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders
+                        .post("/users/{userId}/orders", 1)
+                        .param("async", "true")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(createOrderRequest)))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string(HttpHeaders.LOCATION, startsWith("/users/1/orders/requests/")))
+                .andExpect(jsonPath("$.requestId", notNullValue()))
+                .andReturn();
+        String statusUrl = result.getResponse().getHeader(HttpHeaders.LOCATION);
+
+        Integer orderId = null;
+        try {
+            // 輪詢處理狀態直到訂單建立
+            String status = null;
+            for (int i = 0; i < 100 && !"CREATED".equals(status); i++) {
+                Thread.sleep(50);
+                JsonNode statusNode = objectMapper.readTree(mockMvc.perform(MockMvcRequestBuilders.get(statusUrl))
+                        .andExpect(status().isOk())
+                        .andReturn().getResponse().getContentAsString());
+                status = statusNode.get("status").asText();
+                if (statusNode.has("orderId")) {
+                    orderId = statusNode.get("orderId").asInt();
+                }
+            }
+            assertEquals("CREATED", status);
+
+            mockMvc.perform(MockMvcRequestBuilders.get("/users/{userId}/orders/{orderId}", 1, orderId))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.totalAmount", equalTo(20)))
+                    .andExpect(jsonPath("$.orderItemList", hasSize(1)));
+
+            // 訂單與 Idempotency-Key 一起寫入，重啟後再處理同一筆請求時不會重複建立訂單
+            String requestId = statusUrl.substring(statusUrl.lastIndexOf('/') + 1);
+            assertEquals(List.of(orderId), namedParameterJdbcTemplate.queryForList(
+                    "select order_id from order_idempotency_key where user_id = 1 and idempotency_key = :key",
+                    Map.of("key", "order-queue:" + requestId), Integer.class));
+
+            // 其他用戶查不到這筆請求
+            mockMvc.perform(MockMvcRequestBuilders.get(statusUrl.replace("/users/1/", "/users/2/")))
+                    .andExpect(status().isNotFound());
+        } finally {
+            // 還原測試資料
+            if (orderId != null) {
+                Map<String, Object> map = Map.of("orderId", orderId);
+                namedParameterJdbcTemplate.update("delete from order_item where order_id = :orderId", map);
+                namedParameterJdbcTemplate.update("delete from `order` where order_id = :orderId", map);
+                namedParameterJdbcTemplate.update("delete from order_idempotency_key where order_id = :orderId", map);
+            }
+            productDao.updateStock(3, stock);
+        }
+    }
+
+    // 非同步下單帶相同 Idempotency-Key 重送時，兩筆請求得到同一筆訂單，只扣一次庫存
+    @Test
+    public void createOrder_async_idempotencyKey() throws Exception {
+        int stock = productDao.getProductById(3).getStock();
+        String idempotencyKey = UUID.randomUUID().toString();
+
+        CreateOrderRequest createOrderRequest = new CreateOrderRequest();
+        BuyItem buyItem1 = new BuyItem();
+        buyItem1.setProductId(3);
+        buyItem1.setQuantity(2);
+        createOrderRequest.setBuyItemList(List.of(buyItem1));
+
+        Set<Integer> orderIdSet = new HashSet<>();
+        try {
+            for (int i = 0; i < 2; i++) {
+                String statusUrl = mockMvc.perform(MockMvcRequestBuilders
+                                .post("/users/{userId}/orders", 1)
+                                .param("async", "true")
+                                .header("Idempotency-Key", idempotencyKey)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(objectMapper.writeValueAsString(createOrderRequest)))
+                        .andExpect(status().isAccepted())
+                        .andReturn().getResponse().getHeader(HttpHeaders.LOCATION);
+                JsonNode statusNode = awaitRequestProcessed(statusUrl);
+                assertEquals("CREATED", statusNode.get("status").asText());
+                orderIdSet.add(statusNode.get("orderId").asInt());
+            }
+
+            assertEquals(1, orderIdSet.size());
+            assertEquals(stock - 2, productDao.getProductById(3).getStock());
+        } finally {
+            // 還原測試資料
+            if (!orderIdSet.isEmpty()) {
+                Map<String, Object> map = Map.of("orderIds", orderIdSet);
+                namedParameterJdbcTemplate.update("delete from order_item where order_id in (:orderIds)", map);
+                namedParameterJdbcTemplate.update("delete from `order` where order_id in (:orderIds)", map);
+            }
+            namedParameterJdbcTemplate.update("delete from order_idempotency_key where idempotency_key = :idempotencyKey",
+                    Map.of("idempotencyKey", idempotencyKey));
+            productDao.updateStock(3, stock);
+        }
+    }
+
+    // 輪詢非同步下單的處理狀態，直到不再是 QUEUED / PROCESSING
+    private JsonNode awaitRequestProcessed(String statusUrl) throws Exception {
+        JsonNode statusNode = null;
+        for (int i = 0; i < 100; i++) {
+            Thread.sleep(50);
+            statusNode = objectMapper.readTree(mockMvc.perform(MockMvcRequestBuilders.get(statusUrl))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString());
+            String status = statusNode.get("status").asText();
+            if (!"QUEUED".equals(status) && !"PROCESSING".equals(status)) {
+                break;
+            }
+        }
+        return statusNode;
+    }
+
+    // 非同步下單在排入佇列前仍會驗證用戶與商品
+    @Test
+    public void createOrder_async_productNotExist() throws Exception {
+        CreateOrderRequest createOrderRequest = new CreateOrderRequest();
+        BuyItem buyItem1 = new BuyItem();
+        buyItem1.setProductId(100);
+        buyItem1.setQuantity(1);
+        createOrderRequest.setBuyItemList(List.of(buyItem1));
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .post("/users/{userId}/orders", 1)
+                        .param("async", "true")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(createOrderRequest)))
+                .andExpect(status().isBadRequest());
+    }
+
+    // 以相同的 Idempotency-Key 重送時返回同一筆訂單，不會重複扣庫存
+    @Transactional
+    @Test
+    public void createOrder_idempotencyKey_replay() throws Exception {
+        int stock = productDao.getProductById(1).getStock();
+        String idempotencyKey = UUID.randomUUID().toString();
+        String json = objectMapper.writeValueAsString(buyOneOf(1));
+
+        int orderId = createOrderWithKey(json, idempotencyKey);
+        assertEquals(orderId, createOrderWithKey(json, idempotencyKey));
+
+        assertEquals(stock - 1, productDao.getProductById(1).getStock());
+    }
+
+    @Transactional
+    @Test
+    public void createOrder_idempotencyKey_differentRequest() throws Exception {
+        String idempotencyKey = UUID.randomUUID().toString();
+        createOrderWithKey(objectMapper.writeValueAsString(buyOneOf(1)), idempotencyKey);
+
+        mockMvc.perform(MockMvcRequestBuilders
+                        .post("/users/{userId}/orders", 1)
+                        .header("Idempotency-Key", idempotencyKey)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(buyOneOf(2))))
+                .andExpect(status().is(422));
+    }
+
+    // 同時送達的重複請求等待第一個請求的結果，只建立一筆訂單
+    @Test
+    public void createOrder_idempotencyKey_concurrentDuplicates() throws Exception {
+        int stock = productDao.getProductById(3).getStock();
+        String idempotencyKey = UUID.randomUUID().toString();
+        String json = objectMapper.writeValueAsString(buyOneOf(3));
+        int threadCount = 8;
+
+        Set<Integer> orderIds = ConcurrentHashMap.newKeySet();
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            CountDownLatch startLatch = new CountDownLatch(1);
+            List<Future<?>> futureList = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                futureList.add(executorService.submit(() -> {
+                    startLatch.await();
+                    orderIds.add(createOrderWithKey(json, idempotencyKey));
+                    return null;
+                }));
+            }
+            startLatch.countDown();
+            for (Future<?> future : futureList) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+
+            assertEquals(1, orderIds.size());
+            assertEquals(stock - 1, productDao.getProductById(3).getStock());
+        } finally {
+            executorService.shutdownNow();
+
+            // 還原測試資料
+            if (!orderIds.isEmpty()) {
+                Map<String, Object> map = Map.of("orderIds", orderIds);
+                namedParameterJdbcTemplate.update("delete from order_item where order_id in (:orderIds)", map);
+                namedParameterJdbcTemplate.update("delete from `order` where order_id in (:orderIds)", map);
+            }
+            namedParameterJdbcTemplate.update("delete from order_idempotency_key where idempotency_key = :idempotencyKey",
+                    Map.of("idempotencyKey", idempotencyKey));
+            productDao.updateStock(3, stock);
+        }
+    }
+
+    // 群組提交：同一批中庫存不足的訂單個別被拒絕，其餘訂單照常建立
+    @Test
+    public void createOrder_groupCommit() throws Exception {
+        int stock1 = productDao.getProductById(1).getStock();
+        int stock3 = productDao.getProductById(3).getStock();
+        productDao.updateStock(1, 5);
+
+        List<CreateOrderRequest> requestList = List.of(buyOneOf(1, 3), buyOneOf(1, 3), buyOneOf(3, 1));
+        List<Integer> orderIdList = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> rejectedStatusList = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executorService = Executors.newFixedThreadPool(requestList.size());
+        try {
+            CountDownLatch startLatch = new CountDownLatch(1);
+            List<Future<?>> futureList = new ArrayList<>();
+            for (CreateOrderRequest createOrderRequest : requestList) {
+                futureList.add(executorService.submit(() -> {
+                    startLatch.await();
+                    try {
+                        orderIdList.add(orderGroupCommitter.createOrder(1, createOrderRequest, () -> {
+                            throw new AssertionError("群組提交不應失敗");
+                        }).getOrderId());
+                    } catch (ResponseStatusException e) {
+                        rejectedStatusList.add(e.getStatusCode().value());
+                    }
+                    return null;
+                }));
+            }
+            startLatch.countDown();
+            for (Future<?> future : futureList) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+
+            assertEquals(2, orderIdList.size());
+            assertEquals(List.of(400), rejectedStatusList);
+            assertEquals(2, productDao.getProductById(1).getStock());
+            assertEquals(stock3 - 1, productDao.getProductById(3).getStock());
+            for (Integer orderId : orderIdList) {
+                mockMvc.perform(MockMvcRequestBuilders.get("/users/{userId}/orders/{orderId}", 1, orderId))
+                        .andExpect(status().isOk())
+                        .andExpect(jsonPath("$.orderItemList", hasSize(1)));
+            }
+        } finally {
+            executorService.shutdownNow();
+
+            // 還原測試資料
+            if (!orderIdList.isEmpty()) {
+                Map<String, Object> map = Map.of("orderIds", orderIdList);
+                namedParameterJdbcTemplate.update("delete from order_item where order_id in (:orderIds)", map);
+                namedParameterJdbcTemplate.update("delete from `order` where order_id in (:orderIds)", map);
+            }
+            productDao.updateStock(1, stock1);
+            productDao.updateStock(3, stock3);
+        }
+    }
+
+    @Test
+    public void createOrder_hotInventory() throws Exception {
+        int stock3 = productDao.getProductById(3).getStock();
+        List<Integer> orderIdList = new ArrayList<>();
+        try {
+            mockMvc.perform(MockMvcRequestBuilders.put("/products/{productId}/hot", 3))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.hot", equalTo(true)))
+                    .andExpect(jsonPath("$.availableStock", equalTo(stock3)));
+
+            MvcResult result = mockMvc.perform(MockMvcRequestBuilders
+                            .post("/users/{userId}/orders", 1)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(buyOneOf(3, 2))))
+                    .andExpect(status().is(201))
+                    .andExpect(jsonPath("$.totalAmount", equalTo(20)))
+                    .andReturn();
+            orderIdList.add(objectMapper.readTree(result.getResponse().getContentAsString()).get("orderId").asInt());
+
+            mockMvc.perform(MockMvcRequestBuilders
+                            .post("/users/{userId}/orders", 1)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(buyOneOf(3, stock3))))
+                    .andExpect(status().is(400));
+
+            mockMvc.perform(MockMvcRequestBuilders.get("/products/{productId}/hot", 3))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.availableStock", equalTo(stock3 - 2)));
+
+            hotInventory.flush();
+            assertEquals(stock3 - 2, productDao.getProductById(3).getStock());
+
+            mockMvc.perform(MockMvcRequestBuilders.delete("/products/{productId}/hot", 3))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.hot", equalTo(false)))
+                    .andExpect(jsonPath("$.availableStock", equalTo(stock3 - 2)))
+                    .andExpect(jsonPath("$.databaseStock", equalTo(stock3 - 2)));
+
+            mockMvc.perform(MockMvcRequestBuilders.delete("/products/{productId}/hot", 3))
+                    .andExpect(status().is(409));
+        } finally {
+            if (hotInventory.isHot(3)) {
+                hotInventory.disable(3);
+            }
+
+            // 還原測試資料
+            if (!orderIdList.isEmpty()) {
+                Map<String, Object> map = Map.of("orderIds", orderIdList);
+                namedParameterJdbcTemplate.update("delete from order_item where order_id in (:orderIds)", map);
+                namedParameterJdbcTemplate.update("delete from `order` where order_id in (:orderIds)", map);
+            }
+            productDao.updateStock(3, stock3);
+        }
+    }
+
+    @Test
+    public void createOrder_hotInventoryWriteBackShortfall() throws Exception {
+        int stock3 = productDao.getProductById(3).getStock();
+        List<Integer> orderIdList = new ArrayList<>();
+        Map<String, Object> map = Map.of("productId", 3, "reason", "HOT_INVENTORY_FLUSH");
+        String flushCountSql = "select count(*) from inventory_movement where product_id = :productId and reason = :reason";
+        try {
+            hotInventory.enable(3);
+            int flushCount = namedParameterJdbcTemplate.queryForObject(flushCountSql, map, Integer.class);
+
+            // 開啟後資料庫庫存被調降到少於之後扣除的數量：寫回失敗，不扣除也不記錄庫存異動
+            productDao.updateStock(3, 1);
+            orderIdList.add(createOrder(buyOneOf(3, 2)));
+            hotInventory.flush();
+            assertEquals(1, productDao.getProductById(3).getStock());
+            assertEquals(flushCount, namedParameterJdbcTemplate.queryForObject(flushCountSql, map, Integer.class));
+        } finally {
+            if (hotInventory.isHot(3)) {
+                hotInventory.disable(3);
+            }
+
+            // 還原測試資料
+            if (!orderIdList.isEmpty()) {
+                Map<String, Object> orderMap = Map.of("orderIds", orderIdList);
+                namedParameterJdbcTemplate.update("delete from order_item where order_id in (:orderIds)", orderMap);
+                namedParameterJdbcTemplate.update("delete from `order` where order_id in (:orderIds)", orderMap);
+            }
+            productDao.updateStock(3, stock3);
+        }
+    }
+
+    @Test
+    public void createOrder_hotInventoryJournal() throws Exception {
+        int stock3 = productDao.getProductById(3).getStock();
+        List<Integer> orderIdList = new ArrayList<>();
+        try {
+            hotInventory.enable(3);
+            orderIdList.add(createOrder(buyOneOf(3, 1)));
+
+            // rollback 的訂單不寫入 RESERVE，重啟時不會補寫回不存在的訂單的扣除
+            Integer rolledBackOrderId = transactionTemplate.execute(status -> {
+                status.setRollbackOnly();
+                return orderServiceImpl.createOrder(1, buyOneOf(3, 1)).getOrderId();
+            });
+            assertEquals(stock3 - 1, hotInventory.getStatus(3).getAvailableStock());
+
+            List<Integer> reservedOrderIdList = new ArrayList<>();
+            for (String line : Files.readAllLines(Path.of(journalPath))) {
+                HotInventory.Record record = objectMapper.readValue(line, HotInventory.Record.class);
+                if ("RESERVE".equals(record.type())) {
+                    reservedOrderIdList.add(record.orderId());
+                }
+            }
+            assertTrue(reservedOrderIdList.contains(orderIdList.get(0)));
+            assertFalse(reservedOrderIdList.contains(rolledBackOrderId));
+        } finally {
+            if (hotInventory.isHot(3)) {
+                hotInventory.disable(3);
+            }
+
+            // 還原測試資料
+            if (!orderIdList.isEmpty()) {
+                Map<String, Object> map = Map.of("orderIds", orderIdList);
+                namedParameterJdbcTemplate.update("delete from order_item where order_id in (:orderIds)", map);
+                namedParameterJdbcTemplate.update("delete from `order` where order_id in (:orderIds)", map);
+            }
+            productDao.updateStock(3, stock3);
+        }
+    }
+
+    @Test
+    public void createOrder_stockShards() throws Exception {
+        int stock3 = productDao.getProductById(3).getStock();
+        List<Integer> orderIdList = new ArrayList<>();
+        try {
+            mockMvc.perform(MockMvcRequestBuilders.put("/products/{productId}/stock-shards", 3)
+                            .param("shards", "4"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.shards", aMapWithSize(4)))
+                    .andExpect(jsonPath("$.unallocatedStock", equalTo(0)))
+                    .andExpect(jsonPath("$.totalStock", equalTo(stock3)));
+
+            orderIdList.add(createOrder(buyOneOf(3, 2)));
+            mockMvc.perform(MockMvcRequestBuilders.get("/products/{productId}", 3))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.stock", equalTo(stock3 - 2)));
+
+            // 新增的庫存先放在 product.stock，重新平衡後分配到各分片
+            productDao.updateStock(3, 4);
+            stockShards.rebalance();
+            mockMvc.perform(MockMvcRequestBuilders.get("/products/{productId}/stock-shards", 3))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.unallocatedStock", equalTo(0)))
+                    .andExpect(jsonPath("$.totalStock", equalTo(stock3 + 2)));
+
+            // 沒有單一分片足夠時從多個分片合計扣除
+            orderIdList.add(createOrder(buyOneOf(3, stock3 + 2)));
+            assertEquals(0, productDao.getProductById(3).getStock());
+
+            mockMvc.perform(MockMvcRequestBuilders
+                            .post("/users/{userId}/orders", 1)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(buyOneOf(3))))
+                    .andExpect(status().is(400));
+
+            mockMvc.perform(MockMvcRequestBuilders.delete("/products/{productId}/stock-shards", 3))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.shards").doesNotExist())
+                    .andExpect(jsonPath("$.totalStock", equalTo(0)));
+        } finally {
+            if (!productDao.getStockShards(List.of(3)).isEmpty()) {
+                stockShards.disable(3);
+            }
+
+            // 還原測試資料
+            if (!orderIdList.isEmpty()) {
+                Map<String, Object> map = Map.of("orderIds", orderIdList);
+                namedParameterJdbcTemplate.update("delete from order_item where order_id in (:orderIds)", map);
+                namedParameterJdbcTemplate.update("delete from `order` where order_id in (:orderIds)", map);
+            }
+            productDao.updateStock(3, stock3);
+        }
+    }
+
+    @Test
+    public void createOrder_inventoryLedger() throws Exception {
+        int stock3 = productDao.getProductById(3).getStock();
+        List<Integer> orderIdList = new ArrayList<>();
+        try {
+            Integer orderId = createOrder(buyOneOf(3, 2));
+            orderIdList.add(orderId);
+
+            Map<String, Object> map = Map.of("orderId", orderId, "productId", 3);
+            List<Map<String, Object>> movementList = namedParameterJdbcTemplate.queryForList(
+                    "select product_id, quantity, reason from inventory_movement where order_id = :orderId", map);
+            assertEquals(1, movementList.size());
+            assertEquals(3, movementList.get(0).get("PRODUCT_ID"));
+            assertEquals(-2, movementList.get(0).get("QUANTITY"));
+            assertEquals("ORDER", movementList.get(0).get("REASON"));
+
+            // 壓縮後異動併入快照，快照加上尚未壓縮的異動等於實際庫存
+            Thread.sleep(10);
+            inventoryLedger.compact();
+            assertEquals(0, namedParameterJdbcTemplate.queryForObject(
+                    "select count(*) from inventory_movement where order_id = :orderId", map, Integer.class));
+            Integer ledgerStock = namedParameterJdbcTemplate.queryForObject(
+                    "select s.stock + coalesce((select sum(m.quantity) from inventory_movement m where m.product_id = s.product_id), 0) " +
+                            "from inventory_snapshot s where s.product_id = :productId", map, Integer.class);
+            assertEquals(stock3 - 2, ledgerStock);
+        } finally {
+            // 還原測試資料
+            if (!orderIdList.isEmpty()) {
+                Map<String, Object> map = Map.of("orderIds", orderIdList);
+                namedParameterJdbcTemplate.update("delete from order_item where order_id in (:orderIds)", map);
+                namedParameterJdbcTemplate.update("delete from `order` where order_id in (:orderIds)", map);
+            }
+            productDao.updateStock(3, stock3);
+        }
+    }
+
+    @Transactional
+    @Test
+    public void purgeIdempotencyKeys() throws Exception {
+        String sql = "insert into order_idempotency_key (user_id, idempotency_key, request_hash, created_date) " +
+                "values (1, :idempotencyKey, :requestHash, :createdDate)";
+        namedParameterJdbcTemplate.update(sql, Map.of("idempotencyKey", "purge-expired",
+                "requestHash", "0".repeat(64), "createdDate", new Date(0)));
+        namedParameterJdbcTemplate.update(sql, Map.of("idempotencyKey", "purge-recent",
+                "requestHash", "0".repeat(64), "createdDate", new Date()));
+
+        orderServiceImpl.purgeIdempotencyKeys();
+
+        // 只刪除超過保存時間的 key
+        String countSql = "select count(*) from order_idempotency_key where user_id = 1 and idempotency_key = :idempotencyKey";
+        assertEquals(0, namedParameterJdbcTemplate.queryForObject(countSql, Map.of("idempotencyKey", "purge-expired"), Integer.class));
+        assertEquals(1, namedParameterJdbcTemplate.queryForObject(countSql, Map.of("idempotencyKey", "purge-recent"), Integer.class));
+    }
+
+    private int createOrder(CreateOrderRequest createOrderRequest) throws Exception {
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders
+                        .post("/users/{userId}/orders", 1)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(createOrderRequest)))
+                .andExpect(status().is(201))
+                .andReturn();
+        return objectMapper.readTree(result.getResponse().getContentAsString()).get("orderId").asInt();
+    }
+
+    private CreateOrderRequest buyOneOf(Integer productId) {
+        return buyOneOf(productId, 1);
+    }
+
+    private CreateOrderRequest buyOneOf(Integer productId, Integer quantity) {
+        BuyItem buyItem = new BuyItem();
+        buyItem.setProductId(productId);
+        buyItem.setQuantity(quantity);
+        CreateOrderRequest createOrderRequest = new CreateOrderRequest();
+        createOrderRequest.setBuyItemList(List.of(buyItem));
+        return createOrderRequest;
+    }
+
+    private int createOrderWithKey(String json, String idempotencyKey) throws Exception {
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders
+                        .post("/users/{userId}/orders", 1)
+                        .header("Idempotency-Key", idempotencyKey)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(json))
+                .andExpect(status().is(201))
+                .andReturn();
+        return objectMapper.readTree(result.getResponse().getContentAsString()).get("orderId").asInt();
+    }
+
     // 查詢訂單列表
     @Test
     public void getOrders() throws Exception {
         RequestBuilder requestBuilder = MockMvcRequestBuilders
-                .get("/users/{userId}/orders", 1);
+                .get("/users/{userId}/orders", 1)
+                .param("expand", "items");
 
         mockMvc.perform(requestBuilder)
                 .andExpect(status().isOk())
@@ -222,4 +996,107 @@ public class OrderControllerTest {
                 .andExpect(jsonPath("$.total", notNullValue()))
                 .andExpect(jsonPath("$.results", hasSize(0)));
     }
-}
\ No newline at end of file
+
+    // 訂單項目以一次 IN 查詢載入：查詢次數不隨訂單數量增加
+    @Transactional
+    @Test
+    public void getOrders_queryCount() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            CreateOrderRequest createOrderRequest = new CreateOrderRequest();
+            List<BuyItem> buyItemList = new ArrayList<>();
+            for (Integer productId : List.of(1, 3)) {
+                BuyItem buyItem = new BuyItem();
+                buyItem.setProductId(productId);
+                buyItem.setQuantity(1);
+                buyItemList.add(buyItem);
+            }
+            createOrderRequest.setBuyItemList(buyItemList);
+
+            mockMvc.perform(MockMvcRequestBuilders
+                            .post("/users/{userId}/orders", 1)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(createOrderRequest)))
+                    .andExpect(status().is(201));
+        }
+
+        queryCounter.reset();
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/{userId}/orders", 1)
+                        .param("limit", "1000")
+                        .param("expand", "items"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.results", hasSize(7)))
+                .andExpect(jsonPath("$.results[0].orderItemList", hasSize(2)))
+                .andExpect(jsonPath("$.results[6].orderItemList", hasSize(3)));
+
+        // 訂單列表、訂單總數、訂單項目各一次
+        assertEquals(3, queryCounter.getStatementCount());
+    }
+
+    // 預設的訂單列表只返回訂單本身與訂單項目數量
+    @Test
+    public void getOrders_withoutItems() throws Exception {
+        queryCounter.reset();
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/{userId}/orders", 1))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.results", hasSize(2)))
+                .andExpect(jsonPath("$.results[0].totalAmount", equalTo(100000)))
+                .andExpect(jsonPath("$.results[0].itemCount", equalTo(1)))
+                .andExpect(jsonPath("$.results[0].orderItemList").doesNotExist())
+                .andExpect(jsonPath("$.results[1].totalAmount", equalTo(500690)))
+                .andExpect(jsonPath("$.results[1].itemCount", equalTo(3)))
+                .andExpect(jsonPath("$.results[1].orderItemList").doesNotExist());
+
+        // 訂單列表、訂單總數各一次，不查詢訂單項目
+        assertEquals(2, queryCounter.getStatementCount());
+    }
+
+    @Test
+    public void getOrders_invalidExpand() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/{userId}/orders", 1)
+                        .param("expand", "products"))
+                .andExpect(status().isBadRequest());
+    }
+
+    // 查詢單一訂單詳情
+    @Test
+    public void getOrder_success() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/{userId}/orders/{orderId}", 1, 1))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.orderId", equalTo(1)))
+                .andExpect(jsonPath("$.totalAmount", equalTo(500690)))
+                .andExpect(jsonPath("$.itemCount", equalTo(3)))
+                .andExpect(jsonPath("$.orderItemList", hasSize(3)))
+                .andExpect(jsonPath("$.orderItemList[0].productName", notNullValue()));
+    }
+
+    @Test
+    public void getOrder_notFound() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/{userId}/orders/{orderId}", 1, 10000))
+                .andExpect(status().isNotFound());
+
+        // 訂單不屬於該用戶
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/{userId}/orders/{orderId}", 2, 1))
+                .andExpect(status().isNotFound());
+    }
+
+    // 訂單列表的條件式 GET
+    @Test
+    public void getOrders_notModified() throws Exception {
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/users/{userId}/orders", 1))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn();
+        String eTag = result.getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/{userId}/orders", 1)
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+
+        // 其他用戶的訂單列表有各自的 ETag
+        mockMvc.perform(MockMvcRequestBuilders.get("/users/{userId}/orders", 2)
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isOk());
+    }
+}
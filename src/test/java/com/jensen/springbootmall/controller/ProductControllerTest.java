@@ -1,20 +1,42 @@
 package com.jensen.springbootmall.controller; // 定義包路徑
 
 import com.fasterxml.jackson.databind.ObjectMapper; // 導入 JSON 轉換工具類
+import com.jayway.jsonpath.JsonPath; // 導入 JSON 路徑解析工具
+import com.jensen.springbootmall.QueryCounter; // 導入測試用的 SQL 語句計數器
 import com.jensen.springbootmall.constant.ProductCategory; // 導入商品分類枚舉
+import com.jensen.springbootmall.dao.impl.CachingProductDaoImpl; // 導入帶快取的商品 DAO
+import com.jensen.springbootmall.dao.impl.ProductQuerySqlRegistry; // 導入商品查詢 SQL 登錄表
+import com.jensen.springbootmall.dto.ProductQueryParams; // 導入商品查詢條件
 import com.jensen.springbootmall.dto.ProductRequest; // 導入商品請求數據傳輸對象
+import com.jensen.springbootmall.event.ProductChangedEvent; // 導入商品異動事件
+import com.jensen.springbootmall.event.ResourceVersions; // 導入商品目錄版本號元件
 import org.junit.jupiter.api.Test; // 導入 JUnit 測試註解
 import org.springframework.beans.factory.annotation.Autowired; // 導入 Spring 自動注入註解
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc; // 導入自動配置 MockMvc 註解
 import org.springframework.boot.test.context.SpringBootTest; // 導入 Spring Boot 測試註解
+import org.springframework.http.HttpHeaders; // 導入 HTTP 標頭名稱定義
 import org.springframework.http.MediaType; // 導入 HTTP 媒體類型定義
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate; // 導入具名參數 JDBC 工具
 import org.springframework.test.web.servlet.MockMvc; // 導入模擬 MVC 測試工具
+import org.springframework.test.web.servlet.MvcResult; // 導入請求執行結果
 import org.springframework.test.web.servlet.RequestBuilder; // 導入請求構建工具
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders; // 導入 MockMvc 請求構建器
 import org.springframework.transaction.annotation.Transactional; // 導入事務管理註解
 
+import java.nio.charset.StandardCharsets; // 導入字元編碼常數
+import java.util.Base64; // 導入 Base64 編碼工具
+import java.util.HashMap; // 導入 HashMap
+import java.util.List; // 導入 List 集合
+import java.util.Map; // 導入 Map 介面
+import java.util.stream.Collectors; // 導入串流收集器
+import java.util.stream.IntStream; // 導入整數串流
+
 import static org.hamcrest.Matchers.*; // 導入 Hamcrest 匹配器
 import static org.junit.jupiter.api.Assertions.*; // 導入 JUnit 斷言
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch; // 導入非同步請求分派
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content; // 導入響應內容匹配器
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request; // 導入請求狀態匹配器
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header; // 導入響應標頭匹配器
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath; // 導入 JSON 路徑匹配器
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print; // 導入結果打印處理器
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status; // 導入狀態碼匹配器
@@ -26,6 +48,21 @@ public class ProductControllerTest { // 定義 ProductController 的測試類
     @Autowired // 自動注入 MockMvc 實例
     private MockMvc mockMvc; // 聲明 MockMvc 用於模擬 HTTP 請求
 
+    @Autowired // 自動注入帶快取的商品 DAO，用於檢查快取命中次數
+    private CachingProductDaoImpl cachingProductDao;
+
+    @Autowired // 自動注入版本號元件，用於模擬商品目錄異動
+    private ResourceVersions resourceVersions;
+
+    @Autowired // 自動注入 JDBC 工具，用於檢查查詢計畫
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired // 自動注入商品查詢 SQL 登錄表，用於取得實際執行的 SQL
+    private ProductQuerySqlRegistry productQuerySqlRegistry;
+
+    @Autowired // 自動注入 SQL 語句計數器，用於檢查每個請求的查詢次數
+    private QueryCounter queryCounter;
+
     private ObjectMapper objectMapper = new ObjectMapper(); // 創建 ObjectMapper 實例用於 JSON 序列化
 
     // 查詢商品
@@ -56,6 +93,48 @@ public class ProductControllerTest { // 定義 ProductController 的測試類
                 .andExpect(status().is(404)); // 驗證響應狀態碼為 404（未找到）
     }
 
+    // 商品快取
+    @Test // 標記為測試方法
+    public void getProduct_cacheHit() throws Exception { // 測試重複查詢同一商品時命中快取
+        RequestBuilder requestBuilder = MockMvcRequestBuilders // 創建請求構建器
+                .get("/products/{productId}", 2); // 構建 GET 請求，查詢 ID 為 2 的商品
+
+        mockMvc.perform(requestBuilder) // 第一次查詢，將商品載入快取
+                .andExpect(status().isOk()); // 驗證響應狀態碼為 200
+
+        long hitCount = cachingProductDao.getHitCount(); // 記錄目前的快取命中次數
+
+        mockMvc.perform(requestBuilder) // 第二次查詢，應直接從快取取得
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.productName", equalTo("蘋果（日本北海道）"))); // 驗證商品名稱
+
+        assertEquals(hitCount + 1, cachingProductDao.getHitCount()); // 驗證快取命中次數增加 1
+    }
+
+    @Transactional // 添加事務管理，測試後回滾數據
+    @Test // 標記為測試方法
+    public void updateProduct_evictsCache() throws Exception { // 測試修改商品後快取會失效
+        mockMvc.perform(MockMvcRequestBuilders.get("/products/{productId}", 3)) // 先查詢一次，讓商品進入快取
+                .andExpect(status().isOk()); // 驗證響應狀態碼為 200
+
+        ProductRequest productRequest = new ProductRequest(); // 創建商品請求對象
+        productRequest.setProductName("cached product"); // 設置商品名稱
+        productRequest.setCategory(ProductCategory.FOOD); // 設置商品分類為 FOOD
+        productRequest.setImageUrl("http://test.com"); // 設置商品圖片 URL
+        productRequest.setPrice(100); // 設置商品價格
+        productRequest.setStock(2); // 設置商品庫存
+
+        mockMvc.perform(MockMvcRequestBuilders // 修改商品
+                        .put("/products/{productId}", 3) // 構建 PUT 請求，更新 ID 為 3 的商品
+                        .contentType(MediaType.APPLICATION_JSON) // 設置請求內容類型為 JSON
+                        .content(objectMapper.writeValueAsString(productRequest))) // 設置請求體內容
+                .andExpect(status().is(200)); // 驗證響應狀態碼為 200
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/products/{productId}", 3)) // 再次查詢商品
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.productName", equalTo("cached product"))); // 驗證拿到的是修改後的資料
+    }
+
     // 創建商品
     @Transactional // 添加事務管理，測試後回滾數據
     @Test // 標記為測試方法
@@ -133,6 +212,77 @@ public class ProductControllerTest { // 定義 ProductController 的測試類
                 .andExpect(jsonPath("$.lastModifiedDate", notNullValue())); // 驗證最後修改日期不為空
     }
 
+    @Test // 標記為測試方法
+    public void updateAndDeleteProduct_hot() throws Exception { // 測試熱門商品模式開啟期間不能修改、刪除商品
+        ProductRequest productRequest = new ProductRequest(); // 創建商品請求對象
+        productRequest.setProductName("Toyota"); // 設置商品名稱
+        productRequest.setCategory(ProductCategory.CAR); // 設置商品分類為 CAR
+        productRequest.setImageUrl("http://test.com"); // 設置商品圖片 URL
+        productRequest.setPrice(100000); // 設置商品價格
+        productRequest.setStock(0); // 把庫存改為 0（例如想停止限時搶購）
+
+        try {
+            MvcResult result = mockMvc.perform(MockMvcRequestBuilders.put("/products/{productId}/hot", 4)) // 開啟熱門商品模式
+                    .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                    .andReturn();
+            Integer stock = JsonPath.read(result.getResponse().getContentAsString(), "$.availableStock"); // 取得開啟時的庫存
+
+            mockMvc.perform(MockMvcRequestBuilders // 修改商品
+                            .put("/products/{productId}", 4) // 構建 PUT 請求，更新 ID 為 4 的商品
+                            .contentType(MediaType.APPLICATION_JSON) // 設置請求內容類型為 JSON
+                            .content(objectMapper.writeValueAsString(productRequest))) // 設置請求體內容
+                    .andExpect(status().is(409)); // 驗證響應狀態碼為 409，計數器不會繼續以舊庫存接單
+
+            mockMvc.perform(MockMvcRequestBuilders.delete("/products/{productId}", 4)) // 刪除商品
+                    .andExpect(status().is(409)); // 驗證響應狀態碼為 409
+
+            mockMvc.perform(MockMvcRequestBuilders.get("/products/{productId}", 4)) // 查詢商品
+                    .andExpect(status().isOk()) // 驗證商品仍存在
+                    .andExpect(jsonPath("$.stock", equalTo(stock))) // 驗證庫存沒有被修改
+                    .andExpect(jsonPath("$.imageUrl", not(equalTo("http://test.com")))); // 驗證其他欄位也沒有被修改
+        } finally {
+            mockMvc.perform(MockMvcRequestBuilders.delete("/products/{productId}/hot", 4)); // 關閉熱門商品模式
+        }
+    }
+
+    // 新增、修改商品直接回傳寫入的資料，不再於寫入後查詢商品
+    @Transactional // 添加事務管理，測試後回滾數據
+    @Test // 標記為測試方法
+    public void createAndUpdateProduct_queryCount() throws Exception { // 測試新增、修改商品送出的 SQL 語句數量
+        ProductRequest productRequest = new ProductRequest(); // 創建商品請求對象
+        productRequest.setProductName("query count product"); // 設置商品名稱
+        productRequest.setCategory(ProductCategory.FOOD); // 設置商品分類為 FOOD
+        productRequest.setImageUrl("http://test.com"); // 設置商品圖片 URL
+        productRequest.setPrice(100); // 設置商品價格
+        productRequest.setStock(2); // 設置商品庫存
+
+        queryCounter.reset(); // 重設計數器
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders // 新增商品
+                        .post("/products") // 構建 POST 請求用於創建商品
+                        .contentType(MediaType.APPLICATION_JSON) // 設置請求內容類型為 JSON
+                        .content(objectMapper.writeValueAsString(productRequest))) // 設置請求體內容
+                .andExpect(status().is(201)) // 驗證響應狀態碼為 201
+                .andExpect(jsonPath("$.productId", notNullValue())) // 驗證返回產生的商品 ID
+                .andExpect(jsonPath("$.createdDate", notNullValue())) // 驗證創建日期不為空
+                .andReturn(); // 取得執行結果
+        assertEquals(2, queryCounter.getStatementCount()); // 新增商品、記錄庫存異動各一次
+        Integer productId = JsonPath.read(result.getResponse().getContentAsString(), "$.productId"); // 取得新商品 ID
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/products/{productId}", productId)) // 先查詢一次，讓商品進入快取
+                .andExpect(status().isOk()); // 驗證響應狀態碼為 200
+
+        productRequest.setPrice(200); // 修改商品價格
+        queryCounter.reset(); // 重設計數器
+        mockMvc.perform(MockMvcRequestBuilders // 修改商品
+                        .put("/products/{productId}", productId) // 構建 PUT 請求，更新剛新增的商品
+                        .contentType(MediaType.APPLICATION_JSON) // 設置請求內容類型為 JSON
+                        .content(objectMapper.writeValueAsString(productRequest))) // 設置請求體內容
+                .andExpect(status().is(200)) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.price", equalTo(200))) // 驗證返回修改後的價格
+                .andExpect(jsonPath("$.createdDate", notNullValue())); // 驗證創建日期不為空
+        assertEquals(3, queryCounter.getStatementCount()); // 修改商品、清空庫存分片、記錄庫存異動各一次
+    }
+
     @Transactional // 添加事務管理，測試後回滾數據
     @Test // 標記為測試方法
     public void updateProduct_illegalArgument() throws Exception { // 測試更新商品時參數不合法的場景
@@ -260,4 +410,554 @@ public class ProductControllerTest { // 定義 ProductController 的測試類
                 .andExpect(jsonPath("$.results[0].productId", equalTo(5))) // 驗證第一個商品 ID 為 5
                 .andExpect(jsonPath("$.results[1].productId", equalTo(4))); // 驗證第二個商品 ID 為 4
     }
-}
\ No newline at end of file
+
+    @Test // 標記為測試方法
+    public void getProducts_cursorPagination() throws Exception { // 測試以游標（keyset）方式逐頁查詢商品列表
+        MvcResult firstPage = mockMvc.perform(MockMvcRequestBuilders // 查詢第一頁
+                        .get("/products") // 構建 GET 請求，查詢商品列表
+                        .param("orderBy", "price") // 添加按價格排序參數
+                        .param("sort", "desc") // 添加降序排序參數
+                        .param("limit", "3")) // 添加每頁限制為 3 的參數
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.results[0].productId", equalTo(6))) // 驗證第一個商品 ID 為 6
+                .andExpect(jsonPath("$.results[2].productId", equalTo(7))) // 驗證第三個商品 ID 為 7
+                .andExpect(jsonPath("$.nextCursor", notNullValue())) // 驗證有下一頁游標
+                .andReturn(); // 取得執行結果
+
+        String nextCursor = JsonPath.read(firstPage.getResponse().getContentAsString(), "$.nextCursor"); // 取出下一頁游標
+
+        MvcResult secondPage = mockMvc.perform(MockMvcRequestBuilders // 以游標查詢第二頁
+                        .get("/products") // 構建 GET 請求，查詢商品列表
+                        .param("limit", "3") // 添加每頁限制為 3 的參數
+                        .param("cursor", nextCursor)) // 添加游標參數（排序方式由游標決定）
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.total", equalTo(7))) // 驗證總數不受游標影響
+                .andExpect(jsonPath("$.results", hasSize(3))) // 驗證返回的結果列表大小為 3
+                .andExpect(jsonPath("$.results[0].productId", equalTo(4))) // 驗證第一個商品 ID 為 4
+                .andExpect(jsonPath("$.results[1].productId", equalTo(2))) // 驗證第二個商品 ID 為 2
+                .andExpect(jsonPath("$.results[2].productId", equalTo(1))) // 驗證第三個商品 ID 為 1
+                .andReturn(); // 取得執行結果
+
+        nextCursor = JsonPath.read(secondPage.getResponse().getContentAsString(), "$.nextCursor"); // 取出下一頁游標
+
+        mockMvc.perform(MockMvcRequestBuilders // 以游標查詢最後一頁
+                        .get("/products") // 構建 GET 請求，查詢商品列表
+                        .param("limit", "3") // 添加每頁限制為 3 的參數
+                        .param("cursor", nextCursor)) // 添加游標參數
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.results", hasSize(1))) // 驗證只剩一個商品
+                .andExpect(jsonPath("$.results[0].productId", equalTo(3))) // 驗證商品 ID 為 3
+                .andExpect(jsonPath("$.nextCursor", nullValue())); // 驗證沒有下一頁游標
+    }
+
+    @Test // 標記為測試方法
+    public void getProducts_invalidCursor() throws Exception { // 測試帶入格式錯誤的游標
+        RequestBuilder requestBuilder = MockMvcRequestBuilders // 創建請求構建器
+                .get("/products") // 構建 GET 請求，查詢商品列表
+                .param("cursor", "not-a-cursor"); // 添加格式錯誤的游標
+
+        mockMvc.perform(requestBuilder) // 執行模擬請求
+                .andExpect(status().is(400)); // 驗證響應狀態碼為 400（壞請求）
+    }
+
+    @Test // 標記為測試方法
+    public void getProducts_cursorUnsupportedColumn() throws Exception { // 測試游標中的排序欄位不在允許的排序欄位中
+        String cursor = Base64.getUrlEncoder().withoutPadding() // 以不允許排序的 stock 欄位組出游標
+                .encodeToString("stock|asc|3|10".getBytes(StandardCharsets.UTF_8));
+
+        mockMvc.perform(MockMvcRequestBuilders // 以游標查詢商品列表
+                        .get("/products") // 構建 GET 請求，查詢商品列表
+                        .param("cursor", cursor)) // 添加游標參數
+                .andExpect(status().is(400)) // 驗證響應狀態碼為 400（壞請求）
+                .andExpect(status().reason("游標格式不正確")); // 驗證由游標解析拒絕，而非排序欄位檢查
+    }
+
+    // 搜尋商品（倒排索引）
+    @Test // 標記為測試方法
+    public void getProducts_searchChinese() throws Exception { // 測試以中文關鍵字搜尋商品
+        RequestBuilder requestBuilder = MockMvcRequestBuilders // 創建請求構建器
+                .get("/products") // 構建 GET 請求，查詢商品列表
+                .param("search", "北海道"); // 添加中文搜尋參數
+
+        mockMvc.perform(requestBuilder) // 執行模擬請求
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.total", equalTo(1))) // 驗證總數為 1
+                .andExpect(jsonPath("$.results", hasSize(1))) // 驗證返回的結果列表大小為 1
+                .andExpect(jsonPath("$.results[0].productId", equalTo(2))); // 驗證商品 ID 為 2
+    }
+
+    @Test // 標記為測試方法
+    public void getProducts_searchRanking() throws Exception { // 測試搜尋結果依相關度排序
+        RequestBuilder requestBuilder = MockMvcRequestBuilders // 創建請求構建器
+                .get("/products") // 構建 GET 請求，查詢商品列表
+                .param("search", "蘋果"); // 添加搜尋參數
+
+        mockMvc.perform(requestBuilder) // 執行模擬請求
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.total", equalTo(3))) // 驗證總數為 3
+                .andExpect(jsonPath("$.results", hasSize(3))) // 驗證返回的結果列表大小為 3
+                .andExpect(jsonPath("$.results[2].productId", equalTo(3))); // 驗證只有名稱含「蘋果」的商品排在最後
+    }
+
+    @Test // 標記為測試方法
+    public void getProducts_searchIndexUpdatedOnWrite() throws Exception { // 測試新增、刪除商品後搜尋索引會同步更新
+        ProductRequest productRequest = new ProductRequest(); // 創建商品請求對象
+        productRequest.setProductName("Kindle 電子書閱讀器"); // 設置商品名稱
+        productRequest.setCategory(ProductCategory.BOOK); // 設置商品分類為 BOOK
+        productRequest.setImageUrl("http://test.com"); // 設置商品圖片 URL
+        productRequest.setPrice(3000); // 設置商品價格
+        productRequest.setStock(2); // 設置商品庫存
+
+        MvcResult createResult = mockMvc.perform(MockMvcRequestBuilders // 新增商品（不回滾，確認索引更新）
+                        .post("/products") // 構建 POST 請求用於創建商品
+                        .contentType(MediaType.APPLICATION_JSON) // 設置請求內容類型為 JSON
+                        .content(objectMapper.writeValueAsString(productRequest))) // 設置請求體內容
+                .andExpect(status().is(201)) // 驗證響應狀態碼為 201
+                .andReturn(); // 取得執行結果
+        Integer productId = JsonPath.read(createResult.getResponse().getContentAsString(), "$.productId"); // 取出新商品 ID
+
+        try {
+            mockMvc.perform(MockMvcRequestBuilders // 以名稱中的中文與英文關鍵字搜尋
+                            .get("/products") // 構建 GET 請求，查詢商品列表
+                            .param("search", "kindle 閱讀") // 添加搜尋參數
+                            .param("category", "BOOK")) // 添加分類參數
+                    .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                    .andExpect(jsonPath("$.total", equalTo(1))) // 驗證總數為 1
+                    .andExpect(jsonPath("$.results[0].productId", equalTo(productId))); // 驗證找到新商品
+        } finally {
+            mockMvc.perform(MockMvcRequestBuilders.delete("/products/{productId}", productId)) // 刪除測試商品
+                    .andExpect(status().is(204)); // 驗證響應狀態碼為 204
+        }
+
+        mockMvc.perform(MockMvcRequestBuilders // 刪除後再次搜尋
+                        .get("/products") // 構建 GET 請求，查詢商品列表
+                        .param("search", "kindle")) // 添加搜尋參數
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.total", equalTo(0))); // 驗證已搜尋不到
+    }
+
+    // 商品總數
+    @Test // 標記為測試方法
+    public void getProducts_withoutTotal() throws Exception { // 測試不計算總數時改回傳 hasMore
+        mockMvc.perform(MockMvcRequestBuilders // 第一頁（共 7 筆商品，每頁 5 筆）
+                        .get("/products") // 構建 GET 請求，查詢商品列表
+                        .param("includeTotal", "false")) // 不計算總數
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.total", nullValue())) // 驗證沒有回傳總數
+                .andExpect(jsonPath("$.hasMore", equalTo(true))) // 驗證還有下一頁
+                .andExpect(jsonPath("$.results", hasSize(5))); // 驗證返回的結果列表大小為 5
+
+        mockMvc.perform(MockMvcRequestBuilders // 最後一頁
+                        .get("/products") // 構建 GET 請求，查詢商品列表
+                        .param("includeTotal", "false") // 不計算總數
+                        .param("offset", "5")) // 添加偏移量為 5 的參數
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.hasMore", equalTo(false))) // 驗證沒有下一頁
+                .andExpect(jsonPath("$.results", hasSize(2))); // 驗證返回的結果列表大小為 2
+    }
+
+    @Test // 標記為測試方法
+    public void getProducts_countCacheHit() throws Exception { // 測試相同篩選條件的總數會命中快取
+        RequestBuilder requestBuilder = MockMvcRequestBuilders // 創建請求構建器
+                .get("/products") // 構建 GET 請求，查詢商品列表
+                .param("category", "CAR"); // 添加分類參數“CAR”
+
+        mockMvc.perform(requestBuilder) // 第一次查詢，將總數載入快取
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.total", equalTo(4))); // 驗證總數為 4
+
+        long countHitCount = cachingProductDao.getCountHitCount(); // 記錄目前的總數快取命中次數
+
+        mockMvc.perform(requestBuilder) // 第二次查詢，總數應直接從快取取得
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.total", equalTo(4))); // 驗證總數為 4
+
+        assertEquals(countHitCount + 1, cachingProductDao.getCountHitCount()); // 驗證快取命中次數增加 1
+    }
+
+    // 條件式 GET（ETag / Last-Modified）
+    @Test // 標記為測試方法
+    public void getProduct_notModified() throws Exception { // 測試帶入相同 ETag 查詢商品時回傳 304
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/products/{productId}", 3)) // 第一次查詢商品
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(header().exists(HttpHeaders.ETAG)) // 驗證回傳 ETag
+                .andExpect(header().exists(HttpHeaders.LAST_MODIFIED)) // 驗證回傳 Last-Modified
+                .andReturn();
+        String eTag = result.getResponse().getHeader(HttpHeaders.ETAG); // 取得 ETag
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/products/{productId}", 3) // 第二次查詢，帶入 If-None-Match
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified()) // 驗證響應狀態碼為 304
+                .andExpect(header().string(HttpHeaders.ETAG, eTag)) // 驗證 ETag 不變
+                .andExpect(content().string("")); // 驗證沒有回傳內容
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/products/{productId}", 3) // 帶入過期的 ETag
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"3-0-0\""))
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.productId", equalTo(3))); // 驗證回傳商品內容
+    }
+
+    @Test // 標記為測試方法
+    public void getProducts_notModifiedUntilCatalogChanges() throws Exception { // 測試商品目錄未異動時列表回傳 304，異動後重新回傳
+        RequestBuilder requestBuilder = MockMvcRequestBuilders // 創建請求構建器
+                .get("/products") // 構建 GET 請求，查詢商品列表
+                .param("category", "FOOD"); // 設置分類篩選條件
+
+        MvcResult result = mockMvc.perform(requestBuilder) // 第一次查詢商品列表
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(header().exists(HttpHeaders.ETAG)) // 驗證回傳 ETag
+                .andReturn();
+        String eTag = result.getResponse().getHeader(HttpHeaders.ETAG); // 取得 ETag
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/products") // 帶入 If-None-Match 再次查詢
+                        .param("category", "FOOD")
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified()); // 驗證響應狀態碼為 304
+
+        resourceVersions.onProductChanged(new ProductChangedEvent(List.of(1), ProductChangedEvent.ChangeType.UPDATED)); // 模擬商品異動
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/products") // 商品目錄異動後再次查詢
+                        .param("category", "FOOD")
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(header().string(HttpHeaders.ETAG, not(equalTo(eTag)))) // 驗證 ETag 已改變
+                .andExpect(jsonPath("$.results", notNullValue())); // 驗證回傳商品列表
+    }
+
+    @Test // 標記為測試方法
+    public void getProducts_invalidParamsWithCurrentETag() throws Exception { // 測試帶入目前的 ETag 但參數不合法時仍回傳 400
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/products")) // 先查詢一次商品列表
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andReturn();
+        String eTag = result.getResponse().getHeader(HttpHeaders.ETAG); // 取得目前的 ETag
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/products") // 帶入目前的 ETag 與不支援的排序欄位
+                        .param("orderBy", "stock")
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().is(400)); // 驗證響應狀態碼為 400，而非 304
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/products") // 帶入目前的 ETag 與格式錯誤的游標
+                        .param("cursor", "not-a-cursor")
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().is(400)); // 驗證響應狀態碼為 400，而非 304
+    }
+
+    // 批次匯入商品
+    @Test // 標記為測試方法
+    public void importProducts_ndjson() throws Exception { // 測試以 NDJSON 批次匯入商品，並逐筆回傳結果
+        String ndjson = "{\"productName\":\"匯入商品一\",\"category\":\"FOOD\",\"imageUrl\":\"http://test.com\",\"price\":100,\"stock\":2}\n" // 第 1 筆：正確
+                + "{\"productName\":\"匯入商品二\",\"category\":\"FOOD\",\"imageUrl\":\"http://test.com\",\"stock\":2}\n" // 第 2 筆：缺少價格
+                + "{\"productName\":\"匯入商品三\",\"category\":\"TOY\",\"imageUrl\":\"http://test.com\",\"price\":100,\"stock\":2}\n" // 第 3 筆：分類不存在
+                + "{\"productName\":\"匯入商品四\",\"category\":\"CAR\",\"imageUrl\":\"http://test.com\",\"price\":300,\"stock\":5}\n"; // 第 4 筆：正確
+
+        MvcResult asyncResult = mockMvc.perform(MockMvcRequestBuilders.post("/products:bulk") // 構建批次匯入請求
+                        .contentType(MediaType.APPLICATION_NDJSON) // 設置請求內容類型為 NDJSON
+                        .content(ndjson)) // 設置請求內容
+                .andExpect(request().asyncStarted()) // 驗證回應以串流方式處理
+                .andReturn();
+
+        String body = mockMvc.perform(asyncDispatch(asyncResult)) // 取得串流回應
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+
+        String[] lines = body.split("\n"); // 每行一筆結果
+        assertEquals(4, lines.length); // 驗證每筆資料都有結果
+        assertEquals("CREATED", JsonPath.read(lines[0], "$.status")); // 驗證第 1 筆新增成功
+        assertEquals("INVALID", JsonPath.read(lines[1], "$.status")); // 驗證第 2 筆驗證失敗
+        assertEquals("INVALID", JsonPath.read(lines[2], "$.status")); // 驗證第 3 筆格式錯誤
+        assertEquals("CREATED", JsonPath.read(lines[3], "$.status")); // 驗證第 4 筆新增成功
+        assertEquals(Integer.valueOf(4), JsonPath.read(lines[3], "$.row")); // 驗證結果依原始順序回傳
+
+        Integer firstId = JsonPath.read(lines[0], "$.productId"); // 取得新增的商品 ID
+        Integer fourthId = JsonPath.read(lines[3], "$.productId");
+        try {
+            mockMvc.perform(MockMvcRequestBuilders.get("/products/{productId}", fourthId)) // 查詢匯入的商品
+                    .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                    .andExpect(jsonPath("$.productName", equalTo("匯入商品四"))) // 驗證商品名稱
+                    .andExpect(jsonPath("$.price", equalTo(300))); // 驗證商品價格
+        } finally {
+            mockMvc.perform(MockMvcRequestBuilders.delete("/products/{productId}", firstId)); // 刪除匯入的商品，避免影響其他測試
+            mockMvc.perform(MockMvcRequestBuilders.delete("/products/{productId}", fourthId));
+        }
+    }
+
+    @Test // 標記為測試方法
+    public void importProducts_jsonArray() throws Exception { // 測試以 JSON 陣列批次匯入商品
+        String json = "[{\"productName\":\"陣列商品\",\"category\":\"BOOK\",\"imageUrl\":\"http://test.com\",\"price\":50,\"stock\":1},"
+                + "{\"productName\":\"陣列商品二\"}]"; // 第 2 筆缺少必填欄位
+
+        MvcResult asyncResult = mockMvc.perform(MockMvcRequestBuilders.post("/products:bulk") // 構建批次匯入請求
+                        .contentType(MediaType.APPLICATION_JSON) // 設置請求內容類型為 JSON
+                        .content(json)) // 設置請求內容
+                .andExpect(request().asyncStarted()) // 驗證回應以串流方式處理
+                .andReturn();
+
+        String body = mockMvc.perform(asyncDispatch(asyncResult)) // 取得串流回應
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+
+        String[] lines = body.split("\n"); // 每行一筆結果
+        assertEquals(2, lines.length); // 驗證每筆資料都有結果
+        assertEquals("CREATED", JsonPath.read(lines[0], "$.status")); // 驗證第 1 筆新增成功
+        assertEquals("INVALID", JsonPath.read(lines[1], "$.status")); // 驗證第 2 筆驗證失敗
+        mockMvc.perform(MockMvcRequestBuilders.delete("/products/{productId}", (Integer) JsonPath.read(lines[0], "$.productId"))); // 刪除匯入的商品
+    }
+
+    // 一次查詢多個商品
+    @Test // 標記為測試方法
+    public void getProductsByIds() throws Exception { // 測試依 ID 清單查詢多個商品，並保留請求中的順序
+        RequestBuilder requestBuilder = MockMvcRequestBuilders // 創建請求構建器
+                .get("/products") // 構建 GET 請求
+                .param("ids", "3,20000,1,3"); // 設置商品 ID 清單（含不存在與重複的 ID）
+
+        mockMvc.perform(requestBuilder) // 執行模擬請求
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.results", hasSize(2))) // 驗證重複的 ID 只回傳一次
+                .andExpect(jsonPath("$.results[0].productId", equalTo(3))) // 驗證依請求順序排列
+                .andExpect(jsonPath("$.results[1].productId", equalTo(1)))
+                .andExpect(jsonPath("$.missingIds", contains(20000))); // 驗證回報查無資料的 ID
+    }
+
+    @Test // 標記為測試方法
+    public void getProductsByIds_tooMany() throws Exception { // 測試 ID 數量超過上限
+        String ids = IntStream.rangeClosed(1, 1001) // 產生 1001 個 ID
+                .mapToObj(String::valueOf)
+                .collect(Collectors.joining(","));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/products").param("ids", ids)) // 執行模擬請求
+                .andExpect(status().isBadRequest()); // 驗證響應狀態碼為 400
+    }
+
+    // 匯出商品
+    @Test // 標記為測試方法
+    public void exportProducts_ndjson() throws Exception { // 測試以 NDJSON 格式匯出指定分類的商品
+        MvcResult asyncResult = mockMvc.perform(MockMvcRequestBuilders.get("/products/export") // 構建匯出請求
+                        .param("category", "CAR")) // 設置分類篩選條件
+                .andExpect(request().asyncStarted()) // 驗證回應以串流方式處理
+                .andReturn();
+
+        String body = mockMvc.perform(asyncDispatch(asyncResult)) // 取得串流回應
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON)) // 驗證內容類型為 NDJSON
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+
+        String[] lines = body.split("\n"); // 每行一筆商品
+        assertTrue(lines.length > 0); // 驗證有匯出商品
+        Integer previousId = 0;
+        for (String line : lines) {
+            assertEquals("CAR", JsonPath.read(line, "$.category")); // 驗證只匯出指定分類
+            Integer productId = JsonPath.read(line, "$.productId");
+            assertTrue(productId > previousId); // 驗證依 product_id 遞增排序
+            previousId = productId;
+        }
+    }
+
+    @Test // 標記為測試方法
+    public void exportProducts_csv() throws Exception { // 測試以 CSV 格式匯出商品
+        MvcResult asyncResult = mockMvc.perform(MockMvcRequestBuilders.get("/products/export") // 構建匯出請求
+                        .param("format", "csv") // 設置匯出格式為 CSV
+                        .param("search", "蘋果")) // 設置搜尋條件
+                .andExpect(request().asyncStarted()) // 驗證回應以串流方式處理
+                .andReturn();
+
+        String body = mockMvc.perform(asyncDispatch(asyncResult)) // 取得串流回應
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, containsString("products.csv"))) // 驗證下載檔名
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+
+        String[] lines = body.split("\r\n"); // 每行一筆商品
+        assertTrue(lines[0].startsWith("product_id,product_name,category")); // 驗證第一行為欄位名稱
+        assertTrue(lines.length > 1); // 驗證有匯出商品
+        for (int i = 1; i < lines.length; i++) {
+            assertTrue(lines[i].contains("蘋果")); // 驗證只匯出符合搜尋條件的商品
+        }
+    }
+
+    @Test // 標記為測試方法
+    public void exportProducts_invalidFormat() throws Exception { // 測試不支援的匯出格式
+        mockMvc.perform(MockMvcRequestBuilders.get("/products/export").param("format", "xml")) // 構建匯出請求
+                .andExpect(status().isBadRequest()); // 驗證響應狀態碼為 400
+    }
+
+    // 商品篩選面板統計
+    @Test // 標記為測試方法
+    public void getProductFacets() throws Exception { // 測試各分類與價格區間的商品數
+        MvcResult listResult = mockMvc.perform(MockMvcRequestBuilders.get("/products")) // 查詢商品總數
+                .andExpect(status().isOk())
+                .andReturn();
+        Integer total = JsonPath.read(listResult.getResponse().getContentAsString(), "$.total"); // 取得商品總數
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/products/facets")) // 查詢篩選面板統計
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.total", equalTo(total))) // 驗證總數與商品列表一致
+                .andExpect(jsonPath("$.categories.FOOD", notNullValue())) // 驗證包含各分類
+                .andExpect(jsonPath("$.categories.CAR", notNullValue()))
+                .andExpect(jsonPath("$.categories.BOOK", notNullValue()))
+                .andExpect(jsonPath("$.priceBuckets[0].min", equalTo(0))) // 驗證第一個價格區間從 0 開始
+                .andExpect(jsonPath("$.priceBuckets[-1:].max", contains(nullValue()))); // 驗證最後一個價格區間沒有上限
+    }
+
+    @Test // 標記為測試方法
+    public void getProductFacets_search() throws Exception { // 測試以搜尋條件縮小統計範圍
+        MvcResult listResult = mockMvc.perform(MockMvcRequestBuilders.get("/products").param("search", "蘋果")) // 查詢符合搜尋條件的商品總數
+                .andExpect(status().isOk())
+                .andReturn();
+        Integer total = JsonPath.read(listResult.getResponse().getContentAsString(), "$.total"); // 取得符合搜尋條件的商品總數
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/products/facets").param("search", "蘋果")) // 查詢符合搜尋條件的統計
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.total", equalTo(total))) // 驗證只統計符合搜尋條件的商品
+                .andExpect(jsonPath("$.categories.FOOD", equalTo(total))) // 驗證符合條件的商品都在 FOOD 分類
+                .andExpect(jsonPath("$.categories.CAR", equalTo(0)));
+    }
+
+    @Test // 標記為測試方法
+    public void getProductFacets_updatedOnWrite() throws Exception { // 測試新增、刪除商品後統計會同步更新
+        MvcResult before = mockMvc.perform(MockMvcRequestBuilders.get("/products/facets")) // 新增前的統計
+                .andExpect(status().isOk())
+                .andReturn();
+        Integer bookCount = JsonPath.read(before.getResponse().getContentAsString(), "$.categories.BOOK");
+
+        ProductRequest productRequest = new ProductRequest(); // 創建商品請求對象
+        productRequest.setProductName("統計測試書"); // 設置商品名稱
+        productRequest.setCategory(ProductCategory.BOOK); // 設置商品分類
+        productRequest.setImageUrl("http://test.com"); // 設置商品圖片 URL
+        productRequest.setPrice(100); // 設置商品價格
+        productRequest.setStock(2); // 設置商品庫存
+        MvcResult created = mockMvc.perform(MockMvcRequestBuilders.post("/products") // 新增商品
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(productRequest)))
+                .andExpect(status().isCreated())
+                .andReturn();
+        Integer productId = JsonPath.read(created.getResponse().getContentAsString(), "$.productId");
+
+        try {
+            mockMvc.perform(MockMvcRequestBuilders.get("/products/facets")) // 新增後的統計
+                    .andExpect(jsonPath("$.categories.BOOK", equalTo(bookCount + 1))); // 驗證分類計數加一
+        } finally {
+            mockMvc.perform(MockMvcRequestBuilders.delete("/products/{productId}", productId)); // 刪除商品
+        }
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/products/facets")) // 刪除後的統計
+                .andExpect(jsonPath("$.categories.BOOK", equalTo(bookCount))); // 驗證分類計數還原
+    }
+
+    // 價格範圍與庫存篩選
+    @Test // 標記為測試方法
+    public void getProducts_priceRange() throws Exception { // 測試依價格範圍篩選商品
+        mockMvc.perform(MockMvcRequestBuilders.get("/products") // 構建 GET 請求
+                        .param("category", "CAR") // 設置分類
+                        .param("minPrice", "100000") // 設置價格下限
+                        .param("maxPrice", "500000") // 設置價格上限
+                        .param("orderBy", "price") // 依價格排序
+                        .param("sort", "asc")) // 升冪排序
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.total", equalTo(3))) // 驗證總數只計算範圍內的商品
+                .andExpect(jsonPath("$.results", hasSize(3))) // 驗證返回結果數量
+                .andExpect(jsonPath("$.results[0].price", equalTo(100000))) // 驗證包含價格下限
+                .andExpect(jsonPath("$.results[1].price", equalTo(450000))) // 驗證依價格升冪排序
+                .andExpect(jsonPath("$.results[2].price", equalTo(500000))); // 驗證包含價格上限
+    }
+
+    @Test // 標記為測試方法
+    public void getProducts_inStock() throws Exception { // 測試只查詢有庫存的商品
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/products") // 構建 GET 請求
+                        .param("inStock", "true") // 只查詢有庫存的商品
+                        .param("limit", "1000")) // 一次取回所有商品
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andReturn();
+        List<Integer> stocks = JsonPath.read(result.getResponse().getContentAsString(), "$.results[*].stock"); // 取得所有商品的庫存
+        assertFalse(stocks.isEmpty()); // 驗證有查詢結果
+        stocks.forEach(stock -> assertTrue(stock > 0)); // 驗證庫存皆大於 0
+    }
+
+    @Test // 標記為測試方法
+    public void getProducts_invalidPriceRange() throws Exception { // 測試價格下限大於上限
+        mockMvc.perform(MockMvcRequestBuilders.get("/products") // 構建 GET 請求
+                        .param("minPrice", "500") // 設置價格下限
+                        .param("maxPrice", "100")) // 設置價格上限
+                .andExpect(status().isBadRequest()); // 驗證響應狀態碼為 400
+    }
+
+    @Test // 標記為測試方法
+    public void getProducts_priceRangeUsesIndex() { // 測試分類 + 價格範圍的查詢會使用 (category, price) 索引
+        ProductQueryParams productQueryParams = new ProductQueryParams(); // 設置與商品列表相同的查詢條件
+        productQueryParams.setCategory(ProductCategory.CAR);
+        productQueryParams.setMinPrice(100000);
+        productQueryParams.setMaxPrice(500000);
+        productQueryParams.setOrderBy("price");
+        productQueryParams.setSort("asc");
+
+        Map<String, Object> map = new HashMap<>(); // 設置查詢參數
+        map.put("category", "CAR");
+        map.put("minPrice", 100000);
+        map.put("maxPrice", 500000);
+        map.put("limit", 5);
+        map.put("offSet", 0);
+
+        String plan = namedParameterJdbcTemplate.queryForObject( // 取得商品列表實際使用的 SQL 的查詢計畫
+                "EXPLAIN " + productQuerySqlRegistry.listSql(productQueryParams), map, String.class);
+
+        assertTrue(plan.toUpperCase().contains("IDX_PRODUCT_CATEGORY_PRICE"), plan); // 驗證使用複合索引
+    }
+
+    // 排序白名單
+    @Test // 標記為測試方法
+    public void getProducts_unsupportedOrderBy() throws Exception { // 測試依未建索引的欄位排序
+        mockMvc.perform(MockMvcRequestBuilders.get("/products").param("orderBy", "description")) // 依描述排序
+                .andExpect(status().isBadRequest()); // 驗證響應狀態碼為 400
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/products").param("orderBy", "price; drop table product")) // 帶入非欄位名稱的字串
+                .andExpect(status().isBadRequest()); // 驗證響應狀態碼為 400
+    }
+
+    @Test // 標記為測試方法
+    public void getProducts_unsupportedSort() throws Exception { // 測試不支援的排序方向
+        mockMvc.perform(MockMvcRequestBuilders.get("/products").param("orderBy", "price").param("sort", "random")) // 設置不支援的排序方向
+                .andExpect(status().isBadRequest()); // 驗證響應狀態碼為 400
+    }
+
+    // 只回傳指定欄位
+    @Test // 標記為測試方法
+    public void getProducts_fields() throws Exception { // 測試商品列表只回傳指定欄位
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/products") // 構建 GET 請求
+                        .param("fields", "productName,imageUrl,price,stock") // 只需要列表頁用到的欄位
+                        .param("orderBy", "price") // 依價格排序
+                        .param("limit", "2")) // 每頁 2 筆
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.results", hasSize(2))) // 驗證返回結果數量
+                .andExpect(jsonPath("$.results[0].productId", notNullValue())) // 驗證 productId 一律回傳
+                .andExpect(jsonPath("$.results[0].productName", notNullValue())) // 驗證回傳指定欄位
+                .andExpect(jsonPath("$.results[0].price", notNullValue()))
+                .andExpect(jsonPath("$.results[0].description").doesNotExist()) // 驗證未指定的欄位不回傳
+                .andExpect(jsonPath("$.results[0].category").doesNotExist())
+                .andExpect(jsonPath("$.results[0].createdDate").doesNotExist())
+                .andExpect(jsonPath("$.nextCursor", notNullValue())) // 驗證仍可產生下一頁游標
+                .andReturn();
+        String nextCursor = JsonPath.read(result.getResponse().getContentAsString(), "$.nextCursor"); // 取得下一頁游標
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/products") // 以游標查詢下一頁
+                        .param("fields", "productName")
+                        .param("cursor", nextCursor)
+                        .param("limit", "2"))
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.results", hasSize(2))) // 驗證返回結果數量
+                .andExpect(jsonPath("$.results[0].productName", notNullValue())) // 驗證回傳指定欄位
+                .andExpect(jsonPath("$.results[0].price").doesNotExist()); // 驗證排序欄位不會額外回傳
+    }
+
+    @Test // 標記為測試方法
+    public void getProduct_fields() throws Exception { // 測試商品詳情只回傳指定欄位
+        mockMvc.perform(MockMvcRequestBuilders.get("/products/{productId}", 1).param("fields", "productName")) // 構建 GET 請求
+                .andExpect(status().isOk()) // 驗證響應狀態碼為 200
+                .andExpect(jsonPath("$.productId", equalTo(1))) // 驗證 productId 一律回傳
+                .andExpect(jsonPath("$.productName", equalTo("蘋果（澳洲）"))) // 驗證回傳指定欄位
+                .andExpect(jsonPath("$.price").doesNotExist()); // 驗證未指定的欄位不回傳
+    }
+
+    @Test // 標記為測試方法
+    public void getProducts_unknownField() throws Exception { // 測試指定不存在的欄位
+        mockMvc.perform(MockMvcRequestBuilders.get("/products").param("fields", "productName,password")) // 構建 GET 請求
+                .andExpect(status().isBadRequest()); // 驗證響應狀態碼為 400
+    }
+}
@@ -36,4 +36,66 @@ CREATE TABLE IF NOT EXISTS order_item
     product_id    INT NOT NULL,
     quantity      INT NOT NULL,
     amount        INT NOT NULL
-);
\ No newline at end of file
+);
+
+CREATE TABLE IF NOT EXISTS cart_item
+(
+    cart_item_id       INT       NOT NULL PRIMARY KEY AUTO_INCREMENT,
+    user_id            INT       NOT NULL,
+    product_id         INT       NOT NULL,
+    quantity           INT       NOT NULL,
+    created_date       TIMESTAMP NOT NULL,
+    last_modified_date TIMESTAMP NOT NULL,
+    -- 同一用戶的同一商品只有一筆，加入購物車以 upsert 累加數量
+    UNIQUE (user_id, product_id)
+);
+-- 商品列表常見的「分類篩選 + 價格範圍 / 排序」查詢，以索引範圍掃描取代全表掃描與排序
+CREATE INDEX IF NOT EXISTS idx_product_category_price ON product (category, price);
+CREATE INDEX IF NOT EXISTS idx_product_category_created_date ON product (category, created_date);
+-- 不帶分類時的價格範圍與建立時間排序
+CREATE INDEX IF NOT EXISTS idx_product_price ON product (price);
+CREATE INDEX IF NOT EXISTS idx_product_created_date ON product (created_date);
+-- 訂單項目數量子查詢與依 order_id IN (...) 批次載入訂單項目（正式環境的 MySQL 也需建立此索引）
+CREATE INDEX IF NOT EXISTS idx_order_item_order_id ON order_item (order_id);
+
+-- 創建訂單的 Idempotency-Key，同一用戶的同一個 key 只會建立一筆訂單
+CREATE TABLE IF NOT EXISTS order_idempotency_key
+(
+    user_id         INT          NOT NULL,
+    idempotency_key VARCHAR(255) NOT NULL,
+    request_hash    CHAR(64)     NOT NULL,
+    order_id        INT,
+    created_date    TIMESTAMP    NOT NULL,
+    PRIMARY KEY (user_id, idempotency_key)
+);
+-- 定期刪除過期的 Idempotency-Key（正式環境的 MySQL 也需建立此索引）
+CREATE INDEX IF NOT EXISTS idx_order_idempotency_key_created_date ON order_idempotency_key (created_date);
+
+-- 熱門商品的庫存分片：商品的總庫存為 product.stock 加上所有分片的庫存，下單只鎖定其中一個分片
+CREATE TABLE IF NOT EXISTS product_stock_shard
+(
+    product_id INT NOT NULL,
+    shard      INT NOT NULL,
+    stock      INT NOT NULL,
+    PRIMARY KEY (product_id, shard)
+);
+
+-- 庫存異動帳：每次庫存異動新增一筆，只新增不修改；壓縮時併入 inventory_snapshot 後刪除
+CREATE TABLE IF NOT EXISTS inventory_movement
+(
+    movement_id  INT         NOT NULL PRIMARY KEY AUTO_INCREMENT,
+    product_id   INT         NOT NULL,
+    quantity     INT         NOT NULL,
+    reason       VARCHAR(32) NOT NULL,
+    order_id     INT,
+    created_date TIMESTAMP   NOT NULL
+);
+CREATE INDEX IF NOT EXISTS idx_inventory_movement_product_id ON inventory_movement (product_id, movement_id);
+
+CREATE TABLE IF NOT EXISTS inventory_snapshot
+(
+    product_id         INT       NOT NULL PRIMARY KEY,
+    stock              INT       NOT NULL,
+    last_movement_id   INT       NOT NULL,
+    last_modified_date TIMESTAMP NOT NULL
+);